@@ -0,0 +1,50 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Ends an upload body the relay reads from a PipedOutputStream. Closing the
+// pipe is a clean end of stream, after which the relay sends whatever it got
+// as a complete body. An aborted body instead gets one more byte from a
+// thread that then ends: once the relay has read what is buffered, its next
+// read finds the writer dead and throws, and the upload fails.
+final class BodyPipe {
+  private BodyPipe() {
+  }
+
+  static void abort(OutputStream pipe) {
+    Thread writer = new Thread(() -> {
+      try {
+        pipe.write(0);
+      } catch (IOException ignored) {
+        // The relay already stopped reading
+      }
+    }, "mte-relay-body-abort");
+    writer.setDaemon(true);
+    writer.start();
+  }
+}
@@ -0,0 +1,236 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Picks the relay's stream chunk size from measured throughput and round trip
+// time when adaptiveChunkSize is on. Small chunks waste a fast link on
+// per-chunk encryption and flushes; large ones stall progress and hold more
+// memory on a slow one. The size aimed for is what the link moves in
+// targetChunkMs, or in two round trips if that is longer, rounded down to a
+// power of two and kept within minBytes..maxBytes. Estimates are kept per
+// network type, so moving from Wi-Fi to cellular starts from what was last
+// learned there. A size is only left when the estimate is well past the next
+// step, so it does not flap between two sizes. The relay has one size for
+// all transfers, so a new one is applied by ChunkTuningRelayBackend only
+// while no transfer is running.
+final class ChunkSizeTuner {
+  static final int DEFAULT_MIN_BYTES = 16 * 1024;
+  static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+  static final int DEFAULT_TARGET_CHUNK_MS = 250;
+  private static final double ALPHA = 0.25;
+  private static final int MIN_SAMPLES = 3;
+  private static final int MAX_CHANGES = 16;
+  // Shortest interval that says anything about throughput
+  private static final long MIN_SAMPLE_NANOS = 1_000_000;
+
+  private static final class Estimate {
+    double bytesPerSecond;
+    double rttMs;
+    int samples;
+    int chunkSize;
+  }
+
+  private final Supplier<String> networkType;
+  private final Map<String, Estimate> estimates = new HashMap<>();
+  private final Deque<Map<String, Object>> changes = new ArrayDeque<>();
+  private volatile boolean enabled;
+  private int minBytes = DEFAULT_MIN_BYTES;
+  private int maxBytes = DEFAULT_MAX_BYTES;
+  private int targetChunkMs = DEFAULT_TARGET_CHUNK_MS;
+
+  ChunkSizeTuner(Supplier<String> networkType) {
+    this.networkType = networkType;
+  }
+
+  // Measures one transfer. Each call to progress counts the bytes moved since
+  // the last one.
+  final class Sample {
+    private final String network = networkType.get();
+    private long lastNanos = System.nanoTime();
+    private long lastBytes;
+
+    void progress(long bytesCompleted) {
+      long now = System.nanoTime();
+      long bytes = bytesCompleted - lastBytes;
+      long nanos = now - lastNanos;
+      if (bytes <= 0 || nanos < MIN_SAMPLE_NANOS) {
+        return;
+      }
+      lastBytes = bytesCompleted;
+      lastNanos = now;
+      recordThroughput(network, bytes, nanos);
+    }
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  Sample sample() {
+    return new Sample();
+  }
+
+  synchronized void configure(boolean enabled, int minBytes, int maxBytes, int targetChunkMs) {
+    this.enabled = enabled;
+    this.minBytes = Math.max(1024, minBytes);
+    this.maxBytes = Math.max(this.minBytes, maxBytes);
+    this.targetChunkMs = Math.max(1, targetChunkMs);
+    for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+      Estimate estimate = entry.getValue();
+      if (estimate.chunkSize != 0 && clamp(estimate.chunkSize) != estimate.chunkSize) {
+        change(entry.getKey(), estimate, clamp(estimate.chunkSize), "bounds");
+      }
+    }
+  }
+
+  synchronized int getMinBytes() {
+    return minBytes;
+  }
+
+  synchronized int getMaxBytes() {
+    return maxBytes;
+  }
+
+  synchronized int getTargetChunkMs() {
+    return targetChunkMs;
+  }
+
+  // The size for a transfer starting now on the current network. fallback,
+  // the configured streamChunkSize, is used until there is an estimate.
+  synchronized int chunkSize(int fallback) {
+    Estimate estimate = estimates.get(networkType.get());
+    return estimate != null && estimate.chunkSize != 0 ? estimate.chunkSize : clamp(fallback);
+  }
+
+  // Round trip of a data task through the relay, as a latency estimate
+  void recordRoundTrip(long nanos) {
+    if (!enabled) {
+      return;
+    }
+    String network = networkType.get();
+    synchronized (this) {
+      Estimate estimate = estimate(network);
+      double ms = nanos / 1e6;
+      estimate.rttMs = estimate.rttMs == 0 ? ms : estimate.rttMs + ALPHA * (ms - estimate.rttMs);
+    }
+  }
+
+  private synchronized void recordThroughput(String network, long bytes, long nanos) {
+    Estimate estimate = estimate(network);
+    double bytesPerSecond = bytes * 1e9 / nanos;
+    estimate.bytesPerSecond = estimate.samples == 0
+            ? bytesPerSecond
+            : estimate.bytesPerSecond + ALPHA * (bytesPerSecond - estimate.bytesPerSecond);
+    estimate.samples++;
+    if (enabled && estimate.samples >= MIN_SAMPLES) {
+      retune(network, estimate);
+    }
+  }
+
+  private void retune(String network, Estimate estimate) {
+    boolean latencyBound = 2 * estimate.rttMs > targetChunkMs;
+    double ideal = estimate.bytesPerSecond * (latencyBound ? 2 * estimate.rttMs : targetChunkMs) / 1000;
+    int current = estimate.chunkSize;
+    int size = clamp(Integer.highestOneBit((int) Math.min(ideal, 1 << 30)));
+    if (size == current) {
+      return;
+    }
+    if (current != 0) {
+      boolean up = size > current && ideal >= current * 2.5;
+      boolean down = size < current && ideal < current * 0.8;
+      if (!up && !down) {
+        return;
+      }
+    }
+    String reason = size == minBytes && ideal < minBytes ? "minBound"
+            : size == maxBytes && ideal > maxBytes ? "maxBound"
+            : latencyBound ? "latency"
+            : "throughput";
+    change(network, estimate, size, reason);
+  }
+
+  private void change(String network, Estimate estimate, int size, String reason) {
+    Map<String, Object> change = new HashMap<>();
+    change.put("atMs", System.currentTimeMillis());
+    change.put("networkType", network);
+    change.put("from", estimate.chunkSize);
+    change.put("to", size);
+    change.put("reason", reason);
+    change.put("bytesPerSecond", Math.round(estimate.bytesPerSecond));
+    change.put("rttMs", round(estimate.rttMs));
+    changes.addLast(change);
+    if (changes.size() > MAX_CHANGES) {
+      changes.removeFirst();
+    }
+    estimate.chunkSize = size;
+  }
+
+  private Estimate estimate(String network) {
+    return estimates.computeIfAbsent(network, n -> new Estimate());
+  }
+
+  private int clamp(int size) {
+    return Math.max(minBytes, Math.min(maxBytes, size));
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 10) / 10.0;
+  }
+
+  // enabled, bounds, the estimate and size per network type, and the last
+  // changes with the reason for each: throughput, latency, minBound,
+  // maxBound or bounds (the settings moved).
+  synchronized Map<String, Object> snapshot() {
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("enabled", enabled);
+    snapshot.put("minBytes", minBytes);
+    snapshot.put("maxBytes", maxBytes);
+    snapshot.put("targetChunkMs", targetChunkMs);
+    snapshot.put("networkType", networkType.get());
+    Map<String, Object> networks = new HashMap<>();
+    for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+      Estimate estimate = entry.getValue();
+      Map<String, Object> network = new HashMap<>();
+      network.put("chunkSize", estimate.chunkSize);
+      network.put("bytesPerSecond", Math.round(estimate.bytesPerSecond));
+      network.put("rttMs", round(estimate.rttMs));
+      network.put("samples", estimate.samples);
+      networks.put(entry.getKey(), network);
+    }
+    snapshot.put("networks", networks);
+    List<Map<String, Object>> recent = new ArrayList<>(changes);
+    snapshot.put("changes", recent);
+    return snapshot;
+  }
+}
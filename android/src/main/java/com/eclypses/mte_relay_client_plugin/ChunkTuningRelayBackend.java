@@ -0,0 +1,194 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.Request;
+import com.mte.relay.RelayDataTaskListener;
+import com.mte.relay.RelayFileRequestProperties;
+import com.mte.relay.RelayStreamCompletionCallback;
+import com.mte.relay.RelayStreamResponseListener;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Wraps the relay so transfers, plain, resumable or streamed, run with the
+// ChunkSizeTuner's size and report back how fast they went: uploads on each
+// progress update, downloads once, from the file size when they finish. The
+// relay keeps one chunk size for all transfers, which its helpers read at
+// times of their own, so the size is only changed while no transfer is
+// running: every transfer in flight at once uses the same size, and a new
+// one from the tuner takes effect once they have all finished.
+final class ChunkTuningRelayBackend implements RelayBackend {
+  private final RelayBackend relay;
+  private final ChunkSizeTuner tuner;
+  // The streamChunkSize the app asked for, used when tuning is off
+  private volatile int configuredChunkSize;
+  private int activeTransfers;
+
+  ChunkTuningRelayBackend(RelayBackend relay, ChunkSizeTuner tuner) {
+    this.relay = relay;
+    this.tuner = tuner;
+    this.configuredChunkSize = relay.getStreamChunkSizeSetting();
+  }
+
+  // Takes effect, like a new size from the tuner, when no transfer is running
+  void configureChunkTuning(boolean enabled, int minBytes, int maxBytes, int targetChunkMs) {
+    tuner.configure(enabled, minBytes, maxBytes, targetChunkMs);
+    synchronized (this) {
+      if (activeTransfers == 0) {
+        applyChunkSize();
+      }
+    }
+  }
+
+  // Returns the transfer's end, which only counts once: the relay may throw
+  // after it already reported the outcome
+  private Runnable transferStarted() {
+    synchronized (this) {
+      if (activeTransfers++ == 0) {
+        applyChunkSize();
+      }
+    }
+    AtomicBoolean finished = new AtomicBoolean();
+    return () -> {
+      if (finished.compareAndSet(false, true)) {
+        transferFinished();
+      }
+    };
+  }
+
+  private synchronized void transferFinished() {
+    activeTransfers--;
+  }
+
+  private void applyChunkSize() {
+    int size = tuner.isEnabled() ? tuner.chunkSize(configuredChunkSize) : configuredChunkSize;
+    if (size > 0 && size != relay.getStreamChunkSizeSetting()) {
+      relay.setStreamChunkSize(size);
+    }
+  }
+
+  @Override
+  public <T> void addToMteRequestQueue(Request<T> request,
+                                       String[] headersToEncrypt,
+                                       String pathnamePrefix,
+                                       RelayDataTaskListener listener) {
+    relay.addToMteRequestQueue(request, headersToEncrypt, pathnamePrefix, listener);
+  }
+
+  @Override
+  public void uploadFile(RelayFileRequestProperties properties,
+                         String route,
+                         String pathnamePrefix,
+                         RelayStreamResponseListener listener,
+                         RelayStreamCompletionCallback completionCallback) {
+    Runnable transferFinished = transferStarted();
+    ChunkSizeTuner.Sample sample = tuner.isEnabled() ? tuner.sample() : null;
+    try {
+      relay.uploadFile(properties, route, pathnamePrefix, (success, responseStr, errorMessage, responseHeaders) -> {
+        try {
+          listener.relayStreamResponse(success, responseStr, errorMessage, responseHeaders);
+        } finally {
+          transferFinished.run();
+        }
+      }, (bytesCompleted, totalBytes) -> {
+        if (sample != null) {
+          sample.progress(Integer.toUnsignedLong(bytesCompleted));
+        }
+        completionCallback.onProgressUpdate(bytesCompleted, totalBytes);
+      });
+    } catch (RuntimeException e) {
+      // No outcome will come, so the size must not stay locked
+      transferFinished.run();
+      throw e;
+    }
+  }
+
+  @Override
+  public void downloadFile(RelayFileRequestProperties properties,
+                           String pathnamePrefix,
+                           RelayStreamResponseListener listener) {
+    Runnable transferFinished = transferStarted();
+    ChunkSizeTuner.Sample sample = tuner.isEnabled() ? tuner.sample() : null;
+    try {
+      relay.downloadFile(properties, pathnamePrefix, (success, responseStr, errorMessage, responseHeaders) -> {
+        // A streamed download writes to a FIFO, whose length says nothing
+        File file = new File(properties.downloadPath);
+        if (sample != null && success && file.isFile()) {
+          sample.progress(file.length());
+        }
+        // The listener may still read the chunk size, as a resumable download
+        // does to keep whole chunks, so the transfer ends after it
+        try {
+          listener.relayStreamResponse(success, responseStr, errorMessage, responseHeaders);
+        } finally {
+          transferFinished.run();
+        }
+      });
+    } catch (RuntimeException e) {
+      transferFinished.run();
+      throw e;
+    }
+  }
+
+  @Override
+  public void rePairWithRelayServer(String url) {
+    relay.rePairWithRelayServer(url);
+  }
+
+  @Override
+  public String adjustRelaySettings(String serverUrl, int streamChunkSize, int pairPoolSize, Boolean persistPairs) {
+    if (streamChunkSize > 0) {
+      configuredChunkSize = streamChunkSize;
+    }
+    return relay.adjustRelaySettings(serverUrl, streamChunkSize, pairPoolSize, persistPairs);
+  }
+
+  @Override
+  public int getStreamChunkSizeSetting() {
+    return relay.getStreamChunkSizeSetting();
+  }
+
+  @Override
+  public void setStreamChunkSize(int streamChunkSize) {
+    relay.setStreamChunkSize(streamChunkSize);
+  }
+
+  @Override
+  public int getPairPoolSizeSetting() {
+    return relay.getPairPoolSizeSetting();
+  }
+
+  @Override
+  public boolean getPersistPairsSetting() {
+    return relay.getPersistPairsSetting();
+  }
+
+  @Override
+  public String[] getHostList() {
+    return relay.getHostList();
+  }
+}
@@ -0,0 +1,163 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Sends another request's body gzip compressed, with Content-Encoding: gzip.
+// The body is compressed before the relay encrypts it, which saves MTE work as
+// well as bytes on the wire; the server behind the relay has to accept gzip
+// request bodies. Like TracedRequest it only hands the relay its values.
+final class CompressedRequest extends Request<Object> {
+  static final String GZIP = "gzip";
+  static final int DEFAULT_MIN_BYTES = 1024;
+  // Largest response gunzip will inflate, so a small gzip bomb cannot
+  // exhaust the heap
+  static final int MAX_DECOMPRESSED_BYTES = 64 * 1024 * 1024;
+
+  private final Request<?> request;
+  private final byte[] body;
+
+  private CompressedRequest(Request<?> request, byte[] body) {
+    super(request.getMethod(), request.getUrl(), null);
+    this.request = request;
+    this.body = body;
+  }
+
+  // The compressed request, or request itself when its body is under
+  // minBytes, already encoded, or does not shrink.
+  static Request<?> compress(Request<?> request, int minBytes) throws AuthFailureError, IOException {
+    Map<String, String> headers = request.getHeaders();
+    if (headers != null) {
+      for (String name : headers.keySet()) {
+        if ("Content-Encoding".equalsIgnoreCase(name)) {
+          return request;
+        }
+      }
+    }
+    byte[] body = request.getBody();
+    if (body == null || body.length < minBytes) {
+      return request;
+    }
+    byte[] compressed = gzip(body);
+    return compressed.length < body.length ? new CompressedRequest(request, compressed) : request;
+  }
+
+  static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(data);
+    }
+    return out.toByteArray();
+  }
+
+  static byte[] gunzip(byte[] data) throws IOException {
+    return gunzip(data, MAX_DECOMPRESSED_BYTES);
+  }
+
+  // Fails once the output would pass maxBytes
+  static byte[] gunzip(byte[] data, int maxBytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min((long) data.length * 4, maxBytes));
+    try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+      byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = gzip.read(buffer)) != -1) {
+        if (read > maxBytes - out.size()) {
+          throw new IOException("decompressed size exceeds " + maxBytes + " bytes");
+        }
+        out.write(buffer, 0, read);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  // True when the response says gzip and the bytes still carry the gzip magic,
+  // i.e. nothing on the way has decompressed them already.
+  static boolean isGzipped(byte[] data, Map<String, List<String>> headers) {
+    if (data == null || data.length < 2 || (data[0] & 0xff) != 0x1f || (data[1] & 0xff) != 0x8b) {
+      return false;
+    }
+    String encoding = ResponseCache.header(headers, "Content-Encoding");
+    return encoding != null && encoding.trim().equalsIgnoreCase(GZIP);
+  }
+
+  // The headers of a decompressed response: its encoding and length no longer apply
+  static Map<String, List<String>> decodedHeaders(Map<String, List<String>> headers) {
+    Map<String, List<String>> decoded = new HashMap<>();
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (!"Content-Encoding".equalsIgnoreCase(header.getKey())
+              && !"Content-Length".equalsIgnoreCase(header.getKey())) {
+        decoded.put(header.getKey(), header.getValue());
+      }
+    }
+    return decoded;
+  }
+
+  @Override
+  public Map<String, String> getHeaders() throws AuthFailureError {
+    Map<String, String> headers = request.getHeaders() != null
+            ? new HashMap<>(request.getHeaders())
+            : new HashMap<>();
+    headers.put("Content-Encoding", GZIP);
+    return headers;
+  }
+
+  @Override
+  public byte[] getBody() {
+    return body;
+  }
+
+  @Override
+  public String getBodyContentType() {
+    return request.getBodyContentType();
+  }
+
+  @Override
+  public Priority getPriority() {
+    return request.getPriority();
+  }
+
+  @Override
+  protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+    return Response.error(new ParseError());
+  }
+
+  @Override
+  protected void deliverResponse(Object response) {
+  }
+}
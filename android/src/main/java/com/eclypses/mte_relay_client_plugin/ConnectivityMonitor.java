@@ -0,0 +1,292 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Re-pairs the relay in the background when the default network changes, so
+// the first request on the new network does not pay for a failed send and a
+// re-pair. On a change (or a loss) requests are held in the scheduler; once
+// the network has been stable for debounceMs the relay re-pairs every host,
+// and requests go on when it reports back or after maxHoldMs at the most.
+// Background re-pairs are at least minRePairIntervalMs apart; a change inside
+// that window is re-paired for when it ends, and requests are not held for it.
+// A network that comes back after a loss without changing is not re-paired.
+// All state lives on the timer thread, so the ConnectivityManager callbacks
+// only post to it.
+final class ConnectivityMonitor {
+
+  interface Actions {
+    // Holds queued requests back from the relay, or lets them go
+    void hold(boolean held);
+
+    // Re-pairs every host; rePairFinished() is called when that is done
+    void rePair();
+  }
+
+  static final int DEFAULT_DEBOUNCE_MS = 1000;
+  static final int DEFAULT_MIN_REPAIR_INTERVAL_MS = 30_000;
+  static final int DEFAULT_MAX_HOLD_MS = 3000;
+
+  private final ScheduledExecutorService timer;
+  private final Actions actions;
+  private volatile int debounceMs = DEFAULT_DEBOUNCE_MS;
+  private volatile int minRePairIntervalMs = DEFAULT_MIN_REPAIR_INTERVAL_MS;
+  private volatile int maxHoldMs = DEFAULT_MAX_HOLD_MS;
+  private volatile String networkType = "unknown";
+  // Written on the timer thread, read by isHolding() on any
+  private volatile boolean held;
+
+  // Timer thread only
+  private String currentNetwork;
+  private String pairedNetwork;
+  private boolean lost;
+  private boolean rePairing;
+  private long lastRePairNanos;
+  private ScheduledFuture<?> settle;
+  private ScheduledFuture<?> holdTimeout;
+
+  private ConnectivityManager connectivity;
+  private ConnectivityManager.NetworkCallback callback;
+
+  ConnectivityMonitor(ScheduledExecutorService timer, Actions actions) {
+    this.timer = timer;
+    this.actions = actions;
+  }
+
+  void configure(int debounceMs, int minRePairIntervalMs, int maxHoldMs) {
+    this.debounceMs = Math.max(0, debounceMs);
+    this.minRePairIntervalMs = Math.max(0, minRePairIntervalMs);
+    this.maxHoldMs = Math.max(0, maxHoldMs);
+  }
+
+  int getDebounceMs() {
+    return debounceMs;
+  }
+
+  int getMinRePairIntervalMs() {
+    return minRePairIntervalMs;
+  }
+
+  int getMaxHoldMs() {
+    return maxHoldMs;
+  }
+
+  synchronized boolean isRunning() {
+    return callback != null;
+  }
+
+  // The default network callback needs API 24; below that nothing is monitored
+  synchronized void start(Context context) {
+    if (callback != null || context == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+      return;
+    }
+    connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    if (connectivity == null) {
+      return;
+    }
+    callback = new ConnectivityManager.NetworkCallback() {
+      @Override
+      public void onAvailable(@NonNull Network network) {
+        ConnectivityManager manager = connectivity;
+        networkAvailable(network.toString(), typeOf(manager != null ? manager.getNetworkCapabilities(network) : null));
+      }
+
+      @Override
+      public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+        networkAvailable(network.toString(), typeOf(capabilities));
+      }
+
+      @Override
+      public void onLost(@NonNull Network network) {
+        networkLost(network.toString());
+      }
+    };
+    try {
+      connectivity.registerDefaultNetworkCallback(callback);
+    } catch (RuntimeException e) {
+      // Missing ACCESS_NETWORK_STATE, or too many callbacks registered
+      callback = null;
+    }
+  }
+
+  synchronized void stop() {
+    if (callback != null) {
+      try {
+        connectivity.unregisterNetworkCallback(callback);
+      } catch (RuntimeException ignored) {
+        // Already unregistered
+      }
+      callback = null;
+    }
+    post(() -> {
+      cancel(settle);
+      currentNetwork = null;
+      pairedNetwork = null;
+      lost = false;
+      rePairing = false;
+      setHeld(false);
+    });
+  }
+
+  // "wifi", "cellular", "ethernet", "other", "none" or "unknown"
+  String networkType() {
+    return networkType;
+  }
+
+  boolean isHolding() {
+    return held;
+  }
+
+  static String typeOf(NetworkCapabilities capabilities) {
+    if (capabilities == null) {
+      return "unknown";
+    }
+    if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+      return "wifi";
+    }
+    if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+      return "cellular";
+    }
+    if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+      return "ethernet";
+    }
+    return "other";
+  }
+
+  // network identifies the network, type is its networkType(). Called for
+  // every capability update as well, which is only news when it is another
+  // network or the first since a loss.
+  void networkAvailable(String network, String type) {
+    post(() -> {
+      networkType = type;
+      if (network.equals(currentNetwork) && !lost) {
+        return;
+      }
+      boolean first = currentNetwork == null && pairedNetwork == null;
+      currentNetwork = network;
+      lost = false;
+      if (first) {
+        pairedNetwork = network; // The relay pairs on its own network
+        return;
+      }
+      setHeld(true);
+      cancel(settle);
+      settle = schedule(this::settled, debounceMs);
+    });
+  }
+
+  void networkLost(String network) {
+    post(() -> {
+      if (!network.equals(currentNetwork)) {
+        return;
+      }
+      lost = true;
+      networkType = "none";
+      cancel(settle);
+      setHeld(true);
+    });
+  }
+
+  void rePairFinished() {
+    post(() -> {
+      if (rePairing) {
+        rePairing = false;
+        setHeld(false);
+      }
+    });
+  }
+
+  private void settled() {
+    if (lost || currentNetwork == null) {
+      return;
+    }
+    if (currentNetwork.equals(pairedNetwork)) {
+      setHeld(false);
+      return;
+    }
+    long sinceLast = (System.nanoTime() - lastRePairNanos) / 1_000_000;
+    if (lastRePairNanos != 0 && sinceLast < minRePairIntervalMs) {
+      // Too soon for another re-pair; requests go on and the re-pair waits
+      setHeld(false);
+      settle = schedule(this::settled, minRePairIntervalMs - sinceLast);
+      return;
+    }
+    pairedNetwork = currentNetwork;
+    lastRePairNanos = System.nanoTime();
+    rePairing = true;
+    setHeld(true);
+    actions.rePair();
+  }
+
+  private void setHeld(boolean held) {
+    cancel(holdTimeout);
+    holdTimeout = null;
+    if (held) {
+      holdTimeout = schedule(() -> {
+        rePairing = false;
+        setHeld(false);
+      }, maxHoldMs);
+    }
+    if (this.held != held) {
+      this.held = held;
+      actions.hold(held);
+    }
+  }
+
+  private void post(Runnable task) {
+    try {
+      timer.execute(task);
+    } catch (RejectedExecutionException ignored) {
+      // Detached from the engine
+    }
+  }
+
+  private ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+    try {
+      return timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  private static void cancel(ScheduledFuture<?> future) {
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+}
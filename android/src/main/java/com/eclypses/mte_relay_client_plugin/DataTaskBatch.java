@@ -0,0 +1,138 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Collects the per-request results of a relayDataTaskBatch call. Each request
+// completes its own item Result from whichever relay thread delivers it; the
+// batch either replies once with every result, or hands each one to the
+// Listener as it is ready (in submission or completion order).
+final class DataTaskBatch {
+
+  interface Listener {
+    void onItem(String batchID, Map<String, Object> itemResult);
+
+    void onDone(String batchID);
+  }
+
+  private final String batchID;
+  private final boolean completionOrder;
+  @Nullable
+  private final Listener listener;
+  private final MethodChannel.Result result;
+
+  private final List<Map<String, Object>> results;
+  private final List<Map<String, Object>> completed;
+  private int remaining;
+  private int nextToEmit;
+
+  DataTaskBatch(String batchID,
+                int size,
+                boolean completionOrder,
+                @Nullable Listener listener,
+                MethodChannel.Result result) {
+    this.batchID = batchID;
+    this.completionOrder = completionOrder;
+    this.listener = listener;
+    this.result = result;
+    this.results = new ArrayList<>(Collections.nCopies(size, null));
+    this.completed = new ArrayList<>(size);
+    this.remaining = size;
+    if (size == 0) {
+      finish();
+    }
+  }
+
+  // The Result handed to relayDataTask for the request at index
+  MethodChannel.Result itemResult(int index) {
+    return new SafeResult(new MethodChannel.Result() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public void success(@Nullable Object value) {
+        complete(index, value instanceof Map ? (Map<String, Object>) value : failure(null, null));
+      }
+
+      @Override
+      public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+        complete(index, failure(errorCode, errorMessage != null ? errorMessage : errorCode));
+      }
+
+      @Override
+      public void notImplemented() {
+        complete(index, failure(null, "Not implemented"));
+      }
+    });
+  }
+
+  // errorCode keeps what relayDataTask would have failed with on its own,
+  // such as CANCELLED or TIMEOUT
+  private static Map<String, Object> failure(@Nullable String errorCode, @Nullable String message) {
+    Map<String, Object> map = new HashMap<>();
+    map.put("success", false);
+    map.put("data", null);
+    map.put("headers", null);
+    map.put("pluginError", message);
+    map.put("errorCode", errorCode);
+    return map;
+  }
+
+  private synchronized void complete(int index, Map<String, Object> value) {
+    Map<String, Object> item = new HashMap<>(value);
+    item.put("index", index);
+    results.set(index, item);
+    completed.add(item);
+
+    if (listener != null) {
+      if (completionOrder) {
+        listener.onItem(batchID, item);
+      } else {
+        while (nextToEmit < results.size() && results.get(nextToEmit) != null) {
+          listener.onItem(batchID, results.get(nextToEmit++));
+        }
+      }
+    }
+
+    if (--remaining == 0) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    if (listener != null) {
+      listener.onDone(batchID);
+    } else {
+      result.success(completionOrder ? completed : results);
+    }
+  }
+}
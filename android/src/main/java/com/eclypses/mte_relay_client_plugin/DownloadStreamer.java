@@ -0,0 +1,226 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Streams a relay download to Dart as it is decrypted. The relay writes the
+// plaintext to a named pipe instead of the download file; this reader forwards
+// each chunk to the sink. While paused the reader stops draining the pipe, the
+// relay's writes block once the pipe is full and the download stalls with it.
+final class DownloadStreamer implements Runnable {
+
+  interface Sink {
+    void onChunk(String downloadID, byte[] data);
+
+    void onDone(String downloadID, boolean success, String errorMessage, Map<String, List<String>> headers);
+  }
+
+  private static final int POLL_TIMEOUT_MS = 50;
+  private static final long IDLE_WAIT_MS = 10;
+
+  private final String downloadID;
+  private final File fifo;
+  private final File copyTo;
+  private final int chunkSize;
+  private final Sink sink;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition stateChanged = lock.newCondition();
+  private boolean paused;
+  private boolean cancelled;
+  private boolean writerFinished;
+  private boolean writerSuccess;
+  private String writerError;
+  private Map<String, List<String>> writerHeaders;
+
+  DownloadStreamer(String downloadID, File fifo, File copyTo, int chunkSize, Sink sink) {
+    this.downloadID = downloadID;
+    this.fifo = fifo;
+    this.copyTo = copyTo;
+    this.chunkSize = chunkSize > 0 ? chunkSize : 64 * 1024;
+    this.sink = sink;
+  }
+
+  static File createFifo(File directory, String downloadID) throws IOException {
+    File fifo = new File(directory, "mte_relay_download_" + downloadID + ".fifo");
+    try {
+      Os.mkfifo(fifo.getAbsolutePath(), OsConstants.S_IRUSR | OsConstants.S_IWUSR);
+    } catch (ErrnoException e) {
+      throw new IOException("Unable to create download pipe: " + e.getMessage(), e);
+    }
+    return fifo;
+  }
+
+  File getFifo() {
+    return fifo;
+  }
+
+  void pause() {
+    lock.lock();
+    try {
+      paused = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void resume() {
+    lock.lock();
+    try {
+      paused = false;
+      stateChanged.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void cancel() {
+    lock.lock();
+    try {
+      cancelled = true;
+      stateChanged.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Called from the relay response listener once the relay is done with the pipe.
+  void writerFinished(boolean success, String errorMessage, Map<String, List<String>> headers) {
+    lock.lock();
+    try {
+      writerFinished = true;
+      writerSuccess = success;
+      writerError = errorMessage;
+      writerHeaders = headers;
+      stateChanged.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void run() {
+    FileDescriptor fd = null;
+    OutputStream copyStream = null;
+    try {
+      // Non-blocking open so a relay that fails before it ever opens the pipe
+      // cannot leave this thread stuck in open().
+      fd = Os.open(fifo.getAbsolutePath(), OsConstants.O_RDONLY | OsConstants.O_NONBLOCK, 0);
+      if (copyTo != null) {
+        copyStream = new FileOutputStream(copyTo);
+      }
+      StructPollfd pollfd = new StructPollfd();
+      pollfd.fd = fd;
+      pollfd.events = (short) OsConstants.POLLIN;
+      byte[] buffer = new byte[chunkSize];
+
+      while (true) {
+        boolean finished;
+        lock.lock();
+        try {
+          while (paused && !cancelled) {
+            stateChanged.await();
+          }
+          if (cancelled) {
+            sink.onDone(downloadID, false, "Download stream cancelled.", null);
+            return;
+          }
+          finished = writerFinished;
+        } finally {
+          lock.unlock();
+        }
+
+        int bytesRead;
+        try {
+          Os.poll(new StructPollfd[]{pollfd}, POLL_TIMEOUT_MS);
+          bytesRead = Os.read(fd, buffer, 0, buffer.length);
+        } catch (ErrnoException e) {
+          if (e.errno == OsConstants.EAGAIN || e.errno == OsConstants.EINTR) {
+            continue; // A writer is attached but has nothing for us yet
+          }
+          throw e;
+        }
+
+        if (bytesRead > 0) {
+          byte[] chunk = Arrays.copyOf(buffer, bytesRead);
+          if (copyStream != null) {
+            copyStream.write(chunk);
+          }
+          sink.onChunk(downloadID, chunk);
+        } else if (finished) {
+          // No writer and the relay has reported back, so the pipe is drained.
+          sink.onDone(downloadID, writerSuccess, writerError, writerHeaders);
+          return;
+        } else {
+          // No writer attached yet, or it closed before the relay reported back.
+          lock.lock();
+          try {
+            if (!writerFinished && !cancelled) {
+              stateChanged.await(IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+            }
+          } finally {
+            lock.unlock();
+          }
+        }
+      }
+    } catch (ErrnoException | IOException e) {
+      sink.onDone(downloadID, false, "Download stream failed: " + e.getMessage(), null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      sink.onDone(downloadID, false, "Download stream interrupted.", null);
+    } finally {
+      if (copyStream != null) {
+        try {
+          copyStream.close();
+        } catch (IOException ignored) {
+        }
+      }
+      if (fd != null) {
+        try {
+          Os.close(fd);
+        } catch (ErrnoException ignored) {
+        }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      fifo.delete();
+    }
+  }
+}
@@ -0,0 +1,386 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// Spreads relayDataTask calls over several relay servers. A request whose url
+// starts with the origin of one of the endpoints is sent to the endpoint the
+// policy picks, path and query unchanged; the relay pairs with each endpoint
+// host separately, so every endpoint has its own pair pool.
+//   latency    lowest average round trip, weighed up by its error rate
+//   errorRate  lowest error rate, then lowest latency
+//   weighted   at random in proportion to each endpoint's weight
+// An endpoint that fails ejectAfterFailures times in a row without answering
+// is left out for ejectMs, doubling per ejection up to maxEjectMs. Afterwards
+// it gets a trial request: an answer restores it, another failure ejects it
+// again. Under latency an endpoint without a recent sample is tried first so
+// estimates do not go stale. When every endpoint is ejected, the one back
+// soonest is used rather than failing outright.
+final class EndpointRouter {
+
+  enum Policy {
+    LATENCY("latency"),
+    ERROR_RATE("errorRate"),
+    WEIGHTED("weighted");
+
+    final String value;
+
+    Policy(String value) {
+      this.value = value;
+    }
+
+    @Nullable
+    static Policy of(Object value) {
+      for (Policy policy : values()) {
+        if (policy.value.equals(value)) {
+          return policy;
+        }
+      }
+      return null;
+    }
+  }
+
+  static final int DEFAULT_EJECT_AFTER_FAILURES = 3;
+  static final int DEFAULT_EJECT_MS = 10_000;
+  static final int DEFAULT_MAX_EJECT_MS = 300_000;
+  // Under latency, an endpoint not measured for this long is measured again
+  static final int PROBE_INTERVAL_MS = 30_000;
+  private static final double ALPHA = 0.2;
+
+  static final class Endpoint {
+    final String origin;
+    final int weight;
+    private double latencyMs = -1;
+    private double errorRate;
+    private long requests;
+    private long failures;
+    private long selected;
+    private int consecutiveFailures;
+    private int ejections;
+    private long ejectedUntilNanos;
+    private long measuredNanos;
+
+    private Endpoint(String origin, int weight) {
+      this.origin = origin;
+      this.weight = weight;
+    }
+
+    // url with its origin replaced by this endpoint's
+    String rewrite(String url) {
+      String from = originOf(url);
+      return from != null ? origin + url.substring(from.length()) : url;
+    }
+  }
+
+  private final LongSupplier clock;
+  private final Random random;
+  private List<Endpoint> endpoints = Collections.emptyList();
+  private Policy policy = Policy.LATENCY;
+  private int ejectAfterFailures = DEFAULT_EJECT_AFTER_FAILURES;
+  private int ejectMs = DEFAULT_EJECT_MS;
+  private int maxEjectMs = DEFAULT_MAX_EJECT_MS;
+
+  EndpointRouter() {
+    this(System::nanoTime, new Random());
+  }
+
+  EndpointRouter(LongSupplier clock, Random random) {
+    this.clock = clock;
+    this.random = random;
+  }
+
+  // specs holds urls, or maps with a 'url' and an optional 'weight' (1 by
+  // default). Endpoints already known keep their measurements.
+  synchronized void setEndpoints(List<?> specs) {
+    List<Endpoint> configured = new ArrayList<>();
+    for (Object spec : specs) {
+      Object url = spec instanceof Map ? ((Map<?, ?>) spec).get("url") : spec;
+      Object weight = spec instanceof Map ? ((Map<?, ?>) spec).get("weight") : null;
+      String origin = url instanceof String ? originOf((String) url) : null;
+      if (origin == null) {
+        throw new IllegalArgumentException("relayEndpoints entries need an http(s) url: " + spec);
+      }
+      int endpointWeight = weight instanceof Integer ? Math.max(0, (Integer) weight) : 1;
+      Endpoint endpoint = new Endpoint(origin, endpointWeight);
+      Endpoint known = find(origin);
+      if (known != null) {
+        endpoint.latencyMs = known.latencyMs;
+        endpoint.errorRate = known.errorRate;
+        endpoint.requests = known.requests;
+        endpoint.failures = known.failures;
+        endpoint.selected = known.selected;
+        endpoint.consecutiveFailures = known.consecutiveFailures;
+        endpoint.ejections = known.ejections;
+        endpoint.ejectedUntilNanos = known.ejectedUntilNanos;
+        endpoint.measuredNanos = known.measuredNanos;
+      }
+      configured.add(endpoint);
+    }
+    endpoints = Collections.unmodifiableList(configured);
+  }
+
+  synchronized void configure(Policy policy, int ejectAfterFailures, int ejectMs, int maxEjectMs) {
+    this.policy = policy;
+    this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+    this.ejectMs = Math.max(0, ejectMs);
+    this.maxEjectMs = Math.max(this.ejectMs, maxEjectMs);
+  }
+
+  synchronized Policy getPolicy() {
+    return policy;
+  }
+
+  synchronized int getEjectAfterFailures() {
+    return ejectAfterFailures;
+  }
+
+  synchronized int getEjectMs() {
+    return ejectMs;
+  }
+
+  synchronized int getMaxEjectMs() {
+    return maxEjectMs;
+  }
+
+  synchronized int size() {
+    return endpoints.size();
+  }
+
+  // Whether requests to url are routed, which is when its origin is one of
+  // the endpoints
+  synchronized boolean routes(String url) {
+    String origin = originOf(url);
+    return origin != null && find(origin) != null;
+  }
+
+  // The endpoint for the next request, other than avoid when another one is
+  // up; null when there are no endpoints
+  @Nullable
+  synchronized Endpoint select(@Nullable Endpoint avoid) {
+    long now = clock.getAsLong();
+    List<Endpoint> candidates = new ArrayList<>();
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint != avoid && !isEjected(endpoint, now)) {
+        candidates.add(endpoint);
+      }
+    }
+    if (candidates.isEmpty() && avoid != null && endpoints.contains(avoid) && !isEjected(avoid, now)) {
+      candidates.add(avoid);
+    }
+    Endpoint chosen;
+    if (candidates.isEmpty()) {
+      chosen = soonestBack();
+    } else if (policy == Policy.WEIGHTED) {
+      chosen = weighted(candidates);
+    } else {
+      chosen = policy == Policy.LATENCY ? stale(candidates, now) : null;
+      if (chosen == null) {
+        chosen = best(candidates);
+      }
+    }
+    if (chosen != null) {
+      chosen.selected++;
+    }
+    return chosen;
+  }
+
+  // Whether an endpoint other than this one can take a request now
+  synchronized boolean hasAlternative(Endpoint endpoint) {
+    long now = clock.getAsLong();
+    for (Endpoint other : endpoints) {
+      if (other != endpoint && !isEjected(other, now)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // answered is whether the endpoint replied at all; an error reply still
+  // shows it is up. latencyNanos only counts for answered requests.
+  synchronized void record(Endpoint endpoint, boolean answered, long latencyNanos) {
+    long now = clock.getAsLong();
+    endpoint.requests++;
+    if (answered) {
+      double sample = latencyNanos / 1e6;
+      endpoint.latencyMs = endpoint.latencyMs < 0 ? sample : endpoint.latencyMs + ALPHA * (sample - endpoint.latencyMs);
+      endpoint.errorRate -= ALPHA * endpoint.errorRate;
+      endpoint.consecutiveFailures = 0;
+      endpoint.ejections = 0;
+      endpoint.measuredNanos = now;
+      return;
+    }
+    endpoint.failures++;
+    endpoint.errorRate += ALPHA * (1 - endpoint.errorRate);
+    endpoint.consecutiveFailures++;
+    if (endpoint.consecutiveFailures >= ejectAfterFailures && !isEjected(endpoint, now)) {
+      long ejectFor = Math.min(maxEjectMs, (long) ejectMs << Math.min(endpoint.ejections, 20));
+      endpoint.ejections++;
+      endpoint.ejectedUntilNanos = now + ejectFor * 1_000_000L;
+      // One more failure on the trial request ejects it again
+      endpoint.consecutiveFailures = ejectAfterFailures - 1;
+    }
+  }
+
+  synchronized Map<String, Object> snapshot() {
+    long now = clock.getAsLong();
+    List<Map<String, Object>> list = new ArrayList<>();
+    for (Endpoint endpoint : endpoints) {
+      Map<String, Object> map = new HashMap<>();
+      map.put("url", endpoint.origin);
+      map.put("weight", endpoint.weight);
+      map.put("state", isEjected(endpoint, now) ? "ejected" : endpoint.ejections > 0 ? "trial" : "healthy");
+      map.put("ejectedForMs", isEjected(endpoint, now) ? (endpoint.ejectedUntilNanos - now) / 1_000_000 : 0);
+      map.put("latencyMs", endpoint.latencyMs >= 0 ? endpoint.latencyMs : null);
+      map.put("errorRate", endpoint.errorRate);
+      map.put("requests", endpoint.requests);
+      map.put("failures", endpoint.failures);
+      map.put("selected", endpoint.selected);
+      map.put("consecutiveFailures", endpoint.consecutiveFailures);
+      map.put("ejections", endpoint.ejections);
+      list.add(map);
+    }
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("policy", policy.value);
+    snapshot.put("endpoints", list);
+    return snapshot;
+  }
+
+  // scheme://authority in lower case, or null for anything but http(s)
+  @Nullable
+  static String originOf(String url) {
+    try {
+      URL parsed = new URL(url);
+      String protocol = parsed.getProtocol();
+      if ((!"http".equals(protocol) && !"https".equals(protocol)) || parsed.getAuthority() == null) {
+        return null;
+      }
+      String origin = protocol + "://" + parsed.getAuthority();
+      // The prefix of url itself, so rewrite can cut it off
+      return url.regionMatches(true, 0, origin, 0, origin.length())
+              ? url.substring(0, origin.length()).toLowerCase(Locale.ROOT)
+              : null;
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private Endpoint find(String origin) {
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint.origin.equalsIgnoreCase(origin)) {
+        return endpoint;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isEjected(Endpoint endpoint, long now) {
+    return endpoint.ejectedUntilNanos != 0 && endpoint.ejectedUntilNanos - now > 0;
+  }
+
+  @Nullable
+  private Endpoint soonestBack() {
+    Endpoint soonest = null;
+    for (Endpoint endpoint : endpoints) {
+      if (soonest == null || endpoint.ejectedUntilNanos - soonest.ejectedUntilNanos < 0) {
+        soonest = endpoint;
+      }
+    }
+    return soonest;
+  }
+
+  // Unmeasured, or not measured for PROBE_INTERVAL_MS; marked measured now so
+  // only one request goes to find out
+  @Nullable
+  private static Endpoint stale(List<Endpoint> candidates, long now) {
+    for (Endpoint endpoint : candidates) {
+      if (endpoint.latencyMs < 0 && endpoint.selected == 0
+              || endpoint.latencyMs >= 0 && now - endpoint.measuredNanos > PROBE_INTERVAL_MS * 1_000_000L) {
+        endpoint.measuredNanos = now;
+        return endpoint;
+      }
+    }
+    return null;
+  }
+
+  private Endpoint best(List<Endpoint> candidates) {
+    Endpoint best = null;
+    for (Endpoint endpoint : candidates) {
+      if (best == null || compare(endpoint, best) < 0) {
+        best = endpoint;
+      }
+    }
+    return best;
+  }
+
+  private int compare(Endpoint a, Endpoint b) {
+    if (policy == Policy.ERROR_RATE && a.errorRate != b.errorRate) {
+      return Double.compare(a.errorRate, b.errorRate);
+    }
+    int byScore = Double.compare(score(a), score(b));
+    // Ties go to the one picked less, so equal endpoints share the load
+    return byScore != 0 ? byScore : Long.compare(a.selected, b.selected);
+  }
+
+  // Never answered: untried ones first, failing ones last
+  private double score(Endpoint endpoint) {
+    if (endpoint.latencyMs < 0) {
+      return endpoint.failures > 0 ? Double.MAX_VALUE : 0;
+    }
+    double latency = endpoint.latencyMs;
+    return policy == Policy.LATENCY ? latency / Math.max(0.05, 1 - endpoint.errorRate) : latency;
+  }
+
+  private Endpoint weighted(List<Endpoint> candidates) {
+    long total = 0;
+    for (Endpoint endpoint : candidates) {
+      total += endpoint.weight;
+    }
+    if (total == 0) {
+      return candidates.get(random.nextInt(candidates.size()));
+    }
+    long pick = (long) (random.nextDouble() * total);
+    for (Endpoint endpoint : candidates) {
+      pick -= endpoint.weight;
+      if (pick < 0) {
+        return endpoint;
+      }
+    }
+    return candidates.get(candidates.size() - 1);
+  }
+}
@@ -0,0 +1,161 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Collects native-to-Dart events from relay and plugin threads without locking
+// and delivers them as one "batchedEvents" call per flush interval on the
+// plugin's main thread.
+final class EventDispatcher {
+
+  // The thread events are delivered on: the platform thread through a Handler
+  // in the app, or any single thread when the plugin runs on a plain JVM.
+  interface MainThread {
+    void post(Runnable runnable);
+
+    void postDelayed(Runnable runnable, long delayMs);
+
+    void removeCallbacks(Runnable runnable);
+  }
+
+  static MainThread of(Handler handler) {
+    return new MainThread() {
+      @Override
+      public void post(Runnable runnable) {
+        handler.post(runnable);
+      }
+
+      @Override
+      public void postDelayed(Runnable runnable, long delayMs) {
+        handler.postDelayed(runnable, delayMs);
+      }
+
+      @Override
+      public void removeCallbacks(Runnable runnable) {
+        handler.removeCallbacks(runnable);
+      }
+    };
+  }
+
+  // Arguments resolved on the main thread at flush time, so only the latest
+  // value is sent. A null result drops the event.
+  interface LazyArguments {
+    Object get();
+  }
+
+  private static final class Event {
+    final String method;
+    final Object arguments;
+
+    Event(String method, Object arguments) {
+      this.method = method;
+      this.arguments = arguments;
+    }
+  }
+
+  private final MainThread mainThread;
+  private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  private final Runnable flushRunnable = this::flush;
+  private volatile MethodChannel channel;
+  private volatile long flushIntervalMs = 16;
+
+  EventDispatcher(MainThread mainThread, MethodChannel channel) {
+    this.mainThread = mainThread;
+    this.channel = channel;
+  }
+
+  void setFlushIntervalMs(long flushIntervalMs) {
+    this.flushIntervalMs = flushIntervalMs;
+  }
+
+  long getFlushIntervalMs() {
+    return flushIntervalMs;
+  }
+
+  void dispatch(String method, Object arguments) {
+    queue.add(new Event(method, arguments));
+    scheduleFlush();
+  }
+
+  void dispatchLazy(String method, LazyArguments arguments) {
+    dispatch(method, arguments);
+  }
+
+  // Runs a task on the main thread.
+  void post(Runnable runnable) {
+    mainThread.post(runnable);
+  }
+
+  void close() {
+    channel = null;
+    queue.clear();
+    mainThread.removeCallbacks(flushRunnable);
+  }
+
+  private void scheduleFlush() {
+    if (scheduled.compareAndSet(false, true)) {
+      long delay = flushIntervalMs;
+      if (delay > 0) {
+        mainThread.postDelayed(flushRunnable, delay);
+      } else {
+        mainThread.post(flushRunnable);
+      }
+    }
+  }
+
+  private void flush() {
+    // Cleared before draining so an event queued mid-flush schedules the next one.
+    scheduled.set(false);
+    List<Map<String, Object>> batch = new ArrayList<>();
+    Event event;
+    while ((event = queue.poll()) != null) {
+      Object arguments = event.arguments instanceof LazyArguments
+              ? ((LazyArguments) event.arguments).get()
+              : event.arguments;
+      if (event.arguments instanceof LazyArguments && arguments == null) {
+        continue;
+      }
+      Map<String, Object> entry = new HashMap<>();
+      entry.put("method", event.method);
+      entry.put("arguments", arguments);
+      batch.add(entry);
+    }
+    MethodChannel methodChannel = channel;
+    if (methodChannel != null && !batch.isEmpty()) {
+      methodChannel.invokeMethod("batchedEvents", batch);
+    }
+  }
+}
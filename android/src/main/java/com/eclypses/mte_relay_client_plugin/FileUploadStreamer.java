@@ -0,0 +1,186 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+// Feeds a local file (or content:// URI) straight into the relay's request body
+// pipe, so the bytes never cross the method channel. Optional prefix and
+// suffix bytes frame the file, e.g. for a multipart/form-data body.
+final class FileUploadStreamer implements Runnable {
+
+  interface Listener {
+    void onError(String message);
+  }
+
+  private final Context context;
+  private final String source;
+  private final byte[] prefix;
+  private final byte[] suffix;
+  private final OutputStream outputStream;
+  private final int chunkSize;
+  private final Listener listener;
+  private final long offset;
+  private long toSkip;
+  private volatile boolean cancelled;
+
+  FileUploadStreamer(Context context,
+                     String source,
+                     byte[] prefix,
+                     byte[] suffix,
+                     OutputStream outputStream,
+                     int chunkSize,
+                     Listener listener) {
+    this(context, source, prefix, suffix, outputStream, chunkSize, listener, 0);
+  }
+
+  // Starts offset bytes into the framed body, to resume an upload
+  FileUploadStreamer(Context context,
+                     String source,
+                     byte[] prefix,
+                     byte[] suffix,
+                     OutputStream outputStream,
+                     int chunkSize,
+                     Listener listener,
+                     long offset) {
+    this.context = context;
+    this.source = source;
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.outputStream = outputStream;
+    this.chunkSize = chunkSize > 0 ? chunkSize : 1024 * 1024;
+    this.listener = listener;
+    this.offset = offset;
+  }
+
+  // Only a body written to the end is closed; a cancelled or failed one is
+  // aborted so the relay does not send it as a complete upload.
+  @Override
+  public void run() {
+    toSkip = offset;
+    boolean complete = false;
+    try (ReadableByteChannel channel = openChannel()) {
+      if (prefix != null) {
+        write(prefix, 0, prefix.length);
+      }
+      // Seekable sources jump straight to the resume point
+      if (toSkip > 0 && channel instanceof FileChannel) {
+        FileChannel fileChannel = (FileChannel) channel;
+        long start = fileChannel.position();
+        long skipped = Math.min(toSkip, Math.max(0, fileChannel.size() - start));
+        fileChannel.position(start + skipped);
+        toSkip -= skipped;
+      }
+      // One reusable heap buffer; its backing array is written to the pipe directly.
+      ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+      while (channel.read(buffer) != -1) {
+        if (cancelled) {
+          return;
+        }
+        buffer.flip();
+        write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.clear();
+      }
+      if (suffix != null) {
+        write(suffix, 0, suffix.length);
+      }
+      complete = true;
+    } catch (IOException | SecurityException e) {
+      listener.onError("File upload stream failed: " + e.getMessage());
+    } finally {
+      if (complete) {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          listener.onError("closeStream Exception: " + e.getMessage());
+        }
+      } else {
+        BodyPipe.abort(outputStream);
+      }
+    }
+  }
+
+  // Writes what is left of the body once the first offset bytes are skipped
+  private void write(byte[] data, int start, int length) throws IOException {
+    if (toSkip >= length) {
+      toSkip -= length;
+      return;
+    }
+    int skip = (int) toSkip;
+    toSkip = 0;
+    outputStream.write(data, start + skip, length - skip);
+  }
+
+  // Stops feeding the pipe before the next chunk and fails the body
+  void cancel() {
+    cancelled = true;
+  }
+
+  // Total body length in bytes, or -1 when the source size cannot be determined.
+  static long bodyLength(Context context, String source, byte[] prefix, byte[] suffix) {
+    long length;
+    if (source.startsWith("content://")) {
+      try (AssetFileDescriptor descriptor = context.getContentResolver().openAssetFileDescriptor(Uri.parse(source), "r")) {
+        length = descriptor != null ? descriptor.getLength() : -1;
+      } catch (IOException | SecurityException e) {
+        length = -1;
+      }
+    } else {
+      File file = new File(source.startsWith("file://") ? Uri.parse(source).getPath() : source);
+      length = file.isFile() ? file.length() : -1;
+    }
+    if (length < 0) {
+      return -1;
+    }
+    return length + (prefix != null ? prefix.length : 0) + (suffix != null ? suffix.length : 0);
+  }
+
+  private ReadableByteChannel openChannel() throws IOException {
+    if (source.startsWith("content://")) {
+      InputStream inputStream = context.getContentResolver().openInputStream(Uri.parse(source));
+      if (inputStream == null) {
+        throw new IOException("Unable to open " + source);
+      }
+      if (inputStream instanceof FileInputStream) {
+        return ((FileInputStream) inputStream).getChannel();
+      }
+      return Channels.newChannel(inputStream);
+    }
+    String path = source.startsWith("file://") ? Uri.parse(source).getPath() : source;
+    return new FileInputStream(path).getChannel();
+  }
+}
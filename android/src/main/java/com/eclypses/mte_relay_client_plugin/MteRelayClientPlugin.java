@@ -25,6 +25,9 @@
 package com.eclypses.mte_relay_client_plugin;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 
@@ -32,12 +35,16 @@ import com.android.volley.AuthFailureError;
 import com.android.volley.Request;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugin.common.StandardMethodCodec;
 
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.JsonArrayRequest;
@@ -55,11 +62,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PipedOutputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -67,84 +77,290 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
   private Context context;
   private MethodChannel methodChannel;
-  private Relay relay;
-  private final Map<String, OutputStream> outputStreams = new HashMap<>();
+  private EventDispatcher dispatcher;
+  private volatile ChunkTuningRelayBackend relay;
+  private final Map<String, UploadStreamBuffer> outputStreams = new ConcurrentHashMap<>();
+  private volatile int streamWindowChunks = 8;
+  private volatile long progressIntervalMs = 100;
+  private volatile double progressMinDelta = 0.01;
+  private EventChannel downloadEventChannel;
+  private volatile EventChannel.EventSink downloadEventSink;
+  private final Map<String, DownloadStreamer> downloadStreams = new ConcurrentHashMap<>();
+  private final ResponseCache responseCache = new ResponseCache(0);
+  private final RequestCoalescer coalescer = new RequestCoalescer();
+  private final ChunkSizeTuner chunkTuner = new ChunkSizeTuner(this::networkType);
+  private final RelayMetrics metrics = new RelayMetrics(chunkTuner::recordRoundTrip);
+  private volatile String networkType = "unknown";
+  private volatile long networkTypeCheckedNanos;
+  private volatile long metricsIntervalMs = 0;
+  private EventDispatcher.MainThread mainThread;
+  private volatile boolean coalesceRequests = false;
+  private final RequestScheduler scheduler = new RequestScheduler(this::defaultConcurrency);
+  private final Map<String, FileUploadStreamer> fileUploads = new ConcurrentHashMap<>();
+  private final Map<String, ResumableTransfer> resumableTransfers = new ConcurrentHashMap<>();
+  private volatile RelayRetryPolicy retryPolicy = RelayRetryPolicy.DEFAULT;
+  private final EndpointRouter endpointRouter = new EndpointRouter();
+  // Responses at least this long go to a file instead of over the channel; 0 never
+  private volatile int spillResponseBytes = 0;
+  private volatile boolean compressRequests = false;
+  private volatile int compressMinBytes = CompressedRequest.DEFAULT_MIN_BYTES;
+  private ConnectivityMonitor connectivityMonitor;
+  // Hosts of the background re-pair yet to report back
+  private final Set<String> rePairsPending = ConcurrentHashMap.newKeySet();
+
+  // Method calls arrive on a background task queue. Work that can block or
+  // burn CPU is handed off to this pool so the queue keeps draining.
+  private ExecutorService executor;
+  // Retry backoff, attempt timeouts and deadlines
+  private ScheduledExecutorService timer;
 
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
-    this.context = flutterPluginBinding.getApplicationContext();
-    methodChannel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), "mte_relay_client_plugin");
+    attach(flutterPluginBinding.getApplicationContext(),
+            flutterPluginBinding.getBinaryMessenger(),
+            EventDispatcher.of(new Handler(Looper.getMainLooper())));
+  }
+
+  // Split from onAttachedToEngine so load runs can attach the plugin to their
+  // own messenger and event thread.
+  void attach(Context context, BinaryMessenger messenger, EventDispatcher.MainThread mainThread) {
+    this.context = context;
+    BinaryMessenger.TaskQueue taskQueue = messenger.makeBackgroundTaskQueue();
+    methodChannel = new MethodChannel(messenger, "mte_relay_client_plugin", RelayMessageCodec.METHOD_CODEC, taskQueue);
     methodChannel.setMethodCallHandler(this);
+    this.mainThread = mainThread;
+    dispatcher = new EventDispatcher(mainThread, methodChannel);
+    // Shares the task queue so a listen is always handled before the download call that follows it
+    downloadEventChannel = new EventChannel(messenger, "mte_relay_client_plugin/download", StandardMethodCodec.INSTANCE, taskQueue);
+    downloadEventChannel.setStreamHandler(new EventChannel.StreamHandler() {
+      @Override
+      public void onListen(Object arguments, EventChannel.EventSink events) {
+        downloadEventSink = events;
+      }
+
+      @Override
+      public void onCancel(Object arguments) {
+        downloadEventSink = null;
+      }
+    });
+    executor = Executors.newCachedThreadPool();
+    timer = Executors.newSingleThreadScheduledExecutor();
+    scheduler.setTimer(timer);
+    connectivityMonitor = new ConnectivityMonitor(timer, new ConnectivityMonitor.Actions() {
+      @Override
+      public void hold(boolean held) {
+        if (held) {
+          metrics.recordNetworkHold();
+        }
+        scheduler.setHeld(held);
+      }
+
+      @Override
+      public void rePair() {
+        rePairAllHosts();
+      }
+    });
   }
 
   // RELAY CALLBACKS
-  RelayResponseListener relayResponseListener = (success, message) -> relayResponse(success, message, null);
+  RelayResponseListener relayResponseListener = (success, message) -> {
+    if (success && message != null && message.startsWith(RE_PAIRED_MESSAGE)) {
+      rePaired(message.substring(RE_PAIRED_MESSAGE.length()).trim());
+    }
+    relayResponse(success, message, null);
+  };
 
   private void relayResponse(boolean success, String responseStr, String errorMessage) {
     String resultMessage = "Relay Response: " + success + " " + responseStr + " " + (errorMessage != null ? errorMessage : "");
 
-    new Handler(Looper.getMainLooper()).post(() -> {
-      if (methodChannel != null) {
-        methodChannel.invokeMethod("relayResponseMessage", resultMessage);
-      }
-    });
+    dispatcher.dispatch("relayResponseMessage", resultMessage);
   }
 
   private void relayStreamResponseMethod(boolean success,
                                          String responseStr,
                                          String errorMessage,
                                          Map<String, List<String>> responseHeaders) {
+    relayStreamResponseMethod(null, success, responseStr, errorMessage, responseHeaders);
+  }
+
+  private Map<String, Object> relayStreamResponseMethod(String transferID,
+                                                        boolean success,
+                                                        String responseStr,
+                                                        String errorMessage,
+                                                        Map<String, List<String>> responseHeaders) {
+    return relayStreamResponseMethod(transferID, success, responseStr, errorMessage, responseHeaders, null);
+  }
+
+  // resumeOffset is set for resumable transfers
+  private Map<String, Object> relayStreamResponseMethod(String transferID,
+                                                        boolean success,
+                                                        String responseStr,
+                                                        String errorMessage,
+                                                        Map<String, List<String>> responseHeaders,
+                                                        Long resumeOffset) {
 
     Map<String, Object> args = new HashMap<>();
+    args.put("transferID", transferID);
     args.put("success", success);
-    args.put("data", responseStr.getBytes(StandardCharsets.UTF_8));
+    args.put("data", responseStr != null ? responseStr.getBytes(StandardCharsets.UTF_8) : null);
     args.put("headers", responseHeaders);
     args.put("relayError", errorMessage);
     args.put("pluginError", null);
+    if (resumeOffset != null) {
+      args.put("resumeOffset", resumeOffset);
+    }
+
+    dispatcher.dispatch("relayStreamResponse", args);
+    return args;
+  }
+
+  // Each transfer completes its own method call with its outcome, in addition
+  // to the relayStreamResponse event every listener receives.
+  private RelayStreamResponseListener createTransferListener(String transferID, MethodChannel.Result result) {
+    return (success, responseStr, errorMessage, responseHeaders) ->
+            result.success(relayStreamResponseMethod(transferID, success, responseStr, errorMessage, responseHeaders));
+  }
 
-    new Handler(Looper.getMainLooper()).post(() -> {
-      if (methodChannel != null) {
-        methodChannel.invokeMethod("relayStreamResponse", args);
+  // Frees the transfer's scheduler slot once the relay is done with it. A
+  // cancelled transfer was already answered, so its outcome is dropped.
+  private RelayStreamResponseListener finishing(RequestScheduler.Ticket ticket,
+                                                String transferID,
+                                                RelayStreamResponseListener listener) {
+    return (success, responseStr, errorMessage, responseHeaders) -> {
+      fileUploads.remove(transferID);
+      ticket.finished();
+      if (!ticket.isCancelled()) {
+        listener.relayStreamResponse(success, responseStr, errorMessage, responseHeaders);
       }
-    });
+    };
+  }
+
+  private ResumableTransfer.Listener createResumableListener(String transferID, MethodChannel.Result result) {
+    return new ResumableTransfer.Listener() {
+      @Override
+      public void finished(boolean success,
+                           String responseStr,
+                           String errorMessage,
+                           Map<String, List<String>> responseHeaders,
+                           long resumeOffset) {
+        resumableTransfers.remove(transferID);
+        result.success(relayStreamResponseMethod(
+                transferID, success, responseStr, errorMessage, responseHeaders, resumeOffset));
+      }
+
+      @Override
+      public void cancelled() {
+        resumableTransfers.remove(transferID);
+        result.error("CANCELLED", "Transfer " + transferID + " was cancelled", null);
+      }
+    };
   }
 
-  RelayStreamResponseListener listener = this::relayStreamResponseMethod;
+  private static int resumeAttempts(Map<String, Object> args) {
+    Object attempts = args.get("resumeAttempts");
+    return attempts instanceof Integer && (Integer) attempts > 0
+            ? (Integer) attempts
+            : ResumableTransfer.DEFAULT_ATTEMPTS;
+  }
 
-  RelayStreamCallback relayStreamCallback = new RelayStreamCallback() {
+  UploadStreamBuffer.Listener uploadStreamListener = new UploadStreamBuffer.Listener() {
     @Override
-    public void getRequestBodyStream(PipedOutputStream outputStream) {
-      String streamID = UUID.randomUUID().toString();
-      outputStreams.put(streamID, outputStream);
+    public void onCredit(String streamID, int credits) {
+      streamCredit(streamID, credits);
+    }
 
-      // Run the invokeMethod call on the main thread
-      new Handler(Looper.getMainLooper()).post(() -> {
-        if (methodChannel != null) {
-          methodChannel.invokeMethod("getFileStream", streamID);
-        }
-      });
+    @Override
+    public void onError(String streamID, String message) {
+      outputStreams.remove(streamID);
+      relayStreamResponseMethod(streamID, false, "", message, null);
     }
   };
 
-  RelayStreamCompletionCallback relayStreamCompletionCallback = new RelayStreamCompletionCallback() {
+  private void streamCredit(String streamID, int credits) {
+    Map<String, Object> args = new HashMap<>();
+    args.put("streamID", streamID);
+    args.put("credits", credits);
+
+    dispatcher.dispatch("streamCredit", args);
+  }
+
+  // The transferID doubles as the streamID Dart writes the body to.
+  private RelayStreamCallback createUploadStreamCallback(String streamID) {
+    return outputStream -> {
+      UploadStreamBuffer buffer = new UploadStreamBuffer(streamID, outputStream, streamWindowChunks, uploadStreamListener);
+      UploadStreamBuffer previous = outputStreams.put(streamID, buffer);
+      if (previous != null) {
+        previous.cancel(); // The relay restarted the upload
+      }
+      executor.execute(buffer);
+
+      // The initial window is granted before Dart learns the streamID, so the
+      // credits are already there when it starts sending.
+      streamCredit(streamID, buffer.getWindow());
+      dispatcher.dispatch("getFileStream", streamID);
+    };
+  }
+
+  // Each transfer gets its own throttle; knownTotalBytes overrides the relay's
+  // int total when the plugin knows the real body size.
+  private RelayStreamCompletionCallback createProgressCallback(String transferID, long knownTotalBytes) {
+    return createProgressCallback(new TransferProgress(transferID, progressIntervalMs, progressMinDelta, knownTotalBytes));
+  }
+
+  private RelayStreamCompletionCallback createProgressCallback(TransferProgress progress) {
+    return (bytesCompleted, totalBytes) -> {
+      if (progress.update(bytesCompleted, totalBytes)) {
+        dispatcher.dispatchLazy("streamProgress", progress::takeLatest);
+      }
+    };
+  }
+
+  DownloadStreamer.Sink downloadStreamSink = new DownloadStreamer.Sink() {
     @Override
-    public void onProgressUpdate(int bytesCompleted, int totalBytes) {
-      double streamCompletionPercentage = ((double) bytesCompleted / totalBytes);
+    public void onChunk(String downloadID, byte[] data) {
+      Map<String, Object> event = new HashMap<>();
+      event.put("downloadID", downloadID);
+      event.put("data", data);
+      sendDownloadEvent(event);
+    }
 
-      new Handler(Looper.getMainLooper()).post(() -> {
-        if (methodChannel != null) {
-          methodChannel.invokeMethod("streamCompletionPercentage", streamCompletionPercentage);
-        }
-      });
+    @Override
+    public void onDone(String downloadID, boolean success, String errorMessage, Map<String, List<String>> headers) {
+      downloadStreams.remove(downloadID);
+      Map<String, Object> event = new HashMap<>();
+      event.put("downloadID", downloadID);
+      event.put("done", true);
+      event.put("success", success);
+      event.put("headers", headers);
+      event.put("relayError", errorMessage);
+      sendDownloadEvent(event);
     }
   };
 
+  private void sendDownloadEvent(Map<String, Object> event) {
+    dispatcher.post(() -> {
+      EventChannel.EventSink sink = downloadEventSink;
+      if (sink != null) {
+        sink.success(event);
+      }
+    });
+  }
+
   @Override
-  public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
+  public void onMethodCall(@NonNull MethodCall call, @NonNull Result rawResult) {
+    Result result = new SafeResult(rawResult);
     switch (call.method) {
 
       case "getPlatformVersion":
@@ -152,26 +368,125 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
         break;
 
       case "initializeRelay":
-        relay = Relay.getInstance(context, relayResponseListener);
+        relay = new ChunkTuningRelayBackend(new MteRelayBackend(Relay.getInstance(context, relayResponseListener)), chunkTuner);
+        result.success(null);
+        break;
+
+      case "warmUpRelay":
+        try {
+          Map<String, Object> warmUpArgs = call.arguments != null
+                  ? ensureArgumentsMap(call.arguments)
+                  : new HashMap<>();
+          runAsync(executor, result, () -> warmUpRelay(warmUpArgs, result));
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
         break;
 
       case "relayDataTask":
         try {
           Map<String, Object> args = ensureArgumentsMap(call.arguments);
-          relayDataTask(args, result);
+          metrics.recordChannel(args);
+          // Answered in the format it was asked in
+          MethodChannel.Result reply = args instanceof RelayMessageCodec.DataTaskArgs
+                  ? RelayMessageCodec.binaryResults(result)
+                  : result;
+          runAsync(executor, reply, () -> relayDataTask(args, reply));
         } catch (IllegalArgumentException e) {
           result.error("INVALID_ARGUMENTS", e.getMessage(), null);
         }
         break;
 
+      case "relayDataTaskBatch":
+        try {
+          Map<String, Object> args = ensureArgumentsMap(call.arguments);
+          metrics.recordChannel(args);
+          runAsync(executor, result, () -> relayDataTaskBatch(args, result));
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
+        break;
+
+      case "getRelayMetrics":
+        result.success(metricsSnapshot());
+        break;
+
+      case "getRelayCacheStats":
+        result.success(responseCache.stats());
+        break;
+
+      case "getRelayEndpoints":
+        result.success(endpointRouter.snapshot());
+        break;
+
+      case "invalidateRelayCache":
+        Object invalidateUrl = call.argument("url");
+        responseCache.invalidate(invalidateUrl instanceof String ? (String) invalidateUrl : null);
+        result.success(null);
+        break;
+
       case "relayUploadFile":
-        Map<String, Object> uploadArgs = ensureArgumentsMap(call.arguments);
-        relayFileStreamUpload(uploadArgs, result);
+        try {
+          Map<String, Object> uploadArgs = ensureArgumentsMap(call.arguments);
+          relayFileStreamUpload(uploadArgs, result);
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
+        break;
+
+      case "relayUploadFilePath":
+        try {
+          Map<String, Object> uploadPathArgs = ensureArgumentsMap(call.arguments);
+          if (!(uploadPathArgs.get("filePath") instanceof String)) {
+            result.error("INVALID_ARGUMENTS", "relayUploadFilePath requires a filePath", null);
+            break;
+          }
+          relayFileStreamUpload(uploadPathArgs, result);
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
         break;
 
       case "relayDownloadFile":
-        Map<String, Object> downloadArgs = ensureArgumentsMap(call.arguments);
-        relayFileStreamDownload(downloadArgs, result);
+        try {
+          Map<String, Object> downloadArgs = ensureArgumentsMap(call.arguments);
+          relayFileStreamDownload(downloadArgs, result);
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
+        break;
+
+      case "relayDownloadStream":
+        try {
+          Map<String, Object> downloadStreamArgs = ensureArgumentsMap(call.arguments);
+          if (!(downloadStreamArgs.get("downloadID") instanceof String)) {
+            result.error("INVALID_ARGUMENTS", "relayDownloadStream requires a downloadID", null);
+            break;
+          }
+          relayFileStreamDownload(downloadStreamArgs, result);
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
+        break;
+
+      case "pauseDownloadStream":
+      case "resumeDownloadStream":
+      case "cancelDownloadStream":
+        try {
+          Map<String, Object> controlArgs = ensureArgumentsMap(call.arguments);
+          controlDownloadStream(call.method, controlArgs, result);
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
+        break;
+
+      case "cancel":
+        try {
+          Map<String, Object> cancelArgs = ensureArgumentsMap(call.arguments);
+          cancel(cancelArgs, result);
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
         break;
 
       case "rePair":
@@ -186,7 +501,7 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
       case "adjustRelaySettings":
         try {
           Map<String, Object> adjustRelayArgs = ensureArgumentsMap(call.arguments);
-          adjustRelaySettings(adjustRelayArgs);
+          runAsync(executor, result, () -> adjustRelaySettings(adjustRelayArgs, result));
         } catch (IllegalArgumentException e) {
           result.error("INVALID_ARGUMENTS", e.getMessage(), null);
         }
@@ -210,6 +525,15 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
         }
         break;
 
+      case "abortStream":
+        try {
+          Map<String, Object> abortStreamArgs = ensureArgumentsMap(call.arguments);
+          abortStream(abortStreamArgs, result);
+        } catch (IllegalArgumentException e) {
+          result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+        }
+        break;
+
       default:
         result.notImplemented();
         break;
@@ -235,6 +559,9 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
         result.error("INVALID_ARGUMENTS", "Invalid arguments", null);
         return;
       }
+      String transferID = args.get("transferID") instanceof String
+              ? (String) args.get("transferID")
+              : UUID.randomUUID().toString();
       if (!methodString.equals("POST")) {
         relayResponse(
                 false,
@@ -249,18 +576,107 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
       String route = url.getPath();
       String host = protocol + "://" + authority;
 
+      // With a filePath the body is read natively, otherwise Dart streams it in
+      String filePath = (String) args.get("filePath");
+      if (Boolean.TRUE.equals(args.get("resumable"))) {
+        if (filePath == null) {
+          result.error("INVALID_ARGUMENTS", "A resumable upload needs a filePath", null);
+          return;
+        }
+        byte[] bodyPrefix = (byte[]) args.get("bodyPrefix");
+        byte[] bodySuffix = (byte[]) args.get("bodySuffix");
+        File checkpointDir = args.get("checkpointDir") instanceof String
+                ? new File((String) args.get("checkpointDir"))
+                : new File(context.getFilesDir(), "mte_relay_transfers");
+        long totalBytes = FileUploadStreamer.bodyLength(context, filePath, bodyPrefix, bodySuffix);
+        TransferProgress progress = new TransferProgress(transferID, progressIntervalMs, progressMinDelta, totalBytes);
+        ResumableTransfer transfer = new ResumableUpload(
+                transferID,
+                (String) args.get("tag"),
+                RequestScheduler.priorityOf(args.get("priority")),
+                relay,
+                scheduler,
+                timer,
+                retryPolicy,
+                resumeAttempts(args),
+                context,
+                executor,
+                host,
+                route,
+                pathnamePrefix,
+                headers,
+                headersToEncrypt,
+                filePath,
+                bodyPrefix,
+                bodySuffix,
+                totalBytes,
+                checkpointDir,
+                progress,
+                createProgressCallback(progress),
+                createResumableListener(transferID, result));
+        resumableTransfers.put(transferID, transfer);
+        transfer.start();
+        return;
+      }
+      RelayStreamCallback streamCallback = createUploadStreamCallback(transferID);
+      long knownTotalBytes = -1;
+      if (filePath != null) {
+        byte[] bodyPrefix = (byte[]) args.get("bodyPrefix");
+        byte[] bodySuffix = (byte[]) args.get("bodySuffix");
+        knownTotalBytes = FileUploadStreamer.bodyLength(context, filePath, bodyPrefix, bodySuffix);
+        streamCallback = outputStream -> {
+          FileUploadStreamer streamer = new FileUploadStreamer(
+                  context,
+                  filePath,
+                  bodyPrefix,
+                  bodySuffix,
+                  outputStream,
+                  relay.getStreamChunkSizeSetting(),
+                  message -> relayStreamResponseMethod(transferID, false, "", message, null));
+          fileUploads.put(transferID, streamer);
+          executor.execute(streamer);
+        };
+      }
+
       RelayFileRequestProperties reqProperties = new RelayFileRequestProperties(
               host,
               headers,
               headersToEncrypt,
-              relayStreamCallback);
-
-      relay.uploadFile(
-              reqProperties,
-              route,
-              pathnamePrefix,
-              listener,
-              (i, i1) -> relayStreamCompletionCallback.onProgressUpdate(i, i1));
+              streamCallback);
+      RelayStreamCompletionCallback progressCallback = createProgressCallback(transferID, knownTotalBytes);
+
+      scheduler.submit(transferID, (String) args.get("tag"), RequestScheduler.priorityOf(args.get("priority")),
+              new RequestScheduler.Task() {
+                @Override
+                public void start(RequestScheduler.Ticket ticket) {
+                  relay.uploadFile(
+                          reqProperties,
+                          route,
+                          pathnamePrefix,
+                          finishing(ticket, transferID, createTransferListener(transferID, result)),
+                          progressCallback);
+                }
+
+                @Override
+                public void cancelled(boolean started) {
+                  // The relay has no abort, so the body pipe is failed and the
+                  // relay fails the upload instead of sending what it got
+                  FileUploadStreamer streamer = fileUploads.remove(transferID);
+                  if (streamer != null) {
+                    streamer.cancel();
+                  }
+                  UploadStreamBuffer buffer = outputStreams.remove(transferID);
+                  if (buffer != null) {
+                    buffer.cancel();
+                  }
+                  result.error("CANCELLED", "Upload " + transferID + " was cancelled", null);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                  result.error("", e.getMessage(), null);
+                }
+              });
 
     } catch (Exception e) {
       result.error("", e.getMessage(), null);
@@ -280,8 +696,11 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
         headersToEncrypt = headersToEncryptList.toArray(new String[0]);
       }
       String downloadLocation = (String) args.get("downloadLocation");
+      // With a downloadID the decrypted bytes are streamed to Dart and the file is optional
+      String downloadID = (String) args.get("downloadID");
 
-      if (urlString == null || methodString == null || headers == null || downloadLocation == null) {
+      if (urlString == null || methodString == null || headers == null
+              || (downloadLocation == null && downloadID == null)) {
         result.error("INVALID_ARGUMENTS", "Invalid arguments", null);
         return;
       }
@@ -291,26 +710,164 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
       String authority = url.getAuthority();
       String route = url.getPath();
       String host = protocol + "://" + authority;
+      String transferID = downloadID != null ? downloadID
+              : args.get("transferID") instanceof String ? (String) args.get("transferID")
+              : UUID.randomUUID().toString();
+
+      if (Boolean.TRUE.equals(args.get("resumable"))) {
+        if (downloadLocation == null || downloadID != null) {
+          result.error("INVALID_ARGUMENTS", "A resumable download needs a downloadLocation and no downloadID", null);
+          return;
+        }
+        int segmentBytes = args.get("resumeChunkBytes") instanceof Integer
+                ? (Integer) args.get("resumeChunkBytes")
+                : ResumableDownload.DEFAULT_SEGMENT_BYTES;
+        ResumableTransfer transfer = new ResumableDownload(
+                transferID,
+                (String) args.get("tag"),
+                RequestScheduler.priorityOf(args.get("priority")),
+                relay,
+                scheduler,
+                timer,
+                retryPolicy,
+                resumeAttempts(args),
+                host,
+                route,
+                pathnamePrefix,
+                headers,
+                headersToEncrypt,
+                new File(downloadLocation),
+                segmentBytes,
+                createResumableListener(transferID, result));
+        resumableTransfers.put(transferID, transfer);
+        transfer.start();
+        return;
+      }
+
+      String relayDownloadPath = downloadLocation;
+      RelayStreamResponseListener downloadListener = createTransferListener(transferID, result);
+      if (downloadID != null) {
+        DownloadStreamer streamer = new DownloadStreamer(
+                downloadID,
+                DownloadStreamer.createFifo(context.getCacheDir(), downloadID),
+                downloadLocation != null ? new File(downloadLocation) : null,
+                relay.getStreamChunkSizeSetting(),
+                downloadStreamSink);
+        downloadStreams.put(downloadID, streamer);
+        relayDownloadPath = streamer.getFifo().getAbsolutePath();
+        downloadListener = (success, responseStr, errorMessage, responseHeaders) ->
+                streamer.writerFinished(success, errorMessage, responseHeaders);
+        executor.execute(streamer);
+      }
 
       RelayFileRequestProperties reqProperties = new RelayFileRequestProperties(
               host,
               route,
-              downloadLocation,
+              relayDownloadPath,
               headers,
               headersToEncrypt);
-
-      relay.downloadFile(
-              reqProperties,
-              pathnamePrefix,
-              listener);
+      RelayStreamResponseListener relayListener = downloadListener;
+
+      scheduler.submit(transferID, (String) args.get("tag"), RequestScheduler.priorityOf(args.get("priority")),
+              new RequestScheduler.Task() {
+                @Override
+                public void start(RequestScheduler.Ticket ticket) {
+                  relay.downloadFile(
+                          reqProperties,
+                          pathnamePrefix,
+                          finishing(ticket, transferID, relayListener));
+                }
+
+                @Override
+                public void cancelled(boolean started) {
+                  DownloadStreamer streamer = downloadID != null ? downloadStreams.get(downloadID) : null;
+                  if (streamer != null) {
+                    streamer.cancel();
+                  }
+                  result.error("CANCELLED", "Download " + transferID + " was cancelled", null);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                  relayListener.relayStreamResponse(false, "", e.getMessage(), null);
+                }
+              });
+
+      if (downloadID != null) {
+        result.success(downloadID);
+      }
 
     } catch (Exception e) {
+      Object downloadID = args.get("downloadID");
+      DownloadStreamer streamer = downloadID != null ? downloadStreams.get(downloadID) : null;
+      if (streamer != null) {
+        streamer.cancel();
+      }
       result.error("", e.getMessage(), null);
     }
   }
 
+  // Creates the relay off the platform thread and pairs it with every server in
+  // urls, replying with the time each phase took.
+  @SuppressWarnings("unchecked")
+  private void warmUpRelay(Map<String, Object> args, MethodChannel.Result result) {
+    long start = System.nanoTime();
+    if (relay == null) {
+      relay = new ChunkTuningRelayBackend(new MteRelayBackend(Relay.getInstance(context, relayResponseListener)), chunkTuner);
+    }
+    long initialized = System.nanoTime();
+
+    List<String> urls = new ArrayList<>();
+    if (args.get("urls") instanceof List) {
+      urls.addAll((List<String>) args.get("urls"));
+    } else if (args.get("url") instanceof String) {
+      urls.add((String) args.get("url"));
+    }
+    String probePath = args.get("probePath") instanceof String
+            ? (String) args.get("probePath")
+            : "/api/mte-relay";
+    new RelayWarmUp(relay, start, initialized, result).start(urls, probePath);
+  }
+
+  // GETs are answered from the response cache while fresh. A stale entry with
+  // an ETag turns the request into a conditional one. Identical idempotent
+  // requests already in flight are joined rather than sent again.
   @SuppressWarnings("unchecked")
   private void relayDataTask(Map<String, Object> args, MethodChannel.Result result) {
+    String cacheKey = responseCache.getMaxBytes() > 0 ? ResponseCache.keyFor(args) : null;
+    ResponseCache.Entry entry = cacheKey != null ? responseCache.get(cacheKey) : null;
+    if (entry != null && entry.isFresh()) {
+      result.success(entry.toResult());
+      return;
+    }
+    String flightKey = coalesceRequests ? RequestCoalescer.keyFor(args) : null;
+    if (flightKey != null) {
+      result = coalescer.join(flightKey, result);
+      if (result == null) {
+        return;
+      }
+    }
+    if (cacheKey == null) {
+      sendDataTask(args, result);
+      return;
+    }
+    Map<String, Object> requestArgs = args;
+    if (entry != null && entry.etag != null && args.get("headers") instanceof Map) {
+      Map<String, String> headers = new HashMap<>((Map<String, String>) args.get("headers"));
+      headers.put("If-None-Match", entry.etag);
+      requestArgs = new HashMap<>(args);
+      requestArgs.put("headers", headers);
+    } else {
+      entry = null;
+    }
+    sendDataTask(requestArgs, responseCache.storing(cacheKey, (String) args.get("url"), entry, result));
+  }
+
+  @SuppressWarnings("unchecked")
+  void sendDataTask(Map<String, Object> args, MethodChannel.Result reply) {
+    RelayMetrics.Trace trace = metrics.begin((String) args.get("method"), (String) args.get("url"));
+    // Cancellation, deadlines and timeouts race the relay's reply; the first one wins
+    MethodChannel.Result result = new SafeResult(trace.wrap(reply));
     final Map<String, Object> resultMap = new HashMap<>();
     VolleyRequestListener listener = new VolleyRequestListener() {
 
@@ -331,7 +888,7 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
       }
 
       @Override
-      public void onJsonArrayResponse(JSONArray response, Map<String, String> responseHeaders) {
+      public void onJsonArrayResponse(JSONArray response, Map<String, List<String>> responseHeaders) {
         resultMap.put("success", true);
         resultMap.put("data", response.toString().getBytes(StandardCharsets.UTF_8));
         resultMap.put("headers", responseHeaders);
@@ -345,6 +902,26 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
         resultMap.put("headers", responseHeaders);
         result.success(resultMap);
       }
+
+      @Override
+      public void onBytesResponse(byte[] response, String contentType, Map<String, List<String>> responseHeaders) {
+        resultMap.put("success", true);
+        resultMap.put("data", response);
+        resultMap.put("contentType", contentType);
+        resultMap.put("headers", responseHeaders);
+        result.success(resultMap);
+      }
+
+      @Override
+      public void onFileResponse(File file, String contentType, Map<String, List<String>> responseHeaders) {
+        resultMap.put("success", true);
+        resultMap.put("data", null);
+        resultMap.put("filePath", file.getAbsolutePath());
+        resultMap.put("contentLength", file.length());
+        resultMap.put("contentType", contentType);
+        resultMap.put("headers", responseHeaders);
+        result.success(resultMap);
+      }
     };
 
     String[] headersToEncrypt = new String[0];
@@ -353,7 +930,8 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
       String pathnamePrefix = (String) args.get("pathnamePrefix");
       String methodString = (String) args.get("method");
       Map<String, String> headers = (Map<String, String>) args.get("headers");
-      String body = (String) args.get("body");
+      Object bodyObj = args.get("body");
+      String contentType = (String) args.get("contentType");
       List<String> headersToEncryptList = (List<String>) args.get("headersToEncrypt");
       if (headersToEncryptList != null) {
         headersToEncrypt = headersToEncryptList.toArray(new String[0]);
@@ -362,26 +940,40 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
       if (urlString == null ||
               methodString == null ||
               headers == null ||
-              (methodsRequiringBody.contains(methodString) && body == null)) {
+              (methodsRequiringBody.contains(methodString) && bodyObj == null)) {
         result.error("INVALID_ARGUMENTS", "Invalid arguments", null);
         return;
       }
 
-      // Check for Base64 Encoding on body if it exists
-      String bodyStr = null;
-      if (body != null && !body.isEmpty()) {
-        try {
-          byte[] decodedBytes = Base64.getDecoder().decode(body);
-          bodyStr = new String(decodedBytes, StandardCharsets.UTF_8);
-        } catch (IllegalArgumentException e) {
-          bodyStr = body;
-        }
-      }
-
+      // rawResponse hands the decrypted bytes to Dart as-is, whatever the content type
+      boolean rawResponse = Boolean.TRUE.equals(args.get("rawResponse"));
       int method = getRequestMethod(methodString);
+      Request.Priority priority = RequestScheduler.priorityOf(args.get("priority"));
+
+      // A Uint8List body, or any body with an explicit contentType, is sent byte for byte
+      if (bodyObj instanceof byte[] || (bodyObj instanceof String && contentType != null)) {
+        byte[] bodyBytes = bodyObj instanceof byte[]
+                ? (byte[]) bodyObj
+                : ((String) bodyObj).getBytes(StandardCharsets.UTF_8);
+        Request<?> request = new RawBytesRequest(
+                method,
+                urlString,
+                bodyBytes,
+                contentType,
+                headers,
+                priority,
+                response -> listener.onBytesResponse(response, null, null),
+                error -> listener.onError(getVolleyErrorString(error), null));
+        request = compressed(request, args);
+        trace.built();
+        scheduleDataTask(args, request, headersToEncrypt, pathnamePrefix, rawResponse, trace, listener, result);
+        return;
+      }
 
-      Request<?> request = createRequest(bodyStr, method, urlString, listener, headers);
-      sendToRelay(request, headersToEncrypt, pathnamePrefix, listener);
+      String bodyStr = decodeBody((String) bodyObj);
+      Request<?> request = compressed(createRequest(bodyStr, method, urlString, listener, headers, priority), args);
+      trace.built();
+      scheduleDataTask(args, request, headersToEncrypt, pathnamePrefix, rawResponse, trace, listener, result);
     } catch (Exception e) {
       resultMap.put("success", false);
       resultMap.put("data", e.getMessage().getBytes(StandardCharsets.UTF_8));
@@ -390,20 +982,85 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
     }
   }
 
+  // Submits every request to the relay queue in one pass. Results come back as
+  // one list, or with streamResults as relayDataTaskBatchResult events while
+  // the call itself replies with the batchID straight away.
+  @SuppressWarnings("unchecked")
+  private void relayDataTaskBatch(Map<String, Object> args, MethodChannel.Result result) {
+    if (!(args.get("requests") instanceof List)) {
+      result.error("INVALID_ARGUMENTS", "relayDataTaskBatch requires a requests list", null);
+      return;
+    }
+    List<Object> requests = (List<Object>) args.get("requests");
+    String batchID = args.get("batchID") instanceof String
+            ? (String) args.get("batchID")
+            : UUID.randomUUID().toString();
+    boolean streamResults = Boolean.TRUE.equals(args.get("streamResults"));
+    boolean completionOrder = "completion".equals(args.get("order"));
+
+    if (streamResults) {
+      result.success(batchID);
+    }
+    DataTaskBatch batch = new DataTaskBatch(
+            batchID,
+            requests.size(),
+            completionOrder,
+            streamResults ? batchListener : null,
+            result);
+    for (int i = 0; i < requests.size(); i++) {
+      MethodChannel.Result itemResult = batch.itemResult(i);
+      Object request = requests.get(i);
+      if (!(request instanceof Map)) {
+        itemResult.error("INVALID_ARGUMENTS", "Invalid arguments", null);
+        continue;
+      }
+      try {
+        relayDataTask((Map<String, Object>) request, itemResult);
+      } catch (Exception e) {
+        itemResult.error("PLUGIN_ERROR", e.getMessage(), null);
+      }
+    }
+  }
+
+  DataTaskBatch.Listener batchListener = new DataTaskBatch.Listener() {
+    @Override
+    public void onItem(String batchID, Map<String, Object> itemResult) {
+      Map<String, Object> args = new HashMap<>();
+      args.put("batchID", batchID);
+      args.put("result", itemResult);
+      dispatcher.dispatch("relayDataTaskBatchResult", args);
+    }
+
+    @Override
+    public void onDone(String batchID) {
+      Map<String, Object> args = new HashMap<>();
+      args.put("batchID", batchID);
+      args.put("done", true);
+      dispatcher.dispatch("relayDataTaskBatchResult", args);
+    }
+  };
+
   private void writeToStream(Map<String, Object> args, MethodChannel.Result result) {
     String streamID = (String) args.get("streamID");
     byte[] data = (byte[]) args.get("data");
-    OutputStream outputStream = outputStreams.get(streamID);
+    UploadStreamBuffer buffer = streamID != null ? outputStreams.get(streamID) : null;
 
-    if (streamID == null || data == null || outputStream == null) {
+    if (data == null || buffer == null) {
       relayStreamResponseMethod(
               false,
               "",
               "writeToStream received invalid arguments.",
               null);
+      result.error("INVALID_ARGUMENTS", "writeToStream received invalid arguments.", null);
+      return;
+    }
+    if (!buffer.offer(data)) {
+      result.error("STREAM_WINDOW_EXCEEDED",
+              "writeToStream was called without an available credit for stream " + streamID,
+              null);
       return;
     }
-    writeToOutputStream(outputStream, data);
+    result.success(null);
   }
 
   private void closeStream(Map<String, Object> args, MethodChannel.Result result) {
@@ -415,29 +1072,107 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
               "",
               "closeStream received invalid arguments.",
               null);
+      result.error("INVALID_ARGUMENTS", "closeStream received invalid arguments.", null);
       return;
     }
 
-    OutputStream outputStream = outputStreams.remove(streamID);
-    if (outputStream != null) {
-      try {
-        outputStream.close(); // Ensure it is closed
-      } catch (IOException e) {
-        relayStreamResponseMethod(
-                false,
-                null,
-                "closeStream Exception: " + e.getMessage(),
-                null);
+    UploadStreamBuffer buffer = outputStreams.remove(streamID);
+    if (buffer != null) {
+      buffer.finish(); // The pipe is closed once the buffered chunks are written
+    }
+    result.success(null);
+  }
+
+  // The Dart source failed, so the body is incomplete; abort the pipe and
+  // let the relay fail the upload instead of sending what was written.
+  private void abortStream(Map<String, Object> args, MethodChannel.Result result) {
+    String streamID = (String) args.get("streamID");
+    if (streamID == null) {
+      result.error("INVALID_ARGUMENTS", "abortStream received invalid arguments.", null);
+      return;
+    }
+    UploadStreamBuffer buffer = outputStreams.remove(streamID);
+    if (buffer != null) {
+      buffer.cancel();
+    }
+    result.success(null);
+  }
+
+  private void controlDownloadStream(String method, Map<String, Object> args, MethodChannel.Result result) {
+    String downloadID = (String) args.get("downloadID");
+    DownloadStreamer streamer = downloadID != null ? downloadStreams.get(downloadID) : null;
+    if (streamer == null) {
+      result.error("INVALID_ARGUMENTS", "No active download stream " + downloadID, null);
+      return;
+    }
+    switch (method) {
+      case "pauseDownloadStream":
+        streamer.pause();
+        break;
+      case "resumeDownloadStream":
+        streamer.resume();
+        break;
+      default:
+        streamer.cancel();
+        break;
+    }
+    result.success(null);
+  }
+
+  // Cancels the data tasks and transfers with args['requestID'] (a requestID,
+  // transferID or downloadID) or args['tag'], replying with how many there were.
+  private void cancel(Map<String, Object> args, MethodChannel.Result result) {
+    String requestID = args.get("requestID") instanceof String ? (String) args.get("requestID") : null;
+    String tag = args.get("tag") instanceof String ? (String) args.get("tag") : null;
+    if (requestID == null && tag == null) {
+      result.error("INVALID_ARGUMENTS", "cancel requires a requestID or a tag", null);
+      return;
+    }
+    int cancelled = scheduler.cancel(requestID, tag);
+    // Resumable transfers waiting to retry are not with the scheduler
+    for (ResumableTransfer transfer : resumableTransfers.values()) {
+      if (transfer.matches(requestID, tag) && transfer.cancelWaiting()) {
+        cancelled++;
       }
     }
+    result.success(cancelled);
+  }
+
+  // The relay re-pairs asynchronously and only says so through its response
+  // listener, one message per host, naming it. Only the hosts the monitor
+  // asked for count, not re-pairs the app or the relay started on their own.
+  // A re-pair that never reports is covered by the monitor's maxHoldMs.
+  private static final String RE_PAIRED_MESSAGE = "Successfully Re-Paired with";
+
+  private void rePairAllHosts() {
+    RelayBackend relay = this.relay;
+    String[] hosts = relay != null ? relay.getHostList() : new String[0];
+    rePairsPending.clear();
+    rePairsPending.addAll(Arrays.asList(hosts));
+    if (hosts.length == 0) {
+      connectivityMonitor.rePairFinished();
+      return;
+    }
+    for (String host : hosts) {
+      metrics.recordRePair();
+      metrics.recordBackgroundRePair();
+      relay.rePairWithRelayServer(host);
+    }
+  }
+
+  private void rePaired(String host) {
+    if (rePairsPending.remove(host) && rePairsPending.isEmpty()) {
+      connectivityMonitor.rePairFinished();
+    }
   }
 
   private void rePair(Map<String, Object> args, MethodChannel.Result result) {
     String urlString = (String) args.get("url");
+    metrics.recordRePair();
     relay.rePairWithRelayServer(urlString);
   }
 
-  private void adjustRelaySettings(Map<String, Object> args) {
+  private void adjustRelaySettings(Map<String, Object> args, MethodChannel.Result result) {
     String serverUrl = null;
     int newStreamChunkSize = 0;
     int newPairPoolSize = 0;
@@ -469,42 +1204,532 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
           persistPairs = (Boolean) persistPairsObj;
         }
       }
+      String pluginMessage = "";
+      if (args.containsKey("streamWindowChunks")) {
+        Object streamWindowChunksObj = args.get("streamWindowChunks");
+        if (streamWindowChunksObj instanceof Integer && (Integer) streamWindowChunksObj > 0
+                && (Integer) streamWindowChunksObj != streamWindowChunks) {
+          streamWindowChunks = (Integer) streamWindowChunksObj;
+          pluginMessage += "\nPluginSetting.streamWindowChunks adjusted to " + streamWindowChunks;
+        }
+      }
+      if (args.containsKey("progressIntervalMs")) {
+        Object progressIntervalObj = args.get("progressIntervalMs");
+        if (progressIntervalObj instanceof Integer && (Integer) progressIntervalObj >= 0) {
+          progressIntervalMs = (Integer) progressIntervalObj;
+          pluginMessage += "\nPluginSetting.progressIntervalMs adjusted to " + progressIntervalMs;
+        }
+      }
+      if (args.containsKey("progressMinDelta")) {
+        Object progressMinDeltaObj = args.get("progressMinDelta");
+        if (progressMinDeltaObj instanceof Double && (Double) progressMinDeltaObj >= 0) {
+          progressMinDelta = (Double) progressMinDeltaObj;
+          pluginMessage += "\nPluginSetting.progressMinDelta adjusted to " + progressMinDelta;
+        }
+      }
+      if (args.containsKey("responseCacheBytes")) {
+        Object responseCacheBytesObj = args.get("responseCacheBytes");
+        if (responseCacheBytesObj instanceof Number && ((Number) responseCacheBytesObj).longValue() >= 0) {
+          responseCache.setMaxBytes(((Number) responseCacheBytesObj).longValue());
+          pluginMessage += "\nPluginSetting.responseCacheBytes adjusted to " + responseCache.getMaxBytes();
+        }
+      }
+      if (args.containsKey("coalesceRequests")) {
+        Object coalesceRequestsObj = args.get("coalesceRequests");
+        if (coalesceRequestsObj instanceof Boolean) {
+          coalesceRequests = (Boolean) coalesceRequestsObj;
+          pluginMessage += "\nPluginSetting.coalesceRequests adjusted to " + coalesceRequests;
+        }
+      }
+      if (args.containsKey("metricsIntervalMs")) {
+        Object metricsIntervalObj = args.get("metricsIntervalMs");
+        if (metricsIntervalObj instanceof Integer && (Integer) metricsIntervalObj >= 0) {
+          metricsIntervalMs = (Integer) metricsIntervalObj;
+          mainThread.removeCallbacks(metricsTick);
+          if (metricsIntervalMs > 0) {
+            mainThread.postDelayed(metricsTick, metricsIntervalMs);
+          }
+          pluginMessage += "\nPluginSetting.metricsIntervalMs adjusted to " + metricsIntervalMs;
+        }
+      }
+      if (args.containsKey("maxConcurrentRequests")) {
+        Object maxConcurrentObj = args.get("maxConcurrentRequests");
+        if (maxConcurrentObj instanceof Integer && (Integer) maxConcurrentObj >= 0) {
+          scheduler.setMaxConcurrent((Integer) maxConcurrentObj);
+          pluginMessage += "\nPluginSetting.maxConcurrentRequests adjusted to " + scheduler.getMaxConcurrent();
+        }
+      }
+      if (args.containsKey("maxInFlightBytes") || args.containsKey("maxQueueMs") || args.containsKey("queueOrder")) {
+        Object maxInFlightObj = args.get("maxInFlightBytes");
+        Object maxQueueObj = args.get("maxQueueMs");
+        Object queueOrderObj = args.get("queueOrder");
+        scheduler.configureAdmission(
+                maxInFlightObj instanceof Number ? ((Number) maxInFlightObj).longValue() : scheduler.getMaxInFlightBytes(),
+                maxQueueObj instanceof Number ? ((Number) maxQueueObj).longValue() : scheduler.getMaxQueueMs(),
+                queueOrderObj instanceof String ? "fifo".equals(queueOrderObj) : scheduler.isFifo());
+        pluginMessage += "\nPluginSetting.admission adjusted to maxInFlightBytes " + scheduler.getMaxInFlightBytes()
+                + ", maxQueueMs " + scheduler.getMaxQueueMs()
+                + ", queueOrder " + (scheduler.isFifo() ? "fifo" : "priority");
+      }
+      if (args.containsKey("spillResponseBytes")) {
+        Object spillResponseObj = args.get("spillResponseBytes");
+        if (spillResponseObj instanceof Integer && (Integer) spillResponseObj >= 0) {
+          spillResponseBytes = (Integer) spillResponseObj;
+          pluginMessage += "\nPluginSetting.spillResponseBytes adjusted to " + spillResponseBytes;
+        }
+      }
+      if (args.containsKey("compressRequests")) {
+        Object compressRequestsObj = args.get("compressRequests");
+        if (compressRequestsObj instanceof Boolean) {
+          compressRequests = (Boolean) compressRequestsObj;
+          pluginMessage += "\nPluginSetting.compressRequests adjusted to " + compressRequests;
+        }
+      }
+      if (args.containsKey("compressMinBytes")) {
+        Object compressMinBytesObj = args.get("compressMinBytes");
+        if (compressMinBytesObj instanceof Integer && (Integer) compressMinBytesObj >= 0) {
+          compressMinBytes = (Integer) compressMinBytesObj;
+          pluginMessage += "\nPluginSetting.compressMinBytes adjusted to " + compressMinBytes;
+        }
+      }
+      if (args.containsKey("adaptiveChunkSize") || args.containsKey("minStreamChunkSize")
+              || args.containsKey("maxStreamChunkSize") || args.containsKey("targetChunkMs")) {
+        boolean adaptive = args.get("adaptiveChunkSize") instanceof Boolean
+                ? (Boolean) args.get("adaptiveChunkSize")
+                : chunkTuner.isEnabled();
+        relay.configureChunkTuning(
+                adaptive,
+                args.get("minStreamChunkSize") instanceof Integer
+                        ? (Integer) args.get("minStreamChunkSize") : chunkTuner.getMinBytes(),
+                args.get("maxStreamChunkSize") instanceof Integer
+                        ? (Integer) args.get("maxStreamChunkSize") : chunkTuner.getMaxBytes(),
+                args.get("targetChunkMs") instanceof Integer
+                        ? (Integer) args.get("targetChunkMs") : chunkTuner.getTargetChunkMs());
+        pluginMessage += "\nPluginSetting.adaptiveChunkSize adjusted to " + chunkTuner.isEnabled()
+                + " (" + chunkTuner.getMinBytes() + "-" + chunkTuner.getMaxBytes() + " bytes, "
+                + chunkTuner.getTargetChunkMs() + " ms per chunk)";
+      }
+      if (args.containsKey("monitorConnectivity") || args.containsKey("networkChangeDebounceMs")
+              || args.containsKey("minRePairIntervalMs") || args.containsKey("maxHoldMs")) {
+        connectivityMonitor.configure(
+                args.get("networkChangeDebounceMs") instanceof Integer
+                        ? (Integer) args.get("networkChangeDebounceMs") : connectivityMonitor.getDebounceMs(),
+                args.get("minRePairIntervalMs") instanceof Integer
+                        ? (Integer) args.get("minRePairIntervalMs") : connectivityMonitor.getMinRePairIntervalMs(),
+                args.get("maxHoldMs") instanceof Integer
+                        ? (Integer) args.get("maxHoldMs") : connectivityMonitor.getMaxHoldMs());
+        if (Boolean.TRUE.equals(args.get("monitorConnectivity"))) {
+          connectivityMonitor.start(context);
+        } else if (Boolean.FALSE.equals(args.get("monitorConnectivity"))) {
+          connectivityMonitor.stop();
+        }
+        pluginMessage += "\nPluginSetting.monitorConnectivity adjusted to " + connectivityMonitor.isRunning()
+                + " (" + connectivityMonitor.getDebounceMs() + " ms debounce, "
+                + connectivityMonitor.getMinRePairIntervalMs() + " ms between re-pairs, "
+                + connectivityMonitor.getMaxHoldMs() + " ms max hold)";
+      }
+      if (args.get("relayEndpoints") instanceof List) {
+        endpointRouter.setEndpoints((List<?>) args.get("relayEndpoints"));
+        pluginMessage += "\nPluginSetting.relayEndpoints adjusted to " + endpointRouter.size() + " endpoints";
+      }
+      if (args.containsKey("routingPolicy") || args.containsKey("ejectAfterFailures")
+              || args.containsKey("ejectMs") || args.containsKey("maxEjectMs")) {
+        EndpointRouter.Policy routingPolicy = EndpointRouter.Policy.of(args.get("routingPolicy"));
+        endpointRouter.configure(
+                routingPolicy != null ? routingPolicy : endpointRouter.getPolicy(),
+                args.get("ejectAfterFailures") instanceof Integer
+                        ? (Integer) args.get("ejectAfterFailures") : endpointRouter.getEjectAfterFailures(),
+                args.get("ejectMs") instanceof Integer
+                        ? (Integer) args.get("ejectMs") : endpointRouter.getEjectMs(),
+                args.get("maxEjectMs") instanceof Integer
+                        ? (Integer) args.get("maxEjectMs") : endpointRouter.getMaxEjectMs());
+        pluginMessage += "\nPluginSetting.routingPolicy adjusted to " + endpointRouter.getPolicy().value
+                + " (ejected after " + endpointRouter.getEjectAfterFailures() + " failures for "
+                + endpointRouter.getEjectMs() + "-" + endpointRouter.getMaxEjectMs() + " ms)";
+      }
+      RelayRetryPolicy adjustedRetryPolicy = retryPolicy.with(args);
+      if (!adjustedRetryPolicy.equals(retryPolicy)) {
+        retryPolicy = adjustedRetryPolicy;
+        pluginMessage += "\nPluginSetting.retryPolicy adjusted to " + retryPolicy;
+      }
+      if (args.containsKey("eventFlushIntervalMs")) {
+        Object eventFlushIntervalObj = args.get("eventFlushIntervalMs");
+        if (eventFlushIntervalObj instanceof Integer && (Integer) eventFlushIntervalObj >= 0) {
+          dispatcher.setFlushIntervalMs((Integer) eventFlushIntervalObj);
+          pluginMessage += "\nPluginSetting.eventFlushIntervalMs adjusted to " + dispatcher.getFlushIntervalMs();
+        }
+      }
+      if (serverUrl != null) {
+        metrics.recordRePair();
+      }
       String responseMessage = relay.adjustRelaySettings(serverUrl,
               newStreamChunkSize,
               newPairPoolSize,
-              persistPairs);
+              persistPairs) + pluginMessage;
       relayResponse(
               true,
               responseMessage,
               null
       );
+      result.success(responseMessage);
     } catch (Exception e) {
       relayResponse(
               false,
               "\nAdjust RelaySettings Failed",
               "Error: " + e.getMessage()
       );
+      result.success("Adjust RelaySettings Failed");
+    }
+  }
+
+  // Gzips the body when args['compress'] (true or "gzip") or, without it, the
+  // compressRequests setting asks for it and the body is big enough to gain.
+  private Request<?> compressed(Request<?> request, Map<String, Object> args) throws AuthFailureError, IOException {
+    Object compress = args.get("compress");
+    boolean enabled = compress != null
+            ? Boolean.TRUE.equals(compress) || CompressedRequest.GZIP.equals(compress)
+            : compressRequests;
+    if (!enabled) {
+      return request;
+    }
+    int minBytes = args.get("compressMinBytes") instanceof Integer
+            ? (Integer) args.get("compressMinBytes")
+            : compressMinBytes;
+    return CompressedRequest.compress(request, minBytes);
+  }
+
+  // Data tasks wait in the scheduler, highest priority first, until the relay
+  // has room for them. A cancelled task is answered with CANCELLED at once and
+  // one past its deadline with DEADLINE_EXCEEDED.
+  private void scheduleDataTask(Map<String, Object> args,
+                                Request<?> request,
+                                String[] headersToEncrypt,
+                                String pathnamePrefix,
+                                boolean rawResponse,
+                                RelayMetrics.Trace trace,
+                                VolleyRequestListener listener,
+                                MethodChannel.Result result) {
+    RelayRetryPolicy policy = retryPolicy.with(args);
+    long deadlineNanos = 0;
+    MethodChannel.Result reply = result;
+    if (policy.deadlineMs > 0) {
+      deadlineNanos = System.nanoTime() + policy.deadlineMs * 1_000_000L;
+      reply = expiring(result, policy.deadlineMs);
     }
+    new DataTaskAttempts(args, request, headersToEncrypt, pathnamePrefix, rawResponse, trace, listener, reply,
+            policy, deadlineNanos).submit(1);
   }
 
-  private <T> void sendToRelay(Request<T> request, String[] headerArray, String pathnamePrefix, VolleyRequestListener listener) {
-    relay.addToMteRequestQueue(request, headerArray, pathnamePrefix, new RelayDataTaskListener() {
+  // Answers DEADLINE_EXCEEDED unless something else answers first
+  private MethodChannel.Result expiring(MethodChannel.Result result, long deadlineMs) {
+    ScheduledFuture<?> expiry;
+    try {
+      expiry = timer.schedule(() -> {
+        metrics.recordDeadlineExceeded();
+        result.error("DEADLINE_EXCEEDED", "relayDataTask missed its " + deadlineMs + " ms deadline", null);
+      }, deadlineMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      return result; // Detached from the engine
+    }
+    return new MethodChannel.Result() {
+      @Override
+      public void success(@Nullable Object value) {
+        expiry.cancel(false);
+        result.success(value);
+      }
+
+      @Override
+      public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+        expiry.cancel(false);
+        result.error(errorCode, errorMessage, errorDetails);
+      }
+
+      @Override
+      public void notImplemented() {
+        expiry.cancel(false);
+        result.notImplemented();
+      }
+    };
+  }
+
+  // One data task through its attempts. An attempt that fails without a
+  // server response, or outlasts timeoutMs, is retried after a jittered
+  // backoff when the request is idempotent and attempts and deadline allow.
+  private final class DataTaskAttempts {
+    private final Map<String, Object> args;
+    private final Request<?> request;
+    private final String[] headersToEncrypt;
+    private final String pathnamePrefix;
+    private final boolean rawResponse;
+    private final RelayMetrics.Trace trace;
+    private final VolleyRequestListener listener;
+    private final MethodChannel.Result result;
+    private final RelayRetryPolicy policy;
+    private final long deadlineNanos;
+    private final String requestID;
+    private final String tag;
+    // Routed to one of the relayEndpoints, avoiding the last one that failed
+    private final boolean routed;
+    private volatile EndpointRouter.Endpoint failedEndpoint;
+    private volatile boolean failedOver;
+    private volatile boolean resentAfterNetworkChange;
+    // Request body plus args['expectedResponseBytes'], for the in-flight budget
+    private final long payloadBytes;
+
+    DataTaskAttempts(Map<String, Object> args,
+                     Request<?> request,
+                     String[] headersToEncrypt,
+                     String pathnamePrefix,
+                     boolean rawResponse,
+                     RelayMetrics.Trace trace,
+                     VolleyRequestListener listener,
+                     MethodChannel.Result result,
+                     RelayRetryPolicy policy,
+                     long deadlineNanos) {
+      this.args = args;
+      this.request = request;
+      this.headersToEncrypt = headersToEncrypt;
+      this.pathnamePrefix = pathnamePrefix;
+      this.rawResponse = rawResponse;
+      this.trace = trace;
+      this.listener = listener;
+      this.result = result;
+      this.policy = policy;
+      this.deadlineNanos = deadlineNanos;
+      this.requestID = args.get("requestID") instanceof String ? (String) args.get("requestID") : null;
+      this.tag = args.get("tag") instanceof String ? (String) args.get("tag") : null;
+      this.routed = !Boolean.TRUE.equals(args.get("pinEndpoint")) && endpointRouter.routes(request.getUrl());
+      Object body = args.get("body");
+      Object expectedResponseBytes = args.get("expectedResponseBytes");
+      // A String body goes out UTF-8 encoded, so count its bytes, not its chars
+      this.payloadBytes = (body instanceof byte[] ? ((byte[]) body).length
+              : body instanceof String ? ((String) body).getBytes(StandardCharsets.UTF_8).length : 0)
+              + (expectedResponseBytes instanceof Number ? Math.max(0, ((Number) expectedResponseBytes).longValue()) : 0);
+      request.setTag(requestID != null ? requestID : tag);
+    }
+
+    void submit(int attempt) {
+      scheduler.submit(requestID, tag, request.getPriority(), deadlineNanos, payloadBytes, new RequestScheduler.Task() {
+        @Override
+        public void start(RequestScheduler.Ticket ticket) {
+          EndpointRouter.Endpoint endpoint = routed ? endpointRouter.select(failedEndpoint) : null;
+          String url = endpoint != null ? endpoint.rewrite(request.getUrl()) : request.getUrl();
+          sendToRelay(request, url, headersToEncrypt, pathnamePrefix, rawResponse, trace, ticket,
+                  attemptListener(ticket, attempt, endpoint));
+        }
+
+        @Override
+        public void cancelled(boolean started) {
+          request.cancel();
+          result.error("CANCELLED", "relayDataTask " + (requestID != null ? requestID : tag) + " was cancelled", null);
+        }
+
+        @Override
+        public void expired() {
+          metrics.recordDeadlineExceeded();
+          result.error("DEADLINE_EXCEEDED", "relayDataTask missed its " + policy.deadlineMs + " ms deadline", null);
+        }
+
+        @Override
+        public void queueTimedOut(long maxQueueMs) {
+          result.error("QUEUE_TIMEOUT", "relayDataTask waited more than " + maxQueueMs + " ms for the relay", null);
+        }
+
+        @Override
+        public void failed(Exception e) {
+          result.error("PLUGIN_ERROR", e.getMessage(), null);
+        }
+      });
+    }
+
+    // Passes on the first outcome of this attempt only; a reply arriving after
+    // the attempt timed out is dropped.
+    private VolleyRequestListener attemptListener(RequestScheduler.Ticket ticket, int attempt,
+                                                  EndpointRouter.Endpoint endpoint) {
+      AtomicBoolean settled = new AtomicBoolean(false);
+      long startNanos = System.nanoTime();
+      VolleyRequestListener attemptListener = new VolleyRequestListener() {
+        @Override
+        public void onError(String message, Map<String, List<String>> responseHeaders) {
+          if (settled.compareAndSet(false, true)) {
+            measured(endpoint, responseHeaders != null && !responseHeaders.isEmpty(), startNanos);
+            failed(ticket, attempt, endpoint, message, responseHeaders);
+          }
+        }
+
+        @Override
+        public void onJsonResponse(JSONObject response, Map<String, List<String>> responseHeaders) {
+          if (settled.compareAndSet(false, true)) {
+            measured(endpoint, true, startNanos);
+            listener.onJsonResponse(response, responseHeaders);
+          }
+        }
+
+        @Override
+        public void onJsonArrayResponse(JSONArray response, Map<String, List<String>> responseHeaders) {
+          if (settled.compareAndSet(false, true)) {
+            measured(endpoint, true, startNanos);
+            listener.onJsonArrayResponse(response, responseHeaders);
+          }
+        }
+
+        @Override
+        public void onStringResponse(String response, Map<String, String> responseHeaders) {
+          if (settled.compareAndSet(false, true)) {
+            measured(endpoint, true, startNanos);
+            listener.onStringResponse(response, responseHeaders);
+          }
+        }
+
+        @Override
+        public void onBytesResponse(byte[] response, String contentType, Map<String, List<String>> responseHeaders) {
+          if (settled.compareAndSet(false, true)) {
+            measured(endpoint, true, startNanos);
+            listener.onBytesResponse(response, contentType, responseHeaders);
+          }
+        }
+
+        @Override
+        public void onFileResponse(File file, String contentType, Map<String, List<String>> responseHeaders) {
+          if (settled.compareAndSet(false, true)) {
+            measured(endpoint, true, startNanos);
+            listener.onFileResponse(file, contentType, responseHeaders);
+          } else {
+            file.delete();
+          }
+        }
+      };
+      if (policy.timeoutMs > 0) {
+        try {
+          timer.schedule(() -> {
+            if (settled.compareAndSet(false, true)) {
+              metrics.recordTimeout();
+              measured(endpoint, false, startNanos);
+              failed(ticket, attempt, endpoint, "relayDataTask timed out after " + policy.timeoutMs + " ms", null);
+            }
+          }, policy.timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+          // Detached from the engine
+        }
+      }
+      return attemptListener;
+    }
+
+    private void measured(EndpointRouter.Endpoint endpoint, boolean answered, long startNanos) {
+      if (endpoint != null) {
+        endpointRouter.record(endpoint, answered, System.nanoTime() - startNanos);
+      }
+    }
+
+    private void failed(RequestScheduler.Ticket ticket, int attempt, EndpointRouter.Endpoint endpoint,
+                        String message, Map<String, List<String>> responseHeaders) {
+      boolean unanswered = responseHeaders == null || responseHeaders.isEmpty();
+      if (endpoint != null && unanswered) {
+        failedEndpoint = endpoint;
+      }
+      boolean resendable = !ticket.isCancelled()
+              && unanswered
+              && RelayRetryPolicy.isIdempotent(args)
+              && (deadlineNanos == 0 || deadlineNanos - System.nanoTime() > 0);
+      long backoffMs = policy.backoffMillis(attempt);
+      boolean retry = attempt < policy.maxAttempts
+              && resendable
+              && (deadlineNanos == 0 || deadlineNanos - System.nanoTime() > backoffMs * 1_000_000L);
+      if (retry) {
+        try {
+          timer.schedule(() -> submit(attempt + 1), backoffMs, TimeUnit.MILLISECONDS);
+          metrics.recordRetry();
+          return;
+        } catch (RejectedExecutionException ignored) {
+          // Detached from the engine, so report the failure instead
+        }
+      }
+      // Sent just as the network changed: queue it once more, outside the
+      // attempt count, behind the background re-pair
+      if (resendable && !resentAfterNetworkChange
+              && connectivityMonitor != null && connectivityMonitor.isHolding()) {
+        resentAfterNetworkChange = true;
+        metrics.recordRetry();
+        submit(attempt);
+        return;
+      }
+      // An endpoint that did not answer: fail over once to another, also
+      // outside the attempt count
+      if (resendable && !failedOver && endpoint != null && endpointRouter.hasAlternative(endpoint)) {
+        failedOver = true;
+        metrics.recordRetry();
+        submit(attempt);
+        return;
+      }
+      listener.onError(message, responseHeaders);
+    }
+  }
+
+  // The ticket is finished whatever the outcome; the reply of a request
+  // cancelled while the relay had it is dropped.
+  private <T> void sendToRelay(Request<T> request,
+                               String url,
+                               String[] headerArray,
+                               String pathnamePrefix,
+                               boolean rawResponse,
+                               RelayMetrics.Trace trace,
+                               RequestScheduler.Ticket ticket,
+                               VolleyRequestListener listener) {
+    RelayMetrics.Attempt attempt = trace.attempt(!isPaired(url));
+    TracedRequest tracedRequest = new TracedRequest(request, url, attempt::bodyRead);
+    relay.addToMteRequestQueue(tracedRequest, headerArray, pathnamePrefix, new RelayDataTaskListener() {
       @Override
       public void onError(String message, Map<String, List<String>> responseHeaders) {
+        attempt.responded();
+        ticket.finished();
+        if (ticket.isCancelled()) {
+          return;
+        }
         listener.onError(message, responseHeaders);
       }
 
       @Override
       public void onResponse(byte[] responseBytes, Map<String, List<String>> responseHeaders) {
+        attempt.responded();
+        ticket.finished();
+        if (ticket.isCancelled()) {
+          return;
+        }
+        if (CompressedRequest.isGzipped(responseBytes, responseHeaders)) {
+          try {
+            responseBytes = CompressedRequest.gunzip(responseBytes);
+            responseHeaders = CompressedRequest.decodedHeaders(responseHeaders);
+          } catch (IOException e) {
+            listener.onError("Unable to decompress response: " + e.getMessage(), responseHeaders);
+            return;
+          }
+        }
+        byte firstByte = firstNonWhitespaceByte(responseBytes);
+        // Large responses skip the copies made below and over the channel
+        int spillBytes = spillResponseBytes;
+        if (spillBytes > 0 && responseBytes.length >= spillBytes) {
+          File file;
+          try {
+            file = spillToFile(responseBytes);
+          } catch (IOException e) {
+            listener.onError("Unable to write response to a file: " + e.getMessage(), responseHeaders);
+            return;
+          }
+          listener.onFileResponse(file, sniffContentType(firstByte, responseHeaders), responseHeaders);
+          return;
+        }
+        // A not-modified reply has no JSON to validate
+        if (rawResponse || ResponseCache.isNotModified(responseHeaders)) {
+          listener.onBytesResponse(responseBytes, sniffContentType(firstByte, responseHeaders), responseHeaders);
+          return;
+        }
         try {
-          String jsonString = new String(responseBytes);
-
-          if (jsonString.trim().startsWith("{")) {
-            JSONObject jsonObject = new JSONObject(jsonString);
+          if (firstByte == '{') {
+            JSONObject jsonObject = new JSONObject(new String(responseBytes, StandardCharsets.UTF_8));
             listener.onJsonResponse(jsonObject, responseHeaders);
-          } else if (jsonString.trim().startsWith("[")) {
-            JSONArray jsonArray = new JSONArray(jsonString);
-            listener.onJsonArrayResponse(jsonArray, null);
+          } else if (firstByte == '[') {
+            JSONArray jsonArray = new JSONArray(new String(responseBytes, StandardCharsets.UTF_8));
+            listener.onJsonArrayResponse(jsonArray, responseHeaders);
           } else {
             listener.onError("Response Byte[] contains INVALID JSON", responseHeaders);
           }
@@ -515,15 +1740,144 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
 
       @Override
       public void onResponse(JSONObject responseJson, Map<String, List<String>> responseHeaders) {
+        attempt.responded();
+        ticket.finished();
+        if (ticket.isCancelled()) {
+          return;
+        }
         listener.onJsonResponse(responseJson, responseHeaders);
       }
     });
   }
 
+  // Enough to keep every pair of every paired host busy, so by default the
+  // scheduler only holds back what the relay would have queued anyway
+  private int defaultConcurrency() {
+    RelayBackend backend = relay;
+    if (backend == null) {
+      return 1;
+    }
+    return backend.getPairPoolSizeSetting() * Math.max(1, backend.getHostList().length);
+  }
+
+  // Whether the relay already holds pairs for the host of url
+  private boolean isPaired(String urlString) {
+    try {
+      URL url = new URL(urlString);
+      return Arrays.asList(relay.getHostList()).contains(url.getProtocol() + "://" + url.getAuthority());
+    } catch (MalformedURLException e) {
+      return false;
+    }
+  }
+
+  private final Runnable metricsTick = new Runnable() {
+    @Override
+    public void run() {
+      if (metricsIntervalMs <= 0) {
+        return;
+      }
+      try {
+        executor.execute(() -> dispatcher.dispatch("relayMetrics", metricsSnapshot()));
+      } catch (RejectedExecutionException e) {
+        return; // Detached from the engine
+      }
+      mainThread.postDelayed(this, metricsIntervalMs);
+    }
+  };
+
   // UTILITY METHODS
 
+  private Map<String, Object> metricsSnapshot() {
+    Map<String, Object> snapshot = metrics.snapshot();
+    snapshot.put("chunkSizing", chunkTuner.snapshot());
+    Map<String, Object> admission = new HashMap<>();
+    admission.put("queued", scheduler.getQueuedCount());
+    admission.put("running", scheduler.getRunningCount());
+    admission.put("inFlightBytes", scheduler.getInFlightBytes());
+    admission.put("maxInFlightBytes", scheduler.getMaxInFlightBytes());
+    admission.put("queueTimeouts", scheduler.getQueueTimeouts());
+    snapshot.put("admission", admission);
+    return snapshot;
+  }
+
+  // In the app's cache directory, which Android may clear when space runs low.
+  // The file is the caller's to delete; coalesced callers get copies.
+  private File spillToFile(byte[] bytes) throws IOException {
+    Context context = this.context;
+    File dir = new File(context != null ? context.getCacheDir() : new File(System.getProperty("java.io.tmpdir")),
+            "mte_relay_responses");
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create " + dir);
+    }
+    File file = File.createTempFile("response", ".bin", dir);
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(bytes);
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+    return file;
+  }
+
+  // "wifi", "cellular", "ethernet", "other", "none" or "unknown", looked up at
+  // most once a second as it is asked for on every transfer and round trip
+  private String networkType() {
+    ConnectivityMonitor monitor = connectivityMonitor;
+    if (monitor != null && monitor.isRunning()) {
+      return monitor.networkType();
+    }
+    long now = System.nanoTime();
+    if (now - networkTypeCheckedNanos < 1_000_000_000L && networkTypeCheckedNanos != 0) {
+      return networkType;
+    }
+    networkTypeCheckedNanos = now;
+    Context context = this.context;
+    if (context == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+      return networkType = "unknown";
+    }
+    try {
+      ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+      NetworkCapabilities capabilities = connectivity != null
+              ? connectivity.getNetworkCapabilities(connectivity.getActiveNetwork())
+              : null;
+      if (capabilities == null) {
+        networkType = "none";
+      } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+        networkType = "wifi";
+      } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+        networkType = "cellular";
+      } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+        networkType = "ethernet";
+      } else {
+        networkType = "other";
+      }
+    } catch (SecurityException e) {
+      networkType = "unknown";
+    }
+    return networkType;
+  }
+
+  private void runAsync(ExecutorService service, Result result, Runnable task) {
+    try {
+      service.execute(() -> {
+        try {
+          task.run();
+        } catch (Exception e) {
+          result.error("PLUGIN_ERROR", e.getMessage(), null);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.error("PLUGIN_ERROR", "Plugin is detached from the engine.", null);
+    }
+  }
+
   @NonNull
-  private Request<?> createRequest(String body, int method, String urlString, VolleyRequestListener listener, Map<String, String> headers) throws JSONException {
+  Request<?> createRequest(String body,
+                           int method,
+                           String urlString,
+                           VolleyRequestListener listener,
+                           Map<String, String> headers,
+                           Request.Priority priority) throws JSONException {
     Request<?> request;
     if (body == null || body.isEmpty()) {
       // Handle null or empty body (create a JSON request with null body)
@@ -538,6 +1892,11 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
         public Map<String, String> getHeaders() throws AuthFailureError {
           return headers;
         }
+
+        @Override
+        public Priority getPriority() {
+          return priority;
+        }
       };
     } else {
       String trimmedBody = body.trim();
@@ -553,6 +1912,11 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
           public Map<String, String> getHeaders() throws AuthFailureError {
             return headers;
           }
+
+          @Override
+          public Priority getPriority() {
+            return priority;
+          }
         };
       } else if (trimmedBody.startsWith("[")) {
         request = new JsonArrayRequest(
@@ -566,6 +1930,11 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
           public Map<String, String> getHeaders() throws AuthFailureError {
             return headers;
           }
+
+          @Override
+          public Priority getPriority() {
+            return priority;
+          }
         };
       } else {
         request = new StringRequest(
@@ -584,27 +1953,57 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
           public Map<String, String> getHeaders() throws AuthFailureError {
             return headers;
           }
+
+          @Override
+          public Priority getPriority() {
+            return priority;
+          }
         };
       }
     }
     return request;
   }
 
-  private void writeToOutputStream(OutputStream outputStream, byte[] buffer) {
-    int totalBytesWritten = 0;
+  // Dart may send the body Base64 encoded; anything that does not decode is
+  // used as is.
+  static String decodeBody(String body) {
+    if (body == null || body.isEmpty()) {
+      return null;
+    }
     try {
-      while (totalBytesWritten < buffer.length) {
-        int bytesToWrite = buffer.length - totalBytesWritten;
-        outputStream.write(buffer, totalBytesWritten, bytesToWrite);
-        totalBytesWritten += bytesToWrite;
+      byte[] decodedBytes = Base64.getDecoder().decode(body);
+      return new String(decodedBytes, StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      return body;
+    }
+  }
+
+  // Returns the first byte that is not JSON whitespace, or 0 for an empty body.
+  static byte firstNonWhitespaceByte(byte[] bytes) {
+    if (bytes == null) {
+      return 0;
+    }
+    for (byte b : bytes) {
+      if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+        return b;
       }
-    } catch (IOException e) {
-      relayStreamResponseMethod(
-              false,
-              null,
-              e.getMessage(),
-              null);
     }
+    return 0;
+  }
+
+  static String sniffContentType(byte firstByte, Map<String, List<String>> responseHeaders) {
+    if (firstByte == '{' || firstByte == '[') {
+      return "application/json";
+    }
+    if (responseHeaders != null) {
+      for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+        if ("Content-Type".equalsIgnoreCase(header.getKey())
+                && header.getValue() != null && !header.getValue().isEmpty()) {
+          return header.getValue().get(0);
+        }
+      }
+    }
+    return "application/octet-stream";
   }
 
   private String getVolleyErrorString(VolleyError error) {
@@ -623,7 +2022,7 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
   }
 
   @SuppressWarnings("unchecked")
-  private Map<String, Object> ensureArgumentsMap(Object arguments) {
+  Map<String, Object> ensureArgumentsMap(Object arguments) {
     if (arguments instanceof Map) {
       try {
         return (Map<String, Object>) arguments; // Suppressed internally
@@ -662,6 +2061,39 @@ public class MteRelayClientPlugin implements FlutterPlugin, MethodCallHandler {
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
     this.context = null;
     methodChannel.setMethodCallHandler(null);
+    mainThread.removeCallbacks(metricsTick);
+    connectivityMonitor.stop();
+    scheduler.cancelAll();
+    for (ResumableTransfer transfer : resumableTransfers.values()) {
+      transfer.cancelWaiting();
+    }
+    resumableTransfers.clear();
+    dispatcher.close();
+    for (FileUploadStreamer streamer : fileUploads.values()) {
+      streamer.cancel();
+    }
+    fileUploads.clear();
+    for (UploadStreamBuffer buffer : outputStreams.values()) {
+      buffer.cancel();
+    }
+    outputStreams.clear();
+    for (DownloadStreamer streamer : downloadStreams.values()) {
+      streamer.cancel();
+    }
+    downloadStreams.clear();
+    downloadEventChannel.setStreamHandler(null);
+    executor.shutdown();
+    timer.shutdownNow();
+  }
+
+  // Lets benchmarks and tests run the plugin against a stand-in relay
+  void setRelayBackend(RelayBackend relay) {
+    this.relay = new ChunkTuningRelayBackend(relay, chunkTuner);
+  }
+
+  // Lets tests report network changes as the ConnectivityManager callback would
+  ConnectivityMonitor getConnectivityMonitor() {
+    return connectivityMonitor;
   }
 
   public Context getContext() {
@@ -0,0 +1,103 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Carries a request body as the exact bytes Dart sent, with an explicit
+// content type, so the relay encrypts them without any parse/reserialize step.
+final class RawBytesRequest extends Request<byte[]> {
+  private final byte[] body;
+  private final String contentType;
+  private final Map<String, String> headers;
+  private final Response.Listener<byte[]> listener;
+  private final Priority priority;
+
+  RawBytesRequest(int method,
+                  String url,
+                  byte[] body,
+                  String contentType,
+                  Map<String, String> headers,
+                  Priority priority,
+                  Response.Listener<byte[]> listener,
+                  Response.ErrorListener errorListener) {
+    super(method, url, errorListener);
+    this.body = body;
+    this.contentType = contentType;
+    this.headers = withContentType(headers, contentType);
+    this.listener = listener;
+    this.priority = priority;
+  }
+
+  private static Map<String, String> withContentType(Map<String, String> headers, String contentType) {
+    Map<String, String> merged = headers != null ? new HashMap<>(headers) : new HashMap<>();
+    if (contentType == null) {
+      return merged;
+    }
+    for (String name : merged.keySet()) {
+      if ("Content-Type".equalsIgnoreCase(name)) {
+        return merged;
+      }
+    }
+    merged.put("Content-Type", contentType);
+    return merged;
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  @Override
+  public Priority getPriority() {
+    return priority;
+  }
+
+  @Override
+  public byte[] getBody() {
+    return body;
+  }
+
+  @Override
+  public String getBodyContentType() {
+    return contentType != null ? contentType : super.getBodyContentType();
+  }
+
+  @Override
+  protected Response<byte[]> parseNetworkResponse(NetworkResponse response) {
+    return Response.success(response.data, HttpHeaderParser.parseCacheHeaders(response));
+  }
+
+  @Override
+  protected void deliverResponse(byte[] response) {
+    listener.onResponse(response);
+  }
+}
@@ -0,0 +1,66 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.Request;
+import com.mte.relay.RelayDataTaskListener;
+import com.mte.relay.RelayFileRequestProperties;
+import com.mte.relay.RelayStreamCompletionCallback;
+import com.mte.relay.RelayStreamResponseListener;
+
+// The part of the MTE Relay the plugin uses. Relay cannot be subclassed (its
+// constructor is private), so the plugin talks to it through this interface and
+// benchmarks and tests can stand in their own backend.
+interface RelayBackend {
+  <T> void addToMteRequestQueue(Request<T> request,
+                                String[] headersToEncrypt,
+                                String pathnamePrefix,
+                                RelayDataTaskListener listener);
+
+  void uploadFile(RelayFileRequestProperties properties,
+                  String route,
+                  String pathnamePrefix,
+                  RelayStreamResponseListener listener,
+                  RelayStreamCompletionCallback completionCallback);
+
+  void downloadFile(RelayFileRequestProperties properties,
+                    String pathnamePrefix,
+                    RelayStreamResponseListener listener);
+
+  void rePairWithRelayServer(String url);
+
+  String adjustRelaySettings(String serverUrl, int streamChunkSize, int pairPoolSize, Boolean persistPairs);
+
+  int getStreamChunkSizeSetting();
+
+  // Read by the relay as each transfer starts
+  void setStreamChunkSize(int streamChunkSize);
+
+  int getPairPoolSizeSetting();
+
+  boolean getPersistPairsSetting();
+
+  String[] getHostList();
+}
@@ -0,0 +1,274 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.StandardMessageCodec;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+// StandardMessageCodec plus fixed-layout messages for the hot calls, used
+// when Dart turns on binaryMessages. A relayDataTask request, its result and
+// a writeToStream chunk are written field by field in a fixed order instead
+// of as maps keyed by strings, and well-known header names as one byte
+// indexing HEADER_NAMES, which decode to the same String every time. Keys
+// outside the layout travel in a trailing standard map. Everything else is
+// encoded exactly as by StandardMessageCodec, so Dart code still on the
+// standard codec keeps working. lib/relay_message_codec.dart is the Dart half
+// and must match this one.
+final class RelayMessageCodec extends StandardMessageCodec {
+  static final RelayMessageCodec INSTANCE = new RelayMessageCodec();
+  static final StandardMethodCodec METHOD_CODEC = new StandardMethodCodec(INSTANCE);
+
+  private static final byte DATA_TASK = (byte) 128;
+  private static final byte DATA_TASK_RESULT = (byte) 129;
+  private static final byte CHUNK = (byte) 130;
+  // A header name not in HEADER_NAMES follows as a standard value
+  private static final int OTHER_NAME = 255;
+
+  // Append only: the index is the wire format
+  static final String[] HEADER_NAMES = {
+          "Content-Type", "Content-Length", "Content-Encoding", "Accept", "Accept-Encoding",
+          "Authorization", "Cache-Control", "ETag", "If-None-Match", "If-Modified-Since",
+          "Last-Modified", "Expires", "Date", "Age", "Vary",
+          "Idempotency-Key", "Range", "Content-Range", "If-Range", "Accept-Ranges",
+          "Location", "Set-Cookie", "Cookie", "User-Agent", "Server",
+          "Connection", "Transfer-Encoding", "Upload-ID", "Upload-Offset", "Upload-Length",
+          "content-type", "content-length", "content-encoding", "cache-control", "etag",
+          "date", "server", "vary", "x-powered-by", "access-control-allow-origin",
+  };
+
+  private static final Map<String, Integer> HEADER_INDEX = new HashMap<>();
+
+  static {
+    for (int i = 0; i < HEADER_NAMES.length; i++) {
+      HEADER_INDEX.put(HEADER_NAMES[i], i);
+    }
+  }
+
+  private static final List<String> DATA_TASK_FIELDS = Arrays.asList(
+          "url", "method", "headers", "headersToEncrypt", "body", "contentType", "pathnamePrefix", "sentAtMicros");
+  private static final List<String> RESULT_FIELDS = Arrays.asList("success", "data", "contentType", "headers");
+  private static final List<String> CHUNK_FIELDS = Arrays.asList("streamID", "data");
+
+  // relayDataTask arguments that came in binary; their result goes back the same way
+  static final class DataTaskArgs extends HashMap<String, Object> {
+    private static final long serialVersionUID = 1L;
+  }
+
+  // writeToStream arguments that came in binary
+  static final class ChunkArgs extends HashMap<String, Object> {
+    private static final long serialVersionUID = 1L;
+  }
+
+  // A relayDataTask result map to be sent in binary
+  static final class DataTaskResult {
+    final Map<?, ?> map;
+
+    DataTaskResult(Map<?, ?> map) {
+      this.map = map;
+    }
+  }
+
+  // Sends the result maps of a binary relayDataTask call back in binary
+  static MethodChannel.Result binaryResults(MethodChannel.Result result) {
+    return new MethodChannel.Result() {
+      @Override
+      public void success(@Nullable Object value) {
+        result.success(value instanceof Map ? new DataTaskResult((Map<?, ?>) value) : value);
+      }
+
+      @Override
+      public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+        result.error(errorCode, errorMessage, errorDetails);
+      }
+
+      @Override
+      public void notImplemented() {
+        result.notImplemented();
+      }
+    };
+  }
+
+  @Override
+  protected void writeValue(ByteArrayOutputStream stream, Object value) {
+    if (value instanceof DataTaskResult) {
+      stream.write(DATA_TASK_RESULT);
+      writeFields(stream, ((DataTaskResult) value).map, RESULT_FIELDS);
+    } else if (value instanceof DataTaskArgs) {
+      stream.write(DATA_TASK);
+      writeFields(stream, (Map<?, ?>) value, DATA_TASK_FIELDS);
+    } else if (value instanceof ChunkArgs) {
+      stream.write(CHUNK);
+      writeFields(stream, (Map<?, ?>) value, CHUNK_FIELDS);
+    } else {
+      super.writeValue(stream, value);
+    }
+  }
+
+  @Override
+  protected Object readValueOfType(byte type, ByteBuffer buffer) {
+    switch (type) {
+      case DATA_TASK:
+        return readFields(buffer, new DataTaskArgs(), DATA_TASK_FIELDS);
+      case DATA_TASK_RESULT:
+        return readFields(buffer, new HashMap<>(), RESULT_FIELDS);
+      case CHUNK:
+        return readFields(buffer, new ChunkArgs(), CHUNK_FIELDS);
+      default:
+        return super.readValueOfType(type, buffer);
+    }
+  }
+
+  private void writeFields(ByteArrayOutputStream stream, Map<?, ?> map, List<String> fields) {
+    for (String field : fields) {
+      Object value = map.get(field);
+      if ("headers".equals(field)) {
+        writeHeaders(stream, value);
+      } else if ("headersToEncrypt".equals(field)) {
+        writeNames(stream, value);
+      } else {
+        writeValue(stream, value);
+      }
+    }
+    Map<Object, Object> extras = null;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      if (!fields.contains(entry.getKey())) {
+        if (extras == null) {
+          extras = new HashMap<>();
+        }
+        extras.put(entry.getKey(), entry.getValue());
+      }
+    }
+    writeValue(stream, extras);
+  }
+
+  private <M extends Map<String, Object>> M readFields(ByteBuffer buffer, M map, List<String> fields) {
+    for (String field : fields) {
+      Object value;
+      if ("headers".equals(field)) {
+        value = readHeaders(buffer);
+      } else if ("headersToEncrypt".equals(field)) {
+        value = readNames(buffer);
+      } else {
+        value = readValue(buffer);
+      }
+      if (value != null || "data".equals(field) || "headers".equals(field)) {
+        map.put(field, value);
+      }
+    }
+    Object extras = readValue(buffer);
+    if (extras instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) extras).entrySet()) {
+        map.put((String) entry.getKey(), entry.getValue());
+      }
+    }
+    return map;
+  }
+
+  // Count + 1, 0 for null, then name and value per header
+  private void writeHeaders(ByteArrayOutputStream stream, Object headers) {
+    if (!(headers instanceof Map)) {
+      writeSize(stream, 0);
+      return;
+    }
+    Map<?, ?> map = (Map<?, ?>) headers;
+    writeSize(stream, map.size() + 1);
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      writeName(stream, entry.getKey());
+      writeValue(stream, entry.getValue());
+    }
+  }
+
+  @Nullable
+  private Map<String, Object> readHeaders(ByteBuffer buffer) {
+    int size = readSize(buffer);
+    if (size == 0) {
+      return null;
+    }
+    Map<String, Object> headers = new HashMap<>(size * 4 / 3 + 1);
+    for (int i = 1; i < size; i++) {
+      String name = readName(buffer);
+      headers.put(name, readValue(buffer));
+    }
+    return headers;
+  }
+
+  private void writeNames(ByteArrayOutputStream stream, Object names) {
+    if (!(names instanceof List)) {
+      writeSize(stream, 0);
+      return;
+    }
+    List<?> list = (List<?>) names;
+    writeSize(stream, list.size() + 1);
+    for (Object name : list) {
+      writeName(stream, name);
+    }
+  }
+
+  @Nullable
+  private List<String> readNames(ByteBuffer buffer) {
+    int size = readSize(buffer);
+    if (size == 0) {
+      return null;
+    }
+    List<String> names = new ArrayList<>(size - 1);
+    for (int i = 1; i < size; i++) {
+      names.add(readName(buffer));
+    }
+    return names;
+  }
+
+  private void writeName(ByteArrayOutputStream stream, Object name) {
+    Integer index = name instanceof String ? HEADER_INDEX.get(name) : null;
+    if (index != null) {
+      stream.write(index);
+    } else {
+      stream.write(OTHER_NAME);
+      writeValue(stream, name);
+    }
+  }
+
+  private String readName(ByteBuffer buffer) {
+    int index = buffer.get() & 0xff;
+    if (index == OTHER_NAME) {
+      return (String) readValue(buffer);
+    }
+    if (index >= HEADER_NAMES.length) {
+      throw new IllegalArgumentException("Message corrupted");
+    }
+    return HEADER_NAMES[index];
+  }
+}
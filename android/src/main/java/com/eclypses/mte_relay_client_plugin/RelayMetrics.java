@@ -0,0 +1,274 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Latency histograms and counters for relayDataTask. Each request is followed
+// by a Trace through the phases the plugin can observe:
+//   channel             Dart invokeMethod to onMethodCall (wall clock, ms resolution)
+//   createRequest       argument unpacking and building the Volley request
+//   queueWait / pairing relay queue until it reads the body; pairing when the
+//                       host had to be paired first
+//   relayRoundTrip      encryption, network and decryption inside the relay
+//   responseProcessing  parsing the decrypted body and replying to Dart
+//   total               onMethodCall to reply
+// A retried request counts the relay phases of its last attempt only.
+final class RelayMetrics {
+  private static final int MAX_ROUTES = 64;
+  private static final String OTHER_ROUTE = "other";
+
+  private final Map<String, LatencyHistogram> phases = new ConcurrentHashMap<>();
+  private final Map<String, LatencyHistogram> methods = new ConcurrentHashMap<>();
+  private final Map<String, LatencyHistogram> routes = new ConcurrentHashMap<>();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder rePairs = new LongAdder();
+  private final LongAdder backgroundRePairs = new LongAdder();
+  private final LongAdder networkHolds = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder deadlinesExceeded = new LongAdder();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongConsumer roundTrips;
+
+  // roundTrips is told the relayRoundTrip of every request that got that far
+  RelayMetrics(LongConsumer roundTrips) {
+    this.roundTrips = roundTrips;
+  }
+
+  final class Trace {
+    private final String method;
+    private final String route;
+    private final long startNanos = System.nanoTime();
+    // Only the attempt that produced the reply is recorded per phase
+    private volatile Attempt attempt;
+
+    private Trace(String method, String route) {
+      this.method = method;
+      this.route = route;
+    }
+
+    void built() {
+      recordPhase("createRequest", System.nanoTime() - startNanos);
+    }
+
+    // Every retry is a new attempt, which starts its wait afresh
+    Attempt attempt(boolean needsPairing) {
+      Attempt attempt = new Attempt(needsPairing);
+      this.attempt = attempt;
+      return attempt;
+    }
+
+    // Completes the trace when Dart gets its reply
+    MethodChannel.Result wrap(MethodChannel.Result result) {
+      return new MethodChannel.Result() {
+        @Override
+        public void success(@Nullable Object value) {
+          boolean success = true;
+          if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            success = Boolean.TRUE.equals(map.get("success"));
+            if (map.get("data") instanceof byte[]) {
+              bytesIn.add(((byte[]) map.get("data")).length);
+            } else if (map.get("contentLength") instanceof Long) {
+              bytesIn.add((Long) map.get("contentLength"));
+            }
+          }
+          result.success(value);
+          finished(success);
+        }
+
+        @Override
+        public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+          result.error(errorCode, errorMessage, errorDetails);
+          finished(false);
+        }
+
+        @Override
+        public void notImplemented() {
+          result.notImplemented();
+          finished(false);
+        }
+      };
+    }
+
+    private void finished(boolean success) {
+      long now = System.nanoTime();
+      Attempt last = attempt;
+      if (last != null) {
+        last.record(now);
+      }
+      recordPhase("total", now - startNanos);
+      histogram(methods, method).recordNanos(now - startNanos);
+      histogram(routes, routes.size() < MAX_ROUTES || routes.containsKey(route) ? route : OTHER_ROUTE)
+              .recordNanos(now - startNanos);
+      if (!success) {
+        errors.increment();
+      }
+      inFlight.decrementAndGet();
+    }
+  }
+
+  // One send of a traced request through the relay. A reply before the body
+  // was read means the relay failed while queued; no reply at all means the
+  // attempt timed out.
+  final class Attempt {
+    private final boolean pairing;
+    private final long queuedNanos = System.nanoTime();
+    private volatile long bodyReadNanos;
+    private volatile long respondedNanos;
+
+    private Attempt(boolean pairing) {
+      this.pairing = pairing;
+    }
+
+    void bodyRead(int length) {
+      bytesOut.add(length);
+      bodyReadNanos = System.nanoTime();
+    }
+
+    void responded() {
+      respondedNanos = System.nanoTime();
+      if (bodyReadNanos != 0) {
+        roundTrips.accept(respondedNanos - bodyReadNanos);
+      }
+    }
+
+    private void record(long finishedNanos) {
+      long answeredNanos = respondedNanos != 0 ? respondedNanos : finishedNanos;
+      long sentNanos = bodyReadNanos != 0 ? bodyReadNanos : answeredNanos;
+      recordPhase(pairing ? "pairing" : "queueWait", sentNanos - queuedNanos);
+      if (bodyReadNanos != 0) {
+        recordPhase("relayRoundTrip", answeredNanos - sentNanos);
+      }
+      if (respondedNanos != 0) {
+        recordPhase("responseProcessing", finishedNanos - respondedNanos);
+      }
+    }
+  }
+
+  Trace begin(@Nullable String method, @Nullable String url) {
+    requests.increment();
+    inFlight.incrementAndGet();
+    return new Trace(method != null ? method : "UNKNOWN", routeOf(url));
+  }
+
+  // Dart stamps sentAtMicros on the arguments when it invokes the method
+  void recordChannel(Map<String, Object> args) {
+    Object sentAtMicros = args.get("sentAtMicros");
+    if (sentAtMicros instanceof Number) {
+      long micros = System.currentTimeMillis() * 1000 - ((Number) sentAtMicros).longValue();
+      recordPhase("channel", Math.max(0, micros) * 1000);
+    }
+  }
+
+  void recordRePair() {
+    rePairs.increment();
+  }
+
+  // Re-pairs the connectivity monitor started after a network change
+  void recordBackgroundRePair() {
+    backgroundRePairs.increment();
+  }
+
+  // Times requests were held back while the network settled
+  void recordNetworkHold() {
+    networkHolds.increment();
+  }
+
+  void recordRetry() {
+    retries.increment();
+  }
+
+  void recordTimeout() {
+    timeouts.increment();
+  }
+
+  void recordDeadlineExceeded() {
+    deadlinesExceeded.increment();
+  }
+
+  private void recordPhase(String phase, long nanos) {
+    histogram(phases, phase).recordNanos(nanos);
+  }
+
+  private static LatencyHistogram histogram(Map<String, LatencyHistogram> map, String key) {
+    LatencyHistogram histogram = map.get(key);
+    return histogram != null ? histogram : map.computeIfAbsent(key, k -> new LatencyHistogram());
+  }
+
+  private static String routeOf(@Nullable String url) {
+    if (url == null) {
+      return OTHER_ROUTE;
+    }
+    try {
+      URL parsed = new URL(url);
+      return parsed.getAuthority() + parsed.getPath();
+    } catch (MalformedURLException e) {
+      return OTHER_ROUTE;
+    }
+  }
+
+  Map<String, Object> snapshot() {
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("requests", requests.sum());
+    snapshot.put("errors", errors.sum());
+    snapshot.put("inFlight", inFlight.get());
+    snapshot.put("bytesOut", bytesOut.sum());
+    snapshot.put("bytesIn", bytesIn.sum());
+    snapshot.put("rePairs", rePairs.sum());
+    snapshot.put("backgroundRePairs", backgroundRePairs.sum());
+    snapshot.put("networkHolds", networkHolds.sum());
+    snapshot.put("retries", retries.sum());
+    snapshot.put("timeouts", timeouts.sum());
+    snapshot.put("deadlinesExceeded", deadlinesExceeded.sum());
+    snapshot.put("phases", snapshotOf(phases));
+    snapshot.put("methods", snapshotOf(methods));
+    snapshot.put("routes", snapshotOf(routes));
+    return snapshot;
+  }
+
+  private static Map<String, Object> snapshotOf(Map<String, LatencyHistogram> histograms) {
+    Map<String, Object> snapshot = new HashMap<>();
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshot;
+  }
+}
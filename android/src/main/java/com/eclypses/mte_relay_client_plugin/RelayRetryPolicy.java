@@ -0,0 +1,128 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Timeout, retry and deadline settings for relayDataTask. Global defaults are
+// set through adjustRelaySettings and any of them can be overridden per call
+// in the relayDataTask arguments:
+//   timeoutMs     per attempt, 0 leaves it to the relay. The relay sends
+//                 with its own Volley timeout of 2.5 s and no retries, so
+//                 that bounds an attempt whatever timeoutMs is; the plugin
+//                 enforces timeoutMs with its own timer.
+//   maxAttempts   attempts in all, 1 never retries
+//   backoffMs     first retry delay; doubles per attempt up to maxBackoffMs,
+//                 with full jitter
+//   deadlineMs    overall budget from the call, 0 for none
+// Only failures without a server response (network errors and timeouts) are
+// retried, and only for idempotent requests: GET, HEAD, OPTIONS, PUT, DELETE
+// and TRACE, or any request with an Idempotency-Key header or
+// args['idempotent'] set.
+final class RelayRetryPolicy {
+  static final RelayRetryPolicy DEFAULT = new RelayRetryPolicy(0, 1, 200, 5000, 0);
+
+  final int timeoutMs;
+  final int maxAttempts;
+  final int backoffMs;
+  final int maxBackoffMs;
+  final int deadlineMs;
+
+  RelayRetryPolicy(int timeoutMs, int maxAttempts, int backoffMs, int maxBackoffMs, int deadlineMs) {
+    this.timeoutMs = timeoutMs;
+    this.maxAttempts = maxAttempts;
+    this.backoffMs = backoffMs;
+    this.maxBackoffMs = maxBackoffMs;
+    this.deadlineMs = deadlineMs;
+  }
+
+  // This policy with every valid setting in args applied
+  RelayRetryPolicy with(Map<String, Object> args) {
+    return new RelayRetryPolicy(
+            intArg(args, "timeoutMs", 0, timeoutMs),
+            intArg(args, "maxAttempts", 1, maxAttempts),
+            intArg(args, "backoffMs", 0, backoffMs),
+            intArg(args, "maxBackoffMs", 0, maxBackoffMs),
+            intArg(args, "deadlineMs", 0, deadlineMs));
+  }
+
+  private static int intArg(Map<String, Object> args, String key, int min, int fallback) {
+    Object value = args.get(key);
+    return value instanceof Integer && (Integer) value >= min ? (Integer) value : fallback;
+  }
+
+  @SuppressWarnings("unchecked")
+  static boolean isIdempotent(Map<String, Object> args) {
+    if (Boolean.TRUE.equals(args.get("idempotent"))) {
+      return true;
+    }
+    if (args.get("headers") instanceof Map) {
+      for (Object name : ((Map<Object, Object>) args.get("headers")).keySet()) {
+        if (name instanceof String && "Idempotency-Key".equalsIgnoreCase((String) name)) {
+          return true;
+        }
+      }
+    }
+    Object method = args.get("method");
+    return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)
+            || "PUT".equals(method) || "DELETE".equals(method) || "TRACE".equals(method);
+  }
+
+  // Full jitter: uniformly random up to the capped exponential delay, so
+  // clients that failed together do not retry together.
+  long backoffMillis(int attempt) {
+    long cap = Math.min(maxBackoffMs, (long) backoffMs << Math.min(attempt - 1, 20));
+    return cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof RelayRetryPolicy)) {
+      return false;
+    }
+    RelayRetryPolicy other = (RelayRetryPolicy) o;
+    return timeoutMs == other.timeoutMs
+            && maxAttempts == other.maxAttempts
+            && backoffMs == other.backoffMs
+            && maxBackoffMs == other.maxBackoffMs
+            && deadlineMs == other.deadlineMs;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(timeoutMs, maxAttempts, backoffMs, maxBackoffMs, deadlineMs);
+  }
+
+  @Override
+  public String toString() {
+    return "timeoutMs " + timeoutMs
+            + ", maxAttempts " + maxAttempts
+            + ", backoffMs " + backoffMs
+            + ", maxBackoffMs " + maxBackoffMs
+            + ", deadlineMs " + deadlineMs;
+  }
+}
@@ -0,0 +1,162 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.StringRequest;
+import com.mte.relay.RelayDataTaskListener;
+
+import org.json.JSONObject;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Pairs the relay with its servers ahead of the first real request. The relay
+// only sets up a host (loading persisted pairs, or pairing the whole pool) when
+// a request for it arrives, so each unpaired server is sent a small probe in
+// parallel. The relay reads the probe body once the host is paired, which marks
+// the end of the pairing phase; the probe's response ends the warm-up.
+final class RelayWarmUp {
+  private final RelayBackend relay;
+  private final long startNanos;
+  private final MethodChannel.Result result;
+  private final Map<String, Object> report = new HashMap<>();
+  private final List<Map<String, Object>> hostReports = new ArrayList<>();
+  private final AtomicInteger remaining = new AtomicInteger();
+
+  RelayWarmUp(RelayBackend relay, long startNanos, long initializedNanos, MethodChannel.Result result) {
+    this.relay = relay;
+    this.startNanos = startNanos;
+    this.result = result;
+    report.put("initializeMs", millisBetween(startNanos, initializedNanos));
+    report.put("pairPoolSize", relay.getPairPoolSizeSetting());
+    report.put("persistPairs", relay.getPersistPairsSetting());
+    report.put("hosts", hostReports);
+  }
+
+  void start(List<String> urls, String probePath) {
+    List<String> pairedHosts = Arrays.asList(relay.getHostList());
+    remaining.set(urls.size() + 1);
+    for (String url : urls) {
+      Map<String, Object> hostReport = new HashMap<>();
+      hostReport.put("url", url);
+      hostReports.add(hostReport);
+
+      String host;
+      try {
+        URL parsed = new URL(url);
+        host = parsed.getProtocol() + "://" + parsed.getAuthority();
+      } catch (MalformedURLException e) {
+        hostReport.put("paired", false);
+        hostReport.put("error", e.getMessage());
+        hostFinished();
+        continue;
+      }
+      if (pairedHosts.contains(host)) {
+        hostReport.put("paired", true);
+        hostReport.put("alreadyPaired", true);
+        hostFinished();
+        continue;
+      }
+      probe(host, probePath, hostReport);
+    }
+    hostFinished();
+  }
+
+  private void probe(String host, String probePath, Map<String, Object> hostReport) {
+    long hostStart = System.nanoTime();
+    long[] pairedAt = new long[1];
+    StringRequest request = new StringRequest(Request.Method.GET, host + probePath, response -> {
+    }, error -> {
+    }) {
+      @Override
+      public byte[] getBody() throws AuthFailureError {
+        synchronized (pairedAt) {
+          if (pairedAt[0] == 0) {
+            pairedAt[0] = System.nanoTime();
+          }
+        }
+        return super.getBody();
+      }
+    };
+
+    relay.addToMteRequestQueue(request, new String[0], null, new RelayDataTaskListener() {
+      @Override
+      public void onError(String message, Map<String, List<String>> responseHeaders) {
+        finishProbe(message);
+      }
+
+      @Override
+      public void onResponse(byte[] responseBytes, Map<String, List<String>> responseHeaders) {
+        finishProbe(null);
+      }
+
+      @Override
+      public void onResponse(JSONObject responseJson, Map<String, List<String>> responseHeaders) {
+        finishProbe(null);
+      }
+
+      // Only a failure before the body was read is a pairing failure; the
+      // server is free to reject the probe itself.
+      private void finishProbe(String error) {
+        long now = System.nanoTime();
+        long paired;
+        synchronized (pairedAt) {
+          paired = pairedAt[0];
+        }
+        hostReport.put("paired", paired != 0);
+        hostReport.put("alreadyPaired", false);
+        if (paired != 0) {
+          hostReport.put("pairMs", millisBetween(hostStart, paired));
+          hostReport.put("probeMs", millisBetween(paired, now));
+        } else {
+          hostReport.put("error", error);
+        }
+        hostReport.put("totalMs", millisBetween(hostStart, now));
+        hostFinished();
+      }
+    });
+  }
+
+  private void hostFinished() {
+    if (remaining.decrementAndGet() == 0) {
+      report.put("totalMs", millisBetween(startNanos, System.nanoTime()));
+      result.success(report);
+    }
+  }
+
+  private static double millisBetween(long fromNanos, long toNanos) {
+    return (toNanos - fromNanos) / 1_000_000.0;
+  }
+}
@@ -0,0 +1,174 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Single-flight for relayDataTask, when coalesceRequests is on: while an
+// idempotent request is in flight, identical requests wait for its reply
+// instead of taking another pair and their own encrypt/decrypt round trip.
+// A waiter never reaches the scheduler, so requests that can be cancelled
+// or expire on their own are not shared.
+final class RequestCoalescer {
+  private final Map<String, List<MethodChannel.Result>> inFlight = new HashMap<>();
+
+  // Returns null for requests that must not be shared: unsafe methods, calls
+  // opted out with args['coalesce'], and those with a requestID or tag to
+  // cancel them by or a timeoutMs or deadlineMs of their own
+  @Nullable
+  static String keyFor(Map<String, Object> args) {
+    Object method = args.get("method");
+    if (!("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method))
+            || Boolean.FALSE.equals(args.get("coalesce"))
+            || !(args.get("url") instanceof String)) {
+      return null;
+    }
+    for (String own : new String[]{"requestID", "tag", "timeoutMs", "deadlineMs"}) {
+      if (args.get(own) != null) {
+        return null;
+      }
+    }
+    return requestKey(args);
+  }
+
+  // Requests that differ in anything affecting the reply get different keys.
+  // The response cache keys its entries the same way.
+  @SuppressWarnings("unchecked")
+  static String requestKey(Map<String, Object> args) {
+    StringBuilder key = new StringBuilder()
+            .append(args.get("method")).append(' ').append(args.get("url"))
+            .append("\nprefix:").append(args.get("pathnamePrefix"))
+            .append("\nraw:").append(Boolean.TRUE.equals(args.get("rawResponse")))
+            .append("\nencrypt:").append(args.get("headersToEncrypt"));
+    if (args.get("headers") instanceof Map) {
+      Map<String, Object> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      sorted.putAll((Map<String, Object>) args.get("headers"));
+      for (Map.Entry<String, Object> header : sorted.entrySet()) {
+        key.append('\n').append(header.getKey().toLowerCase()).append(':').append(header.getValue());
+      }
+    }
+    return key.toString();
+  }
+
+  // Returns the Result the caller should complete when it leads the flight,
+  // or null when it joined one already in progress.
+  @Nullable
+  synchronized MethodChannel.Result join(String key, MethodChannel.Result result) {
+    List<MethodChannel.Result> waiters = inFlight.get(key);
+    if (waiters != null) {
+      waiters.add(result);
+      return null;
+    }
+    waiters = new ArrayList<>();
+    waiters.add(result);
+    inFlight.put(key, waiters);
+    return new MethodChannel.Result() {
+      @Override
+      public void success(@Nullable Object value) {
+        List<MethodChannel.Result> waiters = land(key);
+        List<Object> replies = new ArrayList<>();
+        for (int i = 0; i < waiters.size(); i++) {
+          replies.add(replyFor(i, value));
+        }
+        for (int i = 0; i < waiters.size(); i++) {
+          Object reply = replies.get(i);
+          if (reply instanceof IOException) {
+            waiters.get(i).error("PLUGIN_ERROR", "Unable to copy response file: "
+                    + ((IOException) reply).getMessage(), null);
+          } else {
+            waiters.get(i).success(reply);
+          }
+        }
+      }
+
+      @Override
+      public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+        for (MethodChannel.Result waiter : land(key)) {
+          waiter.error(errorCode, errorMessage, errorDetails);
+        }
+      }
+
+      @Override
+      public void notImplemented() {
+        for (MethodChannel.Result waiter : land(key)) {
+          waiter.notImplemented();
+        }
+      }
+    };
+  }
+
+  // A spilled response is a file its caller deletes, so every waiter after
+  // the first gets a copy of its own, made before anyone has the original.
+  // Returns the IOException when the copy fails.
+  private static Object replyFor(int waiter, @Nullable Object value) {
+    if (!(value instanceof Map)) {
+      return value;
+    }
+    Map<Object, Object> reply = new HashMap<>((Map<?, ?>) value);
+    if (waiter > 0 && reply.get("filePath") instanceof String) {
+      try {
+        reply.put("filePath", copyOf(new File((String) reply.get("filePath"))).getAbsolutePath());
+      } catch (IOException e) {
+        return e;
+      }
+    }
+    return reply;
+  }
+
+  private static File copyOf(File file) throws IOException {
+    File copy = File.createTempFile("response", ".bin", file.getParentFile());
+    try (FileChannel in = new FileInputStream(file).getChannel();
+         FileChannel out = new FileOutputStream(copy).getChannel()) {
+      long size = in.size();
+      long copied = 0;
+      while (copied < size) {
+        copied += in.transferTo(copied, size - copied, out);
+      }
+    } catch (IOException e) {
+      //noinspection ResultOfMethodCallIgnored
+      copy.delete();
+      throw e;
+    }
+    return copy;
+  }
+
+  private synchronized List<MethodChannel.Result> land(String key) {
+    List<MethodChannel.Result> waiters = inFlight.remove(key);
+    return waiters != null ? waiters : new ArrayList<>();
+  }
+}
@@ -0,0 +1,370 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import com.android.volley.Request;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntSupplier;
+
+// Holds relay requests back in priority order so only a limited number are
+// with the relay at once. The relay serves its own queue first come, first
+// served and never looks at Request.getPriority, so this is where priority
+// takes effect: a prefetch cannot sit ahead of a user-visible call in the
+// relay's queue. Queued requests can be cancelled before they cost a pair;
+// running ones are answered straight away and their late reply dropped.
+// Admission also keeps the payload bytes of running requests under
+// maxInFlightBytes, though a request of any size goes through when no other
+// holds bytes, and fails requests that waited longer than maxQueueMs. With
+// fifo the queue ignores priority.
+final class RequestScheduler {
+
+  interface Task {
+    // Hands the request to the relay. The task calls ticket.finished() once
+    // the relay is done with it, whether or not it was cancelled meanwhile.
+    void start(Ticket ticket);
+
+    // Called once, on the cancelling thread. started tells whether the relay
+    // already has the request.
+    void cancelled(boolean started);
+
+    void failed(Exception e);
+
+    // Called instead of start when the deadline passed while queued
+    default void expired() {
+      cancelled(false);
+    }
+
+    // Called instead of start when the request waited maxQueueMs
+    default void queueTimedOut(long maxQueueMs) {
+      failed(new TimeoutException("Waited more than " + maxQueueMs + " ms for the relay"));
+    }
+  }
+
+  final class Ticket {
+    @Nullable
+    final String id;
+    @Nullable
+    final String tag;
+    final Request.Priority priority;
+    private final long deadlineNanos;
+    private final long bytes;
+    private final long sequence;
+    private final Task task;
+    private volatile boolean cancelled;
+
+    private Ticket(String id, String tag, Request.Priority priority, long deadlineNanos, long bytes, long sequence,
+                   Task task) {
+      this.id = id;
+      this.tag = tag;
+      this.priority = priority;
+      this.deadlineNanos = deadlineNanos;
+      this.bytes = bytes;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    boolean isCancelled() {
+      return cancelled;
+    }
+
+    void finished() {
+      RequestScheduler.this.finished(this);
+    }
+
+    private boolean matches(String id, String tag) {
+      return (id != null && id.equals(this.id)) || (tag != null && tag.equals(this.tag));
+    }
+  }
+
+  // Highest priority first, then in submission order
+  private static final Comparator<Ticket> ORDER = (a, b) -> a.priority != b.priority
+          ? b.priority.compareTo(a.priority)
+          : Long.compare(a.sequence, b.sequence);
+  private static final Comparator<Ticket> FIFO = (a, b) -> Long.compare(a.sequence, b.sequence);
+
+  private PriorityQueue<Ticket> queued = new PriorityQueue<>(ORDER);
+  private final Set<Ticket> running = new HashSet<>();
+  private final IntSupplier defaultLimit;
+  private int maxConcurrent;
+  private long nextSequence;
+  private boolean held;
+  private long maxInFlightBytes;
+  private long inFlightBytes;
+  private long maxQueueMs;
+  private boolean fifo;
+  private long queueTimeouts;
+  private ScheduledExecutorService timer;
+
+  RequestScheduler(IntSupplier defaultLimit) {
+    this.defaultLimit = defaultLimit;
+  }
+
+  // "low", "normal", "high" or "immediate", as in Volley; anything else is normal
+  static Request.Priority priorityOf(Object value) {
+    if (value instanceof String) {
+      for (Request.Priority priority : Request.Priority.values()) {
+        if (priority.name().equalsIgnoreCase((String) value)) {
+          return priority;
+        }
+      }
+    }
+    return Request.Priority.NORMAL;
+  }
+
+  Ticket submit(@Nullable String id, @Nullable String tag, Request.Priority priority, Task task) {
+    return submit(id, tag, priority, 0, task);
+  }
+
+  // A request still queued at deadlineNanos (System.nanoTime, 0 for none) is
+  // dropped without reaching the relay.
+  Ticket submit(@Nullable String id, @Nullable String tag, Request.Priority priority, long deadlineNanos, Task task) {
+    return submit(id, tag, priority, deadlineNanos, 0, task);
+  }
+
+  // bytes is the payload the request keeps in memory while it runs
+  Ticket submit(@Nullable String id, @Nullable String tag, Request.Priority priority, long deadlineNanos, long bytes,
+                Task task) {
+    Ticket ticket;
+    long queueMs;
+    ScheduledExecutorService queueTimer;
+    synchronized (this) {
+      ticket = new Ticket(id, tag, priority, deadlineNanos, Math.max(0, bytes), nextSequence++, task);
+      queued.add(ticket);
+      queueMs = maxQueueMs;
+      queueTimer = timer;
+    }
+    if (queueMs > 0 && queueTimer != null) {
+      try {
+        queueTimer.schedule(() -> queueTimedOut(ticket, queueMs), queueMs, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException ignored) {
+        // Shut down; the request waits as long as it takes
+      }
+    }
+    drain();
+    return ticket;
+  }
+
+  // Cancels every queued or running request with the given id or tag and
+  // returns how many there were.
+  int cancel(@Nullable String id, @Nullable String tag) {
+    List<Ticket> dequeued = new ArrayList<>();
+    List<Ticket> started = new ArrayList<>();
+    synchronized (this) {
+      for (Iterator<Ticket> it = queued.iterator(); it.hasNext(); ) {
+        Ticket ticket = it.next();
+        if (ticket.matches(id, tag)) {
+          it.remove();
+          ticket.cancelled = true;
+          dequeued.add(ticket);
+        }
+      }
+      for (Ticket ticket : running) {
+        if (!ticket.cancelled && ticket.matches(id, tag)) {
+          ticket.cancelled = true;
+          started.add(ticket);
+        }
+      }
+    }
+    for (Ticket ticket : dequeued) {
+      ticket.task.cancelled(false);
+    }
+    for (Ticket ticket : started) {
+      ticket.task.cancelled(true);
+    }
+    return dequeued.size() + started.size();
+  }
+
+  void cancelAll() {
+    List<Ticket> dequeued;
+    List<Ticket> started = new ArrayList<>();
+    synchronized (this) {
+      dequeued = new ArrayList<>(queued);
+      queued.clear();
+      for (Ticket ticket : running) {
+        if (!ticket.cancelled) {
+          started.add(ticket);
+        }
+      }
+      for (Ticket ticket : dequeued) {
+        ticket.cancelled = true;
+      }
+      for (Ticket ticket : started) {
+        ticket.cancelled = true;
+      }
+    }
+    for (Ticket ticket : dequeued) {
+      ticket.task.cancelled(false);
+    }
+    for (Ticket ticket : started) {
+      ticket.task.cancelled(true);
+    }
+  }
+
+  // 0 goes back to the default limit
+  void setMaxConcurrent(int maxConcurrent) {
+    synchronized (this) {
+      this.maxConcurrent = Math.max(0, maxConcurrent);
+    }
+    drain();
+  }
+
+  // While held nothing more is handed to the relay; queued requests wait,
+  // deadlines and all, until the hold is released.
+  void setHeld(boolean held) {
+    synchronized (this) {
+      this.held = held;
+    }
+    drain();
+  }
+
+  synchronized boolean isHeld() {
+    return held;
+  }
+
+  // Runs the maxQueueMs timeouts
+  synchronized void setTimer(ScheduledExecutorService timer) {
+    this.timer = timer;
+  }
+
+  // maxInFlightBytes and maxQueueMs of 0 are no limit. Requests already
+  // queued keep their timeout.
+  void configureAdmission(long maxInFlightBytes, long maxQueueMs, boolean fifo) {
+    synchronized (this) {
+      this.maxInFlightBytes = Math.max(0, maxInFlightBytes);
+      this.maxQueueMs = Math.max(0, maxQueueMs);
+      if (this.fifo != fifo) {
+        this.fifo = fifo;
+        PriorityQueue<Ticket> reordered = new PriorityQueue<>(fifo ? FIFO : ORDER);
+        reordered.addAll(queued);
+        queued = reordered;
+      }
+    }
+    drain();
+  }
+
+  synchronized long getMaxInFlightBytes() {
+    return maxInFlightBytes;
+  }
+
+  synchronized long getMaxQueueMs() {
+    return maxQueueMs;
+  }
+
+  synchronized boolean isFifo() {
+    return fifo;
+  }
+
+  synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  synchronized long getQueueTimeouts() {
+    return queueTimeouts;
+  }
+
+  synchronized int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  synchronized int getQueuedCount() {
+    return queued.size();
+  }
+
+  synchronized int getRunningCount() {
+    return running.size();
+  }
+
+  private void finished(Ticket ticket) {
+    synchronized (this) {
+      if (!running.remove(ticket)) {
+        return;
+      }
+      inFlightBytes -= ticket.bytes;
+    }
+    drain();
+  }
+
+  private void queueTimedOut(Ticket ticket, long queueMs) {
+    synchronized (this) {
+      if (!queued.remove(ticket)) {
+        return;
+      }
+      ticket.cancelled = true;
+      queueTimeouts++;
+    }
+    ticket.task.queueTimedOut(queueMs);
+  }
+
+  private void drain() {
+    // The default limit asks the relay, which is never called under this lock
+    int fallback = Math.max(1, defaultLimit.getAsInt());
+    while (true) {
+      Ticket next;
+      boolean expired;
+      synchronized (this) {
+        int limit = maxConcurrent > 0 ? maxConcurrent : fallback;
+        if (held || queued.isEmpty() || running.size() >= limit) {
+          return;
+        }
+        // In order, so a large request is not starved by smaller ones behind it
+        if (maxInFlightBytes > 0 && inFlightBytes > 0
+                && inFlightBytes + queued.peek().bytes > maxInFlightBytes) {
+          return;
+        }
+        next = queued.poll();
+        expired = next.deadlineNanos != 0 && System.nanoTime() - next.deadlineNanos >= 0;
+        if (expired) {
+          next.cancelled = true;
+        } else {
+          running.add(next);
+          inFlightBytes += next.bytes;
+        }
+      }
+      if (expired) {
+        next.task.expired();
+        continue;
+      }
+      try {
+        next.task.start(next);
+      } catch (RuntimeException e) {
+        finished(next);
+        next.task.failed(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,276 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// LRU cache of decrypted relayDataTask GET responses, bounded by the total size
+// of the cached bodies. Freshness follows Cache-Control max-age / no-cache /
+// no-store and Expires; stale entries with an ETag are revalidated through the
+// relay with If-None-Match, and kept only when the server signals not-modified.
+final class ResponseCache {
+
+  static final class Entry {
+    final String url;
+    final Map<String, Object> response;
+    final byte[] data;
+    @Nullable
+    final String etag;
+    final long expiresAt;
+
+    Entry(String url, Map<String, Object> response, byte[] data, @Nullable String etag, long expiresAt) {
+      this.url = url;
+      this.response = response;
+      this.data = data;
+      this.etag = etag;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isFresh() {
+      return System.currentTimeMillis() < expiresAt;
+    }
+
+    Map<String, Object> toResult() {
+      Map<String, Object> result = new HashMap<>(response);
+      result.put("cached", true);
+      return result;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long maxBytes;
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long revalidated;
+  private long evictions;
+
+  ResponseCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  // Only GETs are cached, and a request can opt out with cache: false.
+  // Requests for other routes, headers or response modes get entries of their own.
+  @Nullable
+  static String keyFor(Map<String, Object> args) {
+    if (!"GET".equals(args.get("method")) || Boolean.FALSE.equals(args.get("cache"))
+            || !(args.get("url") instanceof String)) {
+      return null;
+    }
+    return RequestCoalescer.requestKey(args);
+  }
+
+  synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    trim();
+  }
+
+  synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Nullable
+  synchronized Entry get(String key) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.isFresh()) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return entry;
+  }
+
+  synchronized void invalidate(@Nullable String url) {
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (url == null || entry.url.equals(url)) {
+        bytes -= entry.data.length;
+        it.remove();
+      }
+    }
+  }
+
+  synchronized Map<String, Object> stats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("revalidated", revalidated);
+    stats.put("evictions", evictions);
+    stats.put("entries", entries.size());
+    stats.put("bytes", bytes);
+    stats.put("maxBytes", maxBytes);
+    return stats;
+  }
+
+  // Wraps the relayDataTask result so a successful response is stored, and a
+  // not-modified reply to a conditional request is answered from the stale entry.
+  MethodChannel.Result storing(String key, String url, @Nullable Entry stale, MethodChannel.Result result) {
+    return new MethodChannel.Result() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public void success(@Nullable Object value) {
+        if (value instanceof Map && Boolean.TRUE.equals(((Map<String, Object>) value).get("success"))) {
+          Map<String, Object> response = (Map<String, Object>) value;
+          if (isNotModified(response.get("headers"))) {
+            if (stale != null && isCurrent(stale, response)) {
+              result.success(refresh(key, stale, response).toResult());
+              return;
+            }
+          } else if (response.get("data") instanceof byte[]) {
+            put(key, url, response, (byte[]) response.get("data"));
+          }
+        }
+        result.success(value);
+      }
+
+      @Override
+      public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+        result.error(errorCode, errorMessage, errorDetails);
+      }
+
+      @Override
+      public void notImplemented() {
+        result.notImplemented();
+      }
+    };
+  }
+
+  // The relay hands no bodiless reply over, so it cannot pass a 304 on. A
+  // server behind it answers a matching If-None-Match with a 2xx carrying a
+  // CGI-style "Status: 304" header instead; any other reply, even an empty
+  // one, is a real response.
+  static boolean isNotModified(@Nullable Object headers) {
+    String status = header(headers, "Status");
+    return status != null && status.trim().startsWith("304");
+  }
+
+  // Unless the server sent a different validator, the stale entry is still current.
+  private static boolean isCurrent(Entry stale, Map<String, Object> response) {
+    String etag = header(response.get("headers"), "ETag");
+    return etag == null || etag.equals(stale.etag);
+  }
+
+  private synchronized Entry refresh(String key, Entry stale, Map<String, Object> response) {
+    revalidated++;
+    long expiresAt = expiresAt(response.get("headers"));
+    Entry entry = new Entry(stale.url, stale.response, stale.data, stale.etag, expiresAt < 0 ? 0 : expiresAt);
+    if (entries.containsKey(key)) {
+      entries.put(key, entry);
+    }
+    return entry;
+  }
+
+  private synchronized void put(String key, String url, Map<String, Object> response, byte[] data) {
+    long expiresAt = expiresAt(response.get("headers"));
+    String etag = header(response.get("headers"), "ETag");
+    if (expiresAt < 0 || (expiresAt <= System.currentTimeMillis() && etag == null) || data.length > maxBytes) {
+      return;
+    }
+    Entry previous = entries.put(key, new Entry(url, new HashMap<>(response), data, etag, expiresAt));
+    if (previous != null) {
+      bytes -= previous.data.length;
+    }
+    bytes += data.length;
+    trim();
+  }
+
+  private void trim() {
+    Iterator<Entry> it = entries.values().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().data.length;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  // Wall-clock expiry from the response headers: -1 for no-store, 0 when the
+  // response must be revalidated before every use.
+  private static long expiresAt(@Nullable Object headers) {
+    String cacheControl = header(headers, "Cache-Control");
+    if (cacheControl != null) {
+      long maxAgeSeconds = -1;
+      boolean noCache = false;
+      for (String directive : cacheControl.split(",")) {
+        directive = directive.trim().toLowerCase();
+        if (directive.equals("no-store")) {
+          return -1;
+        } else if (directive.equals("no-cache")) {
+          noCache = true;
+        } else if (directive.startsWith("max-age=")) {
+          try {
+            maxAgeSeconds = Long.parseLong(directive.substring(8));
+          } catch (NumberFormatException e) {
+            noCache = true;
+          }
+        }
+      }
+      if (noCache) {
+        return 0;
+      }
+      if (maxAgeSeconds >= 0) {
+        return System.currentTimeMillis() + maxAgeSeconds * 1000L;
+      }
+    }
+    String expires = header(headers, "Expires");
+    if (expires != null) {
+      long epoch = HttpHeaderParser.parseDateAsEpoch(expires);
+      return epoch > 0 ? epoch : 0;
+    }
+    return 0;
+  }
+
+  // Response headers come back as either String or List<String> values
+  @Nullable
+  @SuppressWarnings("unchecked")
+  static String header(@Nullable Object headers, String name) {
+    if (!(headers instanceof Map)) {
+      return null;
+    }
+    for (Map.Entry<String, Object> header : ((Map<String, Object>) headers).entrySet()) {
+      if (header.getKey() == null || !header.getKey().equalsIgnoreCase(name)) {
+        continue;
+      }
+      Object value = header.getValue();
+      if (value instanceof List) {
+        List<String> values = new ArrayList<>((List<String>) value);
+        return values.isEmpty() ? null : String.join(", ", values);
+      }
+      return value != null ? value.toString() : null;
+    }
+    return null;
+  }
+}
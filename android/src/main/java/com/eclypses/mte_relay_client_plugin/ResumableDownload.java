@@ -0,0 +1,213 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.Request;
+import com.mte.relay.RelayFileRequestProperties;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Downloads to downloadLocation in segments of segmentBytes, each asked for
+// with a Range header (and If-Range once the server gave an ETag). The relay
+// writes every segment to downloadLocation.part; only bytes known to sit at
+// the checkpointed offset are appended to the target and counted:
+//   206 with a Content-Range starting at the offset   all of them, or up to
+//                                                     the last whole stream
+//                                                     chunk when it failed
+//   200 without a Content-Range                       the whole file, which
+//                                                     replaces the target
+//   failed without a Content-Range                    from offset 0 up to the
+//                                                     last whole chunk; none
+//                                                     past it, as the server
+//                                                     may have ignored Range
+// The checkpoint sits next to the target as downloadLocation.checkpoint.
+final class ResumableDownload extends ResumableTransfer {
+  static final int DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+  private final String host;
+  private final String route;
+  private final String pathnamePrefix;
+  private final Map<String, String> headers;
+  private final String[] headersToEncrypt;
+  private final File target;
+  private final File part;
+
+  ResumableDownload(String transferID,
+                    String tag,
+                    Request.Priority priority,
+                    RelayBackend relay,
+                    RequestScheduler scheduler,
+                    ScheduledExecutorService timer,
+                    RelayRetryPolicy backoff,
+                    int maxAttempts,
+                    String host,
+                    String route,
+                    String pathnamePrefix,
+                    Map<String, String> headers,
+                    String[] headersToEncrypt,
+                    File target,
+                    int segmentBytes,
+                    Listener listener) {
+    super(transferID, tag, priority, relay, scheduler, timer, backoff, maxAttempts,
+            TransferCheckpoint.load(checkpointFile(target), transferID, host + route), listener);
+    this.host = host;
+    this.route = route;
+    this.pathnamePrefix = pathnamePrefix;
+    this.headers = headers;
+    this.headersToEncrypt = headersToEncrypt;
+    this.target = target;
+    this.part = new File(target.getPath() + ".part");
+    checkpoint.chunkSize = segmentBytes;
+    // Bytes the target lost since the checkpoint was saved are fetched again
+    checkpoint.offset = Math.min(checkpoint.offset, target.length());
+  }
+
+  static File checkpointFile(File target) {
+    return new File(target.getPath() + ".checkpoint");
+  }
+
+  @Override
+  void begin(RequestScheduler.Ticket ticket, boolean retry) throws IOException {
+    long offset = checkpoint.offset;
+    if (checkpoint.totalBytes >= 0 && offset >= checkpoint.totalBytes) {
+      attemptFinished(ticket, true, "", null, null);
+      return;
+    }
+    if (part.exists() && !part.delete()) {
+      throw new IOException("Unable to delete " + part);
+    }
+    checkpoint.save();
+
+    Map<String, String> rangeHeaders = new HashMap<>(headers);
+    rangeHeaders.put("Range", "bytes=" + offset + "-"
+            + (checkpoint.chunkSize > 0 ? String.valueOf(offset + checkpoint.chunkSize - 1) : ""));
+    // A weak validator cannot be used with If-Range
+    if (checkpoint.etag != null && !checkpoint.etag.startsWith("W/")) {
+      rangeHeaders.put("If-Range", checkpoint.etag);
+    }
+    RelayFileRequestProperties properties = new RelayFileRequestProperties(
+            host,
+            route,
+            part.getAbsolutePath(),
+            rangeHeaders,
+            headersToEncrypt);
+    relay.downloadFile(properties, pathnamePrefix, (success, responseStr, errorMessage, responseHeaders) -> {
+      boolean complete;
+      try {
+        complete = commit(offset, success, responseHeaders);
+      } catch (IOException | RuntimeException e) {
+        attemptFinished(ticket, false, "", e.getMessage(), responseHeaders);
+        return;
+      }
+      attemptFinished(ticket, success, complete, responseStr, errorMessage, responseHeaders);
+    });
+  }
+
+  // Moves what can be trusted of the part file into the target and saves the
+  // new offset. Returns whether the whole file is there.
+  private boolean commit(long offset, boolean success, Map<String, List<String>> responseHeaders) throws IOException {
+    long received = part.length();
+    String etag = ResponseCache.header(responseHeaders, "ETag");
+    String contentRange = ResponseCache.header(responseHeaders, "Content-Range");
+    Matcher range = contentRange != null ? CONTENT_RANGE.matcher(contentRange) : null;
+    boolean ranged = range != null && range.matches() && Long.parseLong(range.group(1)) == offset;
+
+    if (success && contentRange != null && !ranged) {
+      throw new IOException("Unexpected Content-Range " + contentRange + " for offset " + offset);
+    }
+    if (success && !ranged) {
+      // The server sent the whole file
+      if ((target.exists() && !target.delete()) || !part.renameTo(target)) {
+        throw new IOException("Unable to move " + part + " to " + target);
+      }
+      checkpoint.offset = received;
+      checkpoint.totalBytes = received;
+      return true;
+    }
+
+    long keep;
+    if (ranged && success) {
+      keep = received;
+    } else if (ranged || offset == 0) {
+      int chunk = Math.max(1, relay.getStreamChunkSizeSetting());
+      keep = received / chunk * chunk;
+    } else {
+      keep = 0;
+    }
+    append(offset, keep);
+    checkpoint.offset = offset + keep;
+    if (ranged && !"*".equals(range.group(3))) {
+      checkpoint.totalBytes = Long.parseLong(range.group(3));
+    }
+    if (etag != null) {
+      checkpoint.etag = etag;
+    }
+    checkpoint.save();
+    //noinspection ResultOfMethodCallIgnored
+    part.delete();
+    if (!success) {
+      return false;
+    }
+    // A short or empty segment means the end of a file of unknown length
+    return checkpoint.totalBytes >= 0
+            ? checkpoint.offset >= checkpoint.totalBytes
+            : checkpoint.chunkSize <= 0 || keep < checkpoint.chunkSize;
+  }
+
+  // Cuts the target back to offset, appends the first length bytes of the
+  // part file and flushes them to disk before the checkpoint counts them.
+  private void append(long offset, long length) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(target, "rw");
+         FileChannel out = file.getChannel()) {
+      out.truncate(offset);
+      if (length > 0) {
+        try (FileChannel in = new FileInputStream(part).getChannel()) {
+          long copied = 0;
+          while (copied < length) {
+            copied += in.transferTo(copied, length - copied, out.position(offset + copied));
+          }
+        }
+      }
+      out.force(false);
+    }
+  }
+
+  @Override
+  void abort() {
+    // The relay finishes writing the part file; begin deletes it next time
+  }
+}
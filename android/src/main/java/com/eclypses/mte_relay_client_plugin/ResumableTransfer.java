@@ -0,0 +1,224 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.Request;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A file transfer that survives network drops and process restarts. Each
+// attempt goes through the scheduler like any transfer and starts from the
+// checkpointed offset; a failed attempt is retried after a backoff, and the
+// attempt count starts over whenever an attempt moves the offset forward. A
+// transfer that gives up or is cancelled keeps its checkpoint, so starting it
+// again with the same arguments picks up where it stopped.
+abstract class ResumableTransfer {
+
+  interface Listener {
+    // resumeOffset is where a new start would continue from
+    void finished(boolean success,
+                  String responseStr,
+                  String errorMessage,
+                  Map<String, List<String>> responseHeaders,
+                  long resumeOffset);
+
+    void cancelled();
+  }
+
+  static final int DEFAULT_ATTEMPTS = 3;
+
+  final String transferID;
+  final RelayBackend relay;
+  final TransferCheckpoint checkpoint;
+  private final String tag;
+  private final Request.Priority priority;
+  private final RequestScheduler scheduler;
+  private final ScheduledExecutorService timer;
+  private final RelayRetryPolicy backoff;
+  private final int maxAttempts;
+  private final Listener listener;
+
+  private int attempts;
+  private long attemptStartOffset;
+  private ScheduledFuture<?> pendingRetry;
+  private boolean done;
+
+  ResumableTransfer(String transferID,
+                    String tag,
+                    Request.Priority priority,
+                    RelayBackend relay,
+                    RequestScheduler scheduler,
+                    ScheduledExecutorService timer,
+                    RelayRetryPolicy backoff,
+                    int maxAttempts,
+                    TransferCheckpoint checkpoint,
+                    Listener listener) {
+    this.transferID = transferID;
+    this.tag = tag;
+    this.priority = priority;
+    this.relay = relay;
+    this.scheduler = scheduler;
+    this.timer = timer;
+    this.backoff = backoff;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.checkpoint = checkpoint;
+    this.listener = listener;
+  }
+
+  void start() {
+    scheduler.submit(transferID, tag, priority, new RequestScheduler.Task() {
+      @Override
+      public void start(RequestScheduler.Ticket ticket) {
+        synchronized (ResumableTransfer.this) {
+          attempts++;
+          attemptStartOffset = checkpoint.offset;
+        }
+        try {
+          begin(ticket, attempts > 1);
+        } catch (IOException e) {
+          attemptFinished(ticket, false, "", e.getMessage(), null);
+        }
+      }
+
+      @Override
+      public void cancelled(boolean started) {
+        if (started) {
+          abort();
+        }
+        if (settle()) {
+          listener.cancelled();
+        }
+      }
+
+      @Override
+      public void failed(Exception e) {
+        if (settle()) {
+          listener.finished(false, "", e.getMessage(), null, checkpoint.offset);
+        }
+      }
+    });
+  }
+
+  // Cancels the transfer while it waits to retry, when the scheduler holds
+  // no attempt of it. Returns whether it was waiting.
+  boolean cancelWaiting() {
+    synchronized (this) {
+      if (pendingRetry == null || done || !pendingRetry.cancel(false)) {
+        return false;
+      }
+      pendingRetry = null;
+      done = true;
+    }
+    listener.cancelled();
+    return true;
+  }
+
+  boolean matches(String id, String tag) {
+    return (id != null && id.equals(transferID)) || (tag != null && tag.equals(this.tag));
+  }
+
+  // Starts one attempt from checkpoint.offset. retry is true for every
+  // attempt after the first. The subclass reports its outcome through
+  // attemptFinished.
+  abstract void begin(RequestScheduler.Ticket ticket, boolean retry) throws IOException;
+
+  // Fails the body of the running attempt, as the relay cannot abort it
+  abstract void abort();
+
+  // Settles an attempt. complete is false when the attempt succeeded but the
+  // transfer is not done yet, as after one segment of a download.
+  final void attemptFinished(RequestScheduler.Ticket ticket,
+                             boolean success,
+                             String responseStr,
+                             String errorMessage,
+                             Map<String, List<String>> responseHeaders) {
+    attemptFinished(ticket, success, true, responseStr, errorMessage, responseHeaders);
+  }
+
+  final void attemptFinished(RequestScheduler.Ticket ticket,
+                             boolean success,
+                             boolean complete,
+                             String responseStr,
+                             String errorMessage,
+                             Map<String, List<String>> responseHeaders) {
+    ticket.finished();
+    if (ticket.isCancelled()) {
+      return;
+    }
+    if (success && complete) {
+      checkpoint.delete();
+      if (settle()) {
+        listener.finished(true, responseStr, errorMessage, responseHeaders, checkpoint.offset);
+      }
+      return;
+    }
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      if (success || checkpoint.offset > attemptStartOffset) {
+        attempts = 0;
+      }
+      if (!success && attempts < maxAttempts) {
+        pendingRetry = timer.schedule(() -> {
+          synchronized (this) {
+            if (done) {
+              return;
+            }
+            pendingRetry = null;
+          }
+          start();
+        }, backoff.backoffMillis(attempts), TimeUnit.MILLISECONDS);
+        return;
+      }
+      if (!success) {
+        done = true;
+      }
+    }
+    if (success) {
+      start();
+    } else {
+      listener.finished(false, responseStr, errorMessage, responseHeaders, checkpoint.offset);
+    }
+  }
+
+  private synchronized boolean settle() {
+    if (done) {
+      return false;
+    }
+    done = true;
+    if (pendingRetry != null) {
+      pendingRetry.cancel(false);
+      pendingRetry = null;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,253 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import android.content.Context;
+
+import com.android.volley.Request;
+import com.mte.relay.RelayDataTaskListener;
+import com.mte.relay.RelayFileRequestProperties;
+import com.mte.relay.RelayStreamCompletionCallback;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+// Uploads a file so a dropped upload continues from the bytes the server
+// already has. Every upload request carries Upload-ID (the transferID),
+// Upload-Offset (where its body starts in the whole body) and Upload-Length,
+// and the server appends the body at that offset. Before a retry, or when a
+// checkpoint shows an earlier run got this far, a HEAD with the Upload-ID
+// asks the server for its Upload-Offset, so the server decides where the
+// upload resumes. An upload of known length is complete only when the
+// server's reply confirms an Upload-Offset of the whole body. The checkpoint,
+// checkpointDir/<transferID>.checkpoint, records the last offset the server
+// confirmed.
+final class ResumableUpload extends ResumableTransfer {
+  static final String UPLOAD_ID = "Upload-ID";
+  static final String UPLOAD_OFFSET = "Upload-Offset";
+  static final String UPLOAD_LENGTH = "Upload-Length";
+
+  private final Context context;
+  private final Executor executor;
+  private final String host;
+  private final String route;
+  private final String pathnamePrefix;
+  private final Map<String, String> headers;
+  private final String[] headersToEncrypt;
+  private final String filePath;
+  private final byte[] bodyPrefix;
+  private final byte[] bodySuffix;
+  private final TransferProgress progress;
+  private final RelayStreamCompletionCallback progressCallback;
+  private final boolean resumed;
+  private volatile FileUploadStreamer streamer;
+
+  ResumableUpload(String transferID,
+                  String tag,
+                  Request.Priority priority,
+                  RelayBackend relay,
+                  RequestScheduler scheduler,
+                  ScheduledExecutorService timer,
+                  RelayRetryPolicy backoff,
+                  int maxAttempts,
+                  Context context,
+                  Executor executor,
+                  String host,
+                  String route,
+                  String pathnamePrefix,
+                  Map<String, String> headers,
+                  String[] headersToEncrypt,
+                  String filePath,
+                  byte[] bodyPrefix,
+                  byte[] bodySuffix,
+                  long totalBytes,
+                  File checkpointDir,
+                  TransferProgress progress,
+                  RelayStreamCompletionCallback progressCallback,
+                  Listener listener) {
+    super(transferID, tag, priority, relay, scheduler, timer, backoff, maxAttempts,
+            TransferCheckpoint.load(new File(checkpointDir, transferID + ".checkpoint"), transferID, host + route),
+            listener);
+    this.context = context;
+    this.executor = executor;
+    this.host = host;
+    this.route = route;
+    this.pathnamePrefix = pathnamePrefix;
+    this.headers = headers;
+    this.headersToEncrypt = headersToEncrypt;
+    this.filePath = filePath;
+    this.bodyPrefix = bodyPrefix;
+    this.bodySuffix = bodySuffix;
+    this.progress = progress;
+    this.progressCallback = progressCallback;
+    this.resumed = checkpoint.exists();
+    checkpoint.totalBytes = totalBytes;
+    checkpoint.chunkSize = relay.getStreamChunkSizeSetting();
+  }
+
+  @Override
+  void begin(RequestScheduler.Ticket ticket, boolean retry) throws IOException {
+    if (!retry && !resumed) {
+      send(ticket, 0);
+      return;
+    }
+    Request<byte[]> probe = new RawBytesRequest(
+            Request.Method.HEAD,
+            host + route,
+            null,
+            null,
+            withUploadHeaders(headers),
+            ticket.priority,
+            response -> { },
+            error -> { });
+    relay.addToMteRequestQueue(probe, headersToEncrypt, pathnamePrefix, new RelayDataTaskListener() {
+      @Override
+      public void onError(String message, Map<String, List<String>> responseHeaders) {
+        // An error status means the server has nothing of this upload; no
+        // headers at all means it could not be asked
+        if (responseHeaders == null) {
+          attemptFinished(ticket, false, "", message, null);
+        } else {
+          probed(ticket, responseHeaders);
+        }
+      }
+
+      @Override
+      public void onResponse(byte[] response, Map<String, List<String>> responseHeaders) {
+        probed(ticket, responseHeaders);
+      }
+
+      @Override
+      public void onResponse(JSONObject response, Map<String, List<String>> responseHeaders) {
+        probed(ticket, responseHeaders);
+      }
+    });
+  }
+
+  private void probed(RequestScheduler.Ticket ticket, Map<String, List<String>> responseHeaders) {
+    if (ticket.isCancelled()) {
+      ticket.finished();
+      return;
+    }
+    long offset = confirmedOffset(responseHeaders);
+    if (offset < 0 || (checkpoint.totalBytes >= 0 && offset > checkpoint.totalBytes)) {
+      offset = 0;
+    }
+    try {
+      send(ticket, offset);
+    } catch (IOException e) {
+      attemptFinished(ticket, false, "", e.getMessage(), responseHeaders);
+    }
+  }
+
+  private void send(RequestScheduler.Ticket ticket, long offset) throws IOException {
+    checkpoint.offset = offset;
+    checkpoint.save();
+    progress.resumeAt(offset);
+
+    Map<String, String> uploadHeaders = withUploadHeaders(headers);
+    uploadHeaders.put(UPLOAD_OFFSET, String.valueOf(offset));
+    if (checkpoint.totalBytes >= 0) {
+      uploadHeaders.put(UPLOAD_LENGTH, String.valueOf(checkpoint.totalBytes));
+    }
+    RelayFileRequestProperties properties = new RelayFileRequestProperties(
+            host,
+            uploadHeaders,
+            headersToEncrypt,
+            outputStream -> {
+              // The relay reports the failure, so the streamer's own is not needed
+              FileUploadStreamer body = new FileUploadStreamer(
+                      context,
+                      filePath,
+                      bodyPrefix,
+                      bodySuffix,
+                      outputStream,
+                      relay.getStreamChunkSizeSetting(),
+                      message -> { },
+                      offset);
+              streamer = body;
+              if (ticket.isCancelled()) {
+                body.cancel();
+              }
+              executor.execute(body);
+            });
+    relay.uploadFile(
+            properties,
+            route,
+            pathnamePrefix,
+            (success, responseStr, errorMessage, responseHeaders) -> {
+              // A success status alone may follow a short body, so the upload
+              // is done only once the server confirms it holds all of it
+              if (success && checkpoint.totalBytes >= 0) {
+                long confirmed = confirmedOffset(responseHeaders);
+                if (confirmed != checkpoint.totalBytes) {
+                  attemptFinished(ticket, false, responseStr,
+                          "Server confirmed " + Math.max(0, confirmed) + " of "
+                                  + checkpoint.totalBytes + " upload bytes",
+                          responseHeaders);
+                  return;
+                }
+                checkpoint.offset = confirmed;
+              }
+              attemptFinished(ticket, success, responseStr, errorMessage, responseHeaders);
+            },
+            progressCallback);
+  }
+
+  // The Upload-Offset the server reported, -1 when there is none
+  private static long confirmedOffset(Map<String, List<String>> responseHeaders) {
+    String confirmed = ResponseCache.header(responseHeaders, UPLOAD_OFFSET);
+    if (confirmed == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(confirmed.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private Map<String, String> withUploadHeaders(Map<String, String> headers) {
+    Map<String, String> uploadHeaders = new HashMap<>(headers);
+    uploadHeaders.put(UPLOAD_ID, transferID);
+    return uploadHeaders;
+  }
+
+  @Override
+  void abort() {
+    FileUploadStreamer body = streamer;
+    if (body != null) {
+      body.cancel();
+    }
+  }
+}
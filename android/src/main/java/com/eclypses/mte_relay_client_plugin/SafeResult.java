@@ -0,0 +1,64 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Wraps a MethodChannel.Result so it can be completed from any plugin or relay
+// thread. Only the first reply is forwarded; later ones are dropped instead of
+// crashing the engine with "Reply already submitted".
+final class SafeResult implements MethodChannel.Result {
+  private final MethodChannel.Result result;
+  private final AtomicBoolean replied = new AtomicBoolean(false);
+
+  SafeResult(MethodChannel.Result result) {
+    this.result = result;
+  }
+
+  @Override
+  public void success(@Nullable Object value) {
+    if (replied.compareAndSet(false, true)) {
+      result.success(value);
+    }
+  }
+
+  @Override
+  public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+    if (replied.compareAndSet(false, true)) {
+      result.error(errorCode, errorMessage, errorDetails);
+    }
+  }
+
+  @Override
+  public void notImplemented() {
+    if (replied.compareAndSet(false, true)) {
+      result.notImplemented();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import java.util.Map;
+
+// Hands the relay the url, method, headers and body of another request and
+// reports when the relay reads the body. The relay reads it only after the
+// host is paired and a pair is free, right before encrypting and sending, so
+// that moment separates queue wait from the round trip. The relay builds its
+// own Volley request from these values; this one is never queued itself.
+final class TracedRequest extends Request<Object> {
+
+  interface BodyListener {
+    void onBodyRead(int length);
+  }
+
+  private final Request<?> request;
+  private final BodyListener bodyListener;
+
+  // url is the request's own, or another endpoint's when it is routed
+  TracedRequest(Request<?> request, String url, BodyListener bodyListener) {
+    super(request.getMethod(), url, null);
+    this.request = request;
+    this.bodyListener = bodyListener;
+  }
+
+  @Override
+  public Map<String, String> getHeaders() throws AuthFailureError {
+    return request.getHeaders();
+  }
+
+  @Override
+  public byte[] getBody() throws AuthFailureError {
+    byte[] body = request.getBody();
+    bodyListener.onBodyRead(body != null ? body.length : 0);
+    return body;
+  }
+
+  @Override
+  public Priority getPriority() {
+    return request.getPriority();
+  }
+
+  @Override
+  public String getBodyContentType() {
+    return request.getBodyContentType();
+  }
+
+  @Override
+  protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+    return Response.error(new ParseError());
+  }
+
+  @Override
+  protected void deliverResponse(Object response) {
+  }
+}
@@ -0,0 +1,119 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Progress of a resumable transfer, kept in a small JSON file so a transfer
+// can continue after a network drop or a process restart. offset counts the
+// bytes known to be safe: written to the download file, or acknowledged by
+// the upload server. It is rewritten through a temp file and rename, so a
+// crash mid-save leaves the previous checkpoint intact.
+final class TransferCheckpoint {
+  private final File file;
+  final String transferID;
+  final String url;
+  long offset;
+  long totalBytes = -1;
+  @Nullable
+  String etag;
+  int chunkSize;
+
+  TransferCheckpoint(File file, String transferID, String url) {
+    this.file = file;
+    this.transferID = transferID;
+    this.url = url;
+  }
+
+  // The checkpoint saved for url, or a fresh one when there is none or it
+  // belongs to another transfer.
+  static TransferCheckpoint load(File file, String transferID, String url) {
+    TransferCheckpoint checkpoint = new TransferCheckpoint(file, transferID, url);
+    if (!file.isFile()) {
+      return checkpoint;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      byte[] data = new byte[(int) file.length()];
+      in.readFully(data);
+      JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+      if (!url.equals(json.optString("url"))) {
+        return checkpoint;
+      }
+      checkpoint = new TransferCheckpoint(file, json.optString("transferID", transferID), url);
+      checkpoint.offset = Math.max(0, json.optLong("offset", 0));
+      checkpoint.totalBytes = json.optLong("totalBytes", -1);
+      checkpoint.etag = json.has("etag") ? json.optString("etag") : null;
+      checkpoint.chunkSize = json.optInt("chunkSize", 0);
+    } catch (IOException | JSONException e) {
+      // Unreadable, so start over
+    }
+    return checkpoint;
+  }
+
+  boolean exists() {
+    return file.isFile();
+  }
+
+  void save() throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    File temp = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(temp)) {
+      JSONObject json = new JSONObject();
+      json.put("transferID", transferID);
+      json.put("url", url);
+      json.put("offset", offset);
+      json.put("totalBytes", totalBytes);
+      if (etag != null) {
+        json.put("etag", etag);
+      }
+      json.put("chunkSize", chunkSize);
+      out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+    if (!temp.renameTo(file)) {
+      throw new IOException("Unable to write checkpoint " + file);
+    }
+  }
+
+  void delete() {
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+}
@@ -0,0 +1,134 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Coalesces the relay's per-chunk progress reports for one transfer. An update
+// is only passed on once minInterval has elapsed and the fraction moved by at
+// least minDelta; the final update always is. While a delivery is scheduled
+// further updates just replace the snapshot, so Dart only sees the latest.
+final class TransferProgress {
+
+  private static final double RATE_SMOOTHING = 0.3;
+  private static final long WRAP_HIGH = 0xC0000000L;
+  private static final long WRAP_LOW = 0x40000000L;
+
+  private final String transferID;
+  private final long minIntervalNanos;
+  private final double minDelta;
+  private final long knownTotalBytes;
+
+  private long baseBytes;
+  private long lastRaw;
+  private long wraps;
+  private boolean emitted;
+  private long lastEmitNanos;
+  private long lastEmitBytes;
+  private double lastEmitFraction;
+  private double bytesPerSecond;
+  private Map<String, Object> latest;
+  private boolean scheduled;
+
+  TransferProgress(String transferID, long minIntervalMs, double minDelta, long knownTotalBytes) {
+    this.transferID = transferID;
+    this.minIntervalNanos = minIntervalMs * 1_000_000L;
+    this.minDelta = minDelta;
+    this.knownTotalBytes = knownTotalBytes;
+  }
+
+  // Returns true when the caller should schedule a delivery of takeLatest().
+  synchronized boolean update(int bytesCompleted, int totalBytes) {
+    long now = System.nanoTime();
+    long completed = baseBytes + widen(bytesCompleted);
+    long total = knownTotalBytes > 0 ? knownTotalBytes : Integer.toUnsignedLong(totalBytes);
+    double fraction = total > 0 ? Math.min(1.0, (double) completed / total) : 0;
+    boolean isFinal = total > 0 && completed >= total;
+
+    if (emitted) {
+      if (isFinal && lastEmitFraction >= 1.0) {
+        return false;
+      }
+      if (!isFinal && (now - lastEmitNanos < minIntervalNanos || fraction - lastEmitFraction < minDelta)) {
+        return false;
+      }
+      long elapsed = now - lastEmitNanos;
+      if (elapsed > 0) {
+        double rate = (completed - lastEmitBytes) * 1e9 / elapsed;
+        bytesPerSecond = bytesPerSecond == 0 ? rate : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * bytesPerSecond;
+      }
+    }
+    emitted = true;
+    lastEmitNanos = now;
+    lastEmitBytes = completed;
+    lastEmitFraction = fraction;
+
+    Map<String, Object> snapshot = new HashMap<>();
+    snapshot.put("transferID", transferID);
+    snapshot.put("progress", fraction);
+    snapshot.put("bytesCompleted", completed);
+    snapshot.put("totalBytes", total);
+    snapshot.put("bytesPerSecond", (long) bytesPerSecond);
+    snapshot.put("etaMs", bytesPerSecond > 0 ? (long) ((total - completed) * 1000 / bytesPerSecond) : null);
+    latest = snapshot;
+
+    if (scheduled) {
+      return false;
+    }
+    scheduled = true;
+    return true;
+  }
+
+  // A resumed transfer starts reporting from 0 again for the bytes after offset
+  synchronized void resumeAt(long offset) {
+    baseBytes = offset;
+    lastRaw = 0;
+    wraps = 0;
+  }
+
+  synchronized Map<String, Object> takeLatest() {
+    scheduled = false;
+    Map<String, Object> snapshot = latest;
+    latest = null;
+    return snapshot;
+  }
+
+  // The relay reports progress as int. Treat it as unsigned and count wraps so
+  // transfers past 2 GB (and 4 GB) keep counting up. A drop that is not a wrap
+  // means the relay restarted the transfer.
+  private long widen(int bytesCompleted) {
+    long raw = Integer.toUnsignedLong(bytesCompleted);
+    if (raw < lastRaw) {
+      if (lastRaw >= WRAP_HIGH && raw < WRAP_LOW) {
+        wraps++;
+      } else {
+        wraps = 0;
+      }
+    }
+    lastRaw = raw;
+    return (wraps << 32) + raw;
+  }
+}
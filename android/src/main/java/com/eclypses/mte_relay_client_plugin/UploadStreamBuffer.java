@@ -0,0 +1,191 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded ring of reusable chunk slots sitting between writeToStream calls and
+// the PipedOutputStream handed out by the relay. Dart may only send a chunk
+// for each credit it was granted, so offer() never blocks the channel thread.
+// run() drains the ring into the pipe and hands credits back as slots free up.
+final class UploadStreamBuffer implements Runnable {
+
+  interface Listener {
+    void onCredit(String streamID, int credits);
+
+    void onError(String streamID, String message);
+  }
+
+  private final String streamID;
+  private final OutputStream outputStream;
+  private final Listener listener;
+  private final byte[][] slots;
+  private final int[] lengths;
+  private final int creditBatch;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private int head;
+  private int tail;
+  private int count;
+  private int pendingCredits;
+  private boolean finished;
+  private boolean cancelled;
+
+  UploadStreamBuffer(String streamID, OutputStream outputStream, int windowChunks, Listener listener) {
+    if (windowChunks < 1) {
+      throw new IllegalArgumentException("windowChunks must be at least 1");
+    }
+    this.streamID = streamID;
+    this.outputStream = outputStream;
+    this.listener = listener;
+    this.slots = new byte[windowChunks][];
+    this.lengths = new int[windowChunks];
+    this.creditBatch = Math.max(1, windowChunks / 4);
+  }
+
+  String getStreamID() {
+    return streamID;
+  }
+
+  int getWindow() {
+    return slots.length;
+  }
+
+  // Copies data into the next free slot. Returns false when Dart sent more
+  // chunks than it had credits for, or the stream is already closed.
+  boolean offer(byte[] data) {
+    lock.lock();
+    try {
+      if (finished || cancelled || count == slots.length) {
+        return false;
+      }
+      byte[] slot = slots[tail];
+      if (slot == null || slot.length < data.length) {
+        slot = new byte[data.length];
+        slots[tail] = slot;
+      }
+      System.arraycopy(data, 0, slot, 0, data.length);
+      lengths[tail] = data.length;
+      tail = (tail + 1) % slots.length;
+      count++;
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // No more chunks will be offered; the pipe is closed once the ring drains.
+  void finish() {
+    lock.lock();
+    try {
+      finished = true;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void cancel() {
+    lock.lock();
+    try {
+      cancelled = true;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // The pipe is closed once Dart closed the stream and every chunk is
+  // written. A cancelled or failed stream is aborted instead, so the relay
+  // fails the upload rather than sending a truncated body.
+  @Override
+  public void run() {
+    boolean complete = false;
+    try {
+      while (true) {
+        int index;
+        lock.lock();
+        try {
+          while (count == 0 && !finished && !cancelled) {
+            notEmpty.await();
+          }
+          if (cancelled) {
+            break;
+          }
+          if (count == 0) {
+            complete = true;
+            break;
+          }
+          index = head;
+        } finally {
+          lock.unlock();
+        }
+
+        // The head slot stays owned by this thread until it is released below,
+        // so the pipe write happens without holding the lock.
+        outputStream.write(slots[index], 0, lengths[index]);
+
+        int credits = 0;
+        lock.lock();
+        try {
+          head = (head + 1) % slots.length;
+          count--;
+          pendingCredits++;
+          // Once Dart has closed the stream it has no use for more credits.
+          if (!finished && (pendingCredits >= creditBatch || count == 0)) {
+            credits = pendingCredits;
+            pendingCredits = 0;
+          }
+        } finally {
+          lock.unlock();
+        }
+        if (credits > 0) {
+          listener.onCredit(streamID, credits);
+        }
+      }
+    } catch (IOException e) {
+      cancel();
+      listener.onError(streamID, e.getMessage());
+    } catch (InterruptedException e) {
+      cancel();
+      Thread.currentThread().interrupt();
+    } finally {
+      if (complete) {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          listener.onError(streamID, "closeStream Exception: " + e.getMessage());
+        }
+      } else {
+        BodyPipe.abort(outputStream);
+      }
+    }
+  }
+}
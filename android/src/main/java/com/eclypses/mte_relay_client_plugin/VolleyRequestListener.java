@@ -27,6 +27,7 @@ package com.eclypses.mte_relay_client_plugin;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 
@@ -34,7 +35,10 @@ public interface VolleyRequestListener {
 
     void onError(String message, Map<String, List<String>> responseHeaders);
     void onJsonResponse(JSONObject response, Map<String, List<String>> responseHeaders);
-    void onJsonArrayResponse(JSONArray response, Map<String, String> responseHeaders);
+    void onJsonArrayResponse(JSONArray response, Map<String, List<String>> responseHeaders);
     void onStringResponse(String response, Map<String, String> responseHeaders);
+    void onBytesResponse(byte[] response, String contentType, Map<String, List<String>> responseHeaders);
+    // The body was written to file rather than kept in memory
+    void onFileResponse(File file, String contentType, Map<String, List<String>> responseHeaders);
 }
 
@@ -0,0 +1,63 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package android.net;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+// Plain-JVM stand-in for the android.net.Uri calls made by Volley, which tags
+// every request with its host, and by the plugin for file:// paths
+public class Uri {
+  private final URI uri;
+
+  private Uri(URI uri) {
+    this.uri = uri;
+  }
+
+  public static Uri parse(String uriString) {
+    try {
+      return new Uri(new URI(uriString));
+    } catch (URISyntaxException e) {
+      return new Uri(URI.create(""));
+    }
+  }
+
+  public String getScheme() {
+    return uri.getScheme();
+  }
+
+  public String getHost() {
+    return uri.getHost();
+  }
+
+  public String getPath() {
+    return uri.getPath();
+  }
+
+  @Override
+  public String toString() {
+    return uri.toString();
+  }
+}
@@ -0,0 +1,63 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+// Runs the JMH benchmarks from the unit test task. Skipped unless asked for:
+//   ./gradlew testDebugUnitTest --tests '*BenchmarkRunnerTest' -DmteRelay.benchmarks=true
+// Optional: -DmteRelay.benchmarks.include=<regex> to pick benchmarks and
+// -DmteRelay.benchmarks.forks=<n> (0 runs in the test JVM). Results, including
+// the GC profiler's allocation rates (gc.alloc.rate.norm is bytes per call),
+// are written to build/reports/jmh/results.json.
+public class BenchmarkRunnerTest {
+
+  @Test
+  public void runBenchmarks() throws RunnerException {
+    Assume.assumeTrue("Benchmarks are disabled", Boolean.getBoolean("mteRelay.benchmarks"));
+
+    File report = new File("build/reports/jmh/results.json");
+    report.getParentFile().mkdirs();
+
+    Options options = new OptionsBuilder()
+            .include(System.getProperty("mteRelay.benchmarks.include",
+                    DataTaskMarshallingBenchmark.class.getSimpleName() + "|" + UploadStreamBenchmark.class.getSimpleName()))
+            .forks(Integer.getInteger("mteRelay.benchmarks.forks", 0))
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result(report.getPath())
+            .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,242 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.volley.Request;
+import com.mte.relay.RelayDataTaskListener;
+import com.mte.relay.RelayFileRequestProperties;
+import com.mte.relay.RelayStreamCompletionCallback;
+import com.mte.relay.RelayStreamResponseListener;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs transfers through ChunkTuningRelayBackend over a relay that, like the
+// real one, keeps one chunk size for everything and reads it again part way
+// through a transfer, and checks that no transfer sees the size change under
+// it while others start with a different tuning.
+public class ChunkTuningRelayBackendTest {
+  private static final int CONFIGURED = 16 * 1024;
+
+  // Answers each transfer later, as the relay's helpers do, noting the size
+  // at the start and when the helper reads it
+  private static final class SharedSettingRelay implements RelayBackend {
+    volatile int streamChunkSize = CONFIGURED;
+    final List<int[]> sizesSeen = Collections.synchronizedList(new ArrayList<>());
+    final List<Runnable> pending = Collections.synchronizedList(new ArrayList<>());
+    // Thrown by the next transfer before it starts, as the relay does on bad properties
+    volatile RuntimeException failNext;
+
+    @Override
+    public <T> void addToMteRequestQueue(Request<T> request,
+                                         String[] headersToEncrypt,
+                                         String pathnamePrefix,
+                                         RelayDataTaskListener listener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void uploadFile(RelayFileRequestProperties properties,
+                           String route,
+                           String pathnamePrefix,
+                           RelayStreamResponseListener listener,
+                           RelayStreamCompletionCallback completionCallback) {
+      RuntimeException failure = failNext;
+      if (failure != null) {
+        failNext = null;
+        throw failure;
+      }
+      int atStart = streamChunkSize;
+      pending.add(() -> {
+        sizesSeen.add(new int[] {atStart, streamChunkSize});
+        listener.relayStreamResponse(true, "", null, null);
+      });
+    }
+
+    @Override
+    public void downloadFile(RelayFileRequestProperties properties,
+                             String pathnamePrefix,
+                             RelayStreamResponseListener listener) {
+      uploadFile(properties, null, pathnamePrefix, listener, null);
+    }
+
+    void finishAll() {
+      List<Runnable> finishing;
+      synchronized (pending) {
+        finishing = new ArrayList<>(pending);
+        pending.clear();
+      }
+      finishing.forEach(Runnable::run);
+    }
+
+    @Override
+    public void rePairWithRelayServer(String url) {
+    }
+
+    @Override
+    public String adjustRelaySettings(String serverUrl, int streamChunkSize, int pairPoolSize, Boolean persistPairs) {
+      return "";
+    }
+
+    @Override
+    public int getStreamChunkSizeSetting() {
+      return streamChunkSize;
+    }
+
+    @Override
+    public void setStreamChunkSize(int streamChunkSize) {
+      this.streamChunkSize = streamChunkSize;
+    }
+
+    @Override
+    public int getPairPoolSizeSetting() {
+      return 3;
+    }
+
+    @Override
+    public boolean getPersistPairsSetting() {
+      return false;
+    }
+
+    @Override
+    public String[] getHostList() {
+      return new String[0];
+    }
+  }
+
+  private final SharedSettingRelay relay = new SharedSettingRelay();
+  private final ChunkSizeTuner tuner = new ChunkSizeTuner(() -> "wifi");
+  private final ChunkTuningRelayBackend backend = new ChunkTuningRelayBackend(relay, tuner);
+
+  @Test
+  public void newSizeWaitsForRunningTransfers() {
+    backend.configureChunkTuning(true, 64 * 1024, 1024 * 1024, 250);
+    assertEquals(64 * 1024, relay.streamChunkSize);
+
+    upload();
+    backend.configureChunkTuning(true, 128 * 1024, 1024 * 1024, 250);
+    download();
+    assertEquals(64 * 1024, relay.streamChunkSize);
+    relay.finishAll();
+
+    upload();
+    assertEquals(128 * 1024, relay.streamChunkSize);
+    backend.configureChunkTuning(false, 128 * 1024, 1024 * 1024, 250);
+    relay.finishAll();
+    upload();
+    relay.finishAll();
+
+    assertEquals(CONFIGURED, relay.streamChunkSize);
+    assertEquals(4, relay.sizesSeen.size());
+    for (int[] seen : relay.sizesSeen) {
+      assertEquals(seen[0], seen[1]);
+    }
+  }
+
+  @Test
+  public void transfersThatThrowDoNotHoldTheSize() {
+    backend.configureChunkTuning(true, 64 * 1024, 1024 * 1024, 250);
+
+    relay.failNext = new IllegalStateException("upload");
+    try {
+      upload();
+      fail("the relay's exception should reach the caller");
+    } catch (IllegalStateException expected) {
+    }
+    relay.failNext = new IllegalStateException("download");
+    try {
+      download();
+      fail("the relay's exception should reach the caller");
+    } catch (IllegalStateException expected) {
+    }
+    backend.configureChunkTuning(true, 128 * 1024, 1024 * 1024, 250);
+
+    assertEquals(128 * 1024, relay.streamChunkSize);
+  }
+
+  @Test
+  public void concurrentTransfersNeverSeeTheSizeChange() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    AtomicInteger started = new AtomicInteger();
+    try {
+      for (int i = 0; i < 8; i++) {
+        executor.execute(() -> {
+          for (int j = 0; j < 200; j++) {
+            if (ThreadLocalRandom.current().nextBoolean()) {
+              upload();
+            } else {
+              download();
+            }
+            started.incrementAndGet();
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(50_000));
+            relay.finishAll();
+          }
+        });
+      }
+      // Retunes between two sizes while the transfers come and go
+      for (int i = 0; started.get() < 1600; i++) {
+        backend.configureChunkTuning(true, i % 2 == 0 ? 32 * 1024 : 64 * 1024, 1024 * 1024, 250);
+        LockSupport.parkNanos(20_000);
+      }
+    } finally {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+    relay.finishAll();
+
+    assertEquals(1600, relay.sizesSeen.size());
+    for (int[] seen : relay.sizesSeen) {
+      assertEquals(seen[0], seen[1]);
+    }
+  }
+
+  private void upload() {
+    backend.uploadFile(properties(), "/api/upload", "", (success, responseStr, errorMessage, headers) -> { },
+        (bytesCompleted, totalBytes) -> { });
+  }
+
+  private void download() {
+    backend.downloadFile(properties(), "", (success, responseStr, errorMessage, headers) -> { });
+  }
+
+  private static RelayFileRequestProperties properties() {
+    return new RelayFileRequestProperties(
+        "https://relay.example.com", "/api/download", "/nonexistent/download.bin", new HashMap<>(), new String[0]);
+  }
+}
@@ -0,0 +1,115 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// Round-trips bodies through gzip and gunzip, and feeds gunzip, directly and
+// as a relayDataTask response, gzip bombs that inflate past its limit.
+public class CompressedRequestTest {
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @After
+  public void tearDown() {
+    if (messenger != null) {
+      messenger.close();
+      mainThread.close();
+    }
+  }
+
+  @Test
+  public void gunzipRestoresWhatGzipCompressed() throws Exception {
+    byte[] body = "{\"items\":[1,2,3]}".getBytes(StandardCharsets.UTF_8);
+
+    assertArrayEquals(body, CompressedRequest.gunzip(CompressedRequest.gzip(body)));
+  }
+
+  @Test
+  public void gunzipStopsAtItsLimit() throws Exception {
+    byte[] bomb = bomb(1024 * 1024);
+
+    assertEquals(1024 * 1024, CompressedRequest.gunzip(bomb, 1024 * 1024).length);
+    try {
+      CompressedRequest.gunzip(bomb, 1024 * 1024 - 1);
+      fail("inflated past the limit");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("exceeds"));
+    }
+  }
+
+  @Test
+  public void gzipBombResponseFails() throws Exception {
+    byte[] bomb = bomb(CompressedRequest.MAX_DECOMPRESSED_BYTES + 1);
+    Map<String, List<String>> headers = new HashMap<>();
+    headers.put("Content-Type", Collections.singletonList("application/json"));
+    headers.put("Content-Encoding", Collections.singletonList("gzip"));
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(new StubRelayBackend(
+            (request, pathnamePrefix, listener) -> listener.onResponse(bomb, headers)));
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", StubRelayBackend.HOST + "/api/bomb");
+    args.put("method", "GET");
+    args.put("headers", new HashMap<>());
+    args.put("headersToEncrypt", Collections.emptyList());
+    args.put("rawResponse", true);
+
+    Map<?, ?> reply = (Map<?, ?>) messenger.invokeMethod("relayDataTask", args).get(10, TimeUnit.SECONDS);
+
+    assertEquals(false, reply.get("success"));
+  }
+
+  // A gzip stream of size zero bytes, about a thousandth as long
+  private static byte[] bomb(int size) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] zeros = new byte[64 * 1024];
+    try (OutputStream gzip = new GZIPOutputStream(out)) {
+      for (int left = size; left > 0; left -= zeros.length) {
+        gzip.write(zeros, 0, Math.min(left, zeros.length));
+      }
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,220 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.volley.Request;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Drives the connectivity monitor the way the ConnectivityManager default
+// network callback does and checks when requests are held and the relay is
+// re-paired: debounced, rate limited and never for longer than maxHoldMs.
+public class ConnectivityMonitorTest {
+  private static final int DEBOUNCE_MS = 50;
+
+  private ScheduledExecutorService timer;
+  private RequestScheduler scheduler;
+  private ConnectivityMonitor monitor;
+  private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+  @Before
+  public void setUp() {
+    timer = Executors.newSingleThreadScheduledExecutor();
+    scheduler = new RequestScheduler(() -> 4);
+    monitor = new ConnectivityMonitor(timer, new ConnectivityMonitor.Actions() {
+      @Override
+      public void hold(boolean held) {
+        scheduler.setHeld(held);
+        events.add(held ? "hold" : "release");
+      }
+
+      @Override
+      public void rePair() {
+        events.add("rePair");
+      }
+    });
+    monitor.configure(DEBOUNCE_MS, 0, 5000);
+  }
+
+  @After
+  public void tearDown() {
+    timer.shutdownNow();
+  }
+
+  @Test
+  public void firstNetworkIsNotRePaired() throws InterruptedException {
+    monitor.networkAvailable("100", "wifi");
+    assertNull(events.poll(DEBOUNCE_MS * 4, TimeUnit.MILLISECONDS));
+    assertEquals("wifi", monitor.networkType());
+  }
+
+  @Test
+  public void networkChangeHoldsRequestsUntilRePaired() throws InterruptedException {
+    monitor.networkAvailable("100", "wifi");
+    monitor.networkAvailable("100", "wifi"); // Capability update, same network
+    monitor.networkAvailable("101", "cellular");
+    assertEquals("hold", next());
+    assertEquals("cellular", monitor.networkType());
+
+    CountDownLatch started = new CountDownLatch(1);
+    scheduler.submit(null, null, Request.Priority.NORMAL, new RequestScheduler.Task() {
+      @Override
+      public void start(RequestScheduler.Ticket ticket) {
+        started.countDown();
+        ticket.finished();
+      }
+
+      @Override
+      public void cancelled(boolean started) {
+      }
+
+      @Override
+      public void failed(Exception e) {
+      }
+    });
+    assertEquals("rePair", next());
+    assertFalse(started.await(DEBOUNCE_MS, TimeUnit.MILLISECONDS));
+
+    monitor.rePairFinished();
+    assertEquals("release", next());
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    assertNull(events.poll(DEBOUNCE_MS * 4, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void flappingNetworkIsRePairedOnce() throws InterruptedException {
+    monitor.networkAvailable("100", "wifi");
+    for (int i = 0; i < 5; i++) {
+      monitor.networkAvailable(i % 2 == 0 ? "101" : "102", i % 2 == 0 ? "cellular" : "wifi");
+    }
+    assertEquals("hold", next());
+    assertEquals("rePair", next());
+    monitor.rePairFinished();
+    assertEquals("release", next());
+    assertNull(events.poll(DEBOUNCE_MS * 4, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void sameNetworkBackAfterLossIsNotRePaired() throws InterruptedException {
+    monitor.networkAvailable("100", "wifi");
+    monitor.networkLost("100");
+    assertEquals("hold", next());
+    assertEquals("none", monitor.networkType());
+    monitor.networkAvailable("100", "wifi");
+    assertEquals("release", next());
+    assertNull(events.poll(DEBOUNCE_MS * 4, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void rePairsAreRateLimited() throws InterruptedException {
+    monitor.configure(DEBOUNCE_MS, 500, 5000);
+    monitor.networkAvailable("100", "wifi");
+    monitor.networkAvailable("101", "cellular");
+    assertEquals("hold", next());
+    assertEquals("rePair", next());
+    monitor.rePairFinished();
+    assertEquals("release", next());
+
+    // Inside the interval requests go on and the re-pair waits for its end
+    long changedNanos = System.nanoTime();
+    monitor.networkAvailable("102", "wifi");
+    assertEquals("hold", next());
+    assertEquals("release", next());
+    assertEquals("hold", next());
+    assertEquals("rePair", next());
+    assertTrue(System.nanoTime() - changedNanos >= TimeUnit.MILLISECONDS.toNanos(300));
+    monitor.rePairFinished();
+    assertEquals("release", next());
+  }
+
+  @Test
+  public void holdEndsAfterMaxHold() throws InterruptedException {
+    monitor.configure(DEBOUNCE_MS, 0, 200);
+    monitor.networkAvailable("100", "wifi");
+    monitor.networkAvailable("101", "cellular");
+    assertEquals("hold", next());
+    assertEquals("rePair", next());
+    // The relay never reports the re-pair
+    assertEquals("release", next());
+    assertFalse(scheduler.isHeld());
+  }
+
+  @Test
+  public void onlyRePairsOfTheMonitorsHostsEndTheHold() throws Exception {
+    LoopbackMessenger messenger = new LoopbackMessenger();
+    ExecutorMainThread mainThread = new ExecutorMainThread();
+    try {
+      MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+      plugin.attach(null, messenger, mainThread);
+      plugin.setRelayBackend(new StubRelayBackend(new byte[0]));
+      ConnectivityMonitor pluginMonitor = plugin.getConnectivityMonitor();
+      pluginMonitor.configure(DEBOUNCE_MS, 0, 5000);
+      pluginMonitor.networkAvailable("100", "wifi");
+      pluginMonitor.networkAvailable("101", "cellular");
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+      while (((Number) ((Map<?, ?>) messenger.invokeMethod("getRelayMetrics", null).get(1, TimeUnit.SECONDS))
+              .get("backgroundRePairs")).longValue() == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(pluginMonitor.isHolding());
+
+      // A re-pair the app asked for, of a host the monitor is not waiting on
+      plugin.relayResponseListener.onCompletion(true, "Successfully Re-Paired with https://other.example.com");
+      Thread.sleep(DEBOUNCE_MS * 2);
+      assertTrue(pluginMonitor.isHolding());
+
+      plugin.relayResponseListener.onCompletion(true, "Successfully Re-Paired with " + StubRelayBackend.HOST);
+      deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+      while (pluginMonitor.isHolding() && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertFalse(pluginMonitor.isHolding());
+    } finally {
+      messenger.close();
+      mainThread.close();
+    }
+  }
+
+  private String next() throws InterruptedException {
+    String event = events.poll(2, TimeUnit.SECONDS);
+    return event != null ? event : "timed out";
+  }
+}
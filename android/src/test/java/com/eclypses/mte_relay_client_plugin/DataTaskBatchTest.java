@@ -0,0 +1,100 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Runs relayDataTaskBatch through the plugin against a relay that answers
+// one route late, and checks what each request's entry in the batch says.
+public class DataTaskBatchTest {
+  private static final String FAST_URL = StubRelayBackend.HOST + "/api/fast";
+  private static final String SLOW_URL = StubRelayBackend.HOST + "/api/slow";
+
+  private final ScheduledExecutorService relayThread = Executors.newSingleThreadScheduledExecutor();
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @Before
+  public void setUp() {
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(new StubRelayBackend((request, pathnamePrefix, listener) ->
+            relayThread.schedule(() -> listener.onResponse(
+                    "{\"done\":true}".getBytes(StandardCharsets.UTF_8), Collections.emptyMap()),
+                    request.getUrl().equals(SLOW_URL) ? 1000 : 0, TimeUnit.MILLISECONDS)));
+  }
+
+  @After
+  public void tearDown() {
+    relayThread.shutdownNow();
+    messenger.close();
+    mainThread.close();
+  }
+
+  @Test
+  public void failedRequestKeepsItsErrorCode() throws Exception {
+    Map<String, Object> slow = args(SLOW_URL);
+    slow.put("deadlineMs", 100);
+    Map<String, Object> batch = new HashMap<>();
+    batch.put("requests", Arrays.asList(args(FAST_URL), slow));
+
+    List<?> results = (List<?>) messenger.invokeMethod("relayDataTaskBatch", batch).get(5, TimeUnit.SECONDS);
+
+    Map<?, ?> fast = (Map<?, ?>) results.get(0);
+    assertEquals(true, fast.get("success"));
+    assertEquals(0, fast.get("index"));
+    Map<?, ?> expired = (Map<?, ?>) results.get(1);
+    assertEquals(false, expired.get("success"));
+    assertEquals(1, expired.get("index"));
+    assertEquals("DEADLINE_EXCEEDED", expired.get("errorCode"));
+    assertNotNull(expired.get("pluginError"));
+  }
+
+  private static Map<String, Object> args(String url) {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", url);
+    args.put("method", "GET");
+    args.put("headers", new HashMap<>());
+    args.put("headersToEncrypt", Collections.emptyList());
+    return args;
+  }
+}
@@ -0,0 +1,158 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.FlutterException;
+
+// Sends identical relayDataTask GETs through the plugin while the relay is
+// still answering the first and checks which of them share its reply.
+public class DataTaskCoalescingTest {
+  private static final String URL = StubRelayBackend.HOST + "/api/catalog";
+  private static final long ANSWER_AFTER_MS = 200;
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final ScheduledExecutorService relayThread = Executors.newSingleThreadScheduledExecutor();
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @Before
+  public void setUp() {
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(new StubRelayBackend((request, pathnamePrefix, listener) -> {
+      requests.incrementAndGet();
+      relayThread.schedule(() -> listener.onResponse(
+              "{\"items\":[]}".getBytes(StandardCharsets.UTF_8), Collections.emptyMap()),
+              ANSWER_AFTER_MS, TimeUnit.MILLISECONDS);
+    }));
+  }
+
+  @After
+  public void tearDown() {
+    relayThread.shutdownNow();
+    messenger.close();
+    mainThread.close();
+  }
+
+  @Test
+  public void identicalRequestsAreNotSharedByDefault() throws Exception {
+    CompletableFuture<Object> first = messenger.invokeMethod("relayDataTask", args());
+    CompletableFuture<Object> second = messenger.invokeMethod("relayDataTask", args());
+
+    assertEquals(true, ((Map<?, ?>) first.get(5, TimeUnit.SECONDS)).get("success"));
+    assertEquals(true, ((Map<?, ?>) second.get(5, TimeUnit.SECONDS)).get("success"));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void identicalRequestsShareOneRelayCallWhenEnabled() throws Exception {
+    coalesce();
+    CompletableFuture<Object> first = messenger.invokeMethod("relayDataTask", args());
+    CompletableFuture<Object> second = messenger.invokeMethod("relayDataTask", args());
+
+    assertEquals(true, ((Map<?, ?>) first.get(5, TimeUnit.SECONDS)).get("success"));
+    assertEquals(true, ((Map<?, ?>) second.get(5, TimeUnit.SECONDS)).get("success"));
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void cancellingOneOfTwoIdenticalRequestsLeavesTheOther() throws Exception {
+    coalesce();
+    Map<String, Object> cancelledArgs = args();
+    cancelledArgs.put("requestID", "first");
+    Map<String, Object> keptArgs = args();
+    keptArgs.put("requestID", "second");
+    CompletableFuture<Object> cancelled = messenger.invokeMethod("relayDataTask", cancelledArgs);
+    CompletableFuture<Object> kept = messenger.invokeMethod("relayDataTask", keptArgs);
+    // Both reach the relay, neither waiting on the other
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (requests.get() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(2, requests.get());
+
+    Map<String, Object> cancel = new HashMap<>();
+    cancel.put("requestID", "first");
+    assertEquals(1, messenger.invokeMethod("cancel", cancel).get(5, TimeUnit.SECONDS));
+
+    try {
+      cancelled.get(5, TimeUnit.SECONDS);
+      fail("cancelled request succeeded");
+    } catch (ExecutionException e) {
+      assertEquals("CANCELLED", ((FlutterException) e.getCause()).code);
+    }
+    assertEquals(true, ((Map<?, ?>) kept.get(5, TimeUnit.SECONDS)).get("success"));
+  }
+
+  @Test
+  public void eachRequestKeepsItsOwnTimeout() throws Exception {
+    coalesce();
+    Map<String, Object> shortArgs = args();
+    shortArgs.put("timeoutMs", 50);
+    Map<String, Object> longArgs = args();
+    longArgs.put("timeoutMs", 2000);
+    CompletableFuture<Object> timedOut = messenger.invokeMethod("relayDataTask", shortArgs);
+    CompletableFuture<Object> answered = messenger.invokeMethod("relayDataTask", longArgs);
+
+    assertEquals(false, ((Map<?, ?>) timedOut.get(5, TimeUnit.SECONDS)).get("success"));
+    assertEquals(true, ((Map<?, ?>) answered.get(5, TimeUnit.SECONDS)).get("success"));
+    assertEquals(2, requests.get());
+  }
+
+  private void coalesce() throws Exception {
+    messenger.invokeMethod("adjustRelaySettings", new HashMap<>(Collections.singletonMap("coalesceRequests", true)))
+            .get(5, TimeUnit.SECONDS);
+  }
+
+  private static Map<String, Object> args() {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", URL);
+    args.put("method", "GET");
+    args.put("headers", new HashMap<>());
+    args.put("headersToEncrypt", Collections.emptyList());
+    args.put("cache", false);
+    return args;
+  }
+}
@@ -0,0 +1,203 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.Request;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Request and response marshalling on the relayDataTask path, with a stub
+// relay so only plugin work is measured. Each body size is roughly the number
+// of bytes in the request or response body.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataTaskMarshallingBenchmark {
+  private static final String URL = StubRelayBackend.HOST + "/api/items";
+
+  @Param({"256", "16384"})
+  int bodySize;
+
+  private MteRelayClientPlugin plugin;
+  private Map<String, String> headers;
+  private String objectBody;
+  private String arrayBody;
+  private String textBody;
+  private String base64Body;
+  private Object channelArguments;
+  private Map<String, Object> jsonGetArgs;
+  private Map<String, Object> rawGetArgs;
+  private Map<String, Object> postArgs;
+  private final CapturingResult result = new CapturingResult();
+
+  private final VolleyRequestListener listener = new VolleyRequestListener() {
+    @Override
+    public void onError(String message, Map<String, List<String>> responseHeaders) {
+    }
+
+    @Override
+    public void onJsonResponse(JSONObject response, Map<String, List<String>> responseHeaders) {
+    }
+
+    @Override
+    public void onJsonArrayResponse(JSONArray response, Map<String, List<String>> responseHeaders) {
+    }
+
+    @Override
+    public void onStringResponse(String response, Map<String, String> responseHeaders) {
+    }
+
+    @Override
+    public void onBytesResponse(byte[] response, String contentType, Map<String, List<String>> responseHeaders) {
+    }
+
+    @Override
+    public void onFileResponse(File file, String contentType, Map<String, List<String>> responseHeaders) {
+    }
+  };
+
+  @Setup
+  public void setUp() throws JSONException {
+    objectBody = jsonObjectOfSize(bodySize).toString();
+    arrayBody = new JSONArray().put(jsonObjectOfSize(bodySize)).toString();
+    textBody = "name=" + "x".repeat(Math.max(0, bodySize - 5));
+    base64Body = Base64.getEncoder().encodeToString(objectBody.getBytes(StandardCharsets.UTF_8));
+
+    plugin = new MteRelayClientPlugin();
+    plugin.setRelayBackend(new StubRelayBackend(objectBody.getBytes(StandardCharsets.UTF_8)));
+
+    headers = new HashMap<>();
+    headers.put("Content-Type", "application/json");
+    headers.put("Accept", "application/json");
+
+    jsonGetArgs = dataTaskArgs("GET", null);
+    rawGetArgs = dataTaskArgs("GET", null);
+    rawGetArgs.put("rawResponse", true);
+    postArgs = dataTaskArgs("POST", base64Body);
+    channelArguments = postArgs;
+  }
+
+  private Map<String, Object> dataTaskArgs(String method, String body) {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", URL);
+    args.put("method", method);
+    args.put("headers", headers);
+    args.put("headersToEncrypt", new ArrayList<>(List.of("Content-Type")));
+    args.put("body", body);
+    return args;
+  }
+
+  private static JSONObject jsonObjectOfSize(int size) throws JSONException {
+    JSONObject object = new JSONObject();
+    JSONArray items = new JSONArray();
+    int i = 0;
+    while (object.toString().length() < size) {
+      items.put(new JSONObject().put("id", i++).put("name", "item").put("active", true));
+      object.put("items", items);
+    }
+    return object;
+  }
+
+  @Benchmark
+  public Request<?> createRequestJsonObject() throws JSONException {
+    return plugin.createRequest(objectBody, Request.Method.POST, URL, listener, headers, Request.Priority.NORMAL);
+  }
+
+  @Benchmark
+  public Request<?> createRequestJsonArray() throws JSONException {
+    return plugin.createRequest(arrayBody, Request.Method.POST, URL, listener, headers, Request.Priority.NORMAL);
+  }
+
+  @Benchmark
+  public Request<?> createRequestText() throws JSONException {
+    return plugin.createRequest(textBody, Request.Method.POST, URL, listener, headers, Request.Priority.NORMAL);
+  }
+
+  @Benchmark
+  public String decodeBase64Body() {
+    return MteRelayClientPlugin.decodeBody(base64Body);
+  }
+
+  // The cast and field reads every relayDataTask call starts with
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public void unpackArguments(Blackhole blackhole) {
+    Map<String, Object> args = plugin.ensureArgumentsMap(channelArguments);
+    blackhole.consume(args.get("url"));
+    blackhole.consume(args.get("method"));
+    blackhole.consume((Map<String, String>) args.get("headers"));
+    blackhole.consume(((List<String>) args.get("headersToEncrypt")).toArray(new String[0]));
+    blackhole.consume(args.get("body"));
+    blackhole.consume(Boolean.TRUE.equals(args.get("rawResponse")));
+  }
+
+  // Decrypted bytes -> String -> JSONObject -> String -> bytes, as sendToRelay
+  // does for JSON responses
+  @Benchmark
+  public Object dataTaskJsonResponse() {
+    plugin.sendDataTask(jsonGetArgs, result);
+    return result.value;
+  }
+
+  // The same response handed back unparsed with rawResponse
+  @Benchmark
+  public Object dataTaskRawResponse() {
+    plugin.sendDataTask(rawGetArgs, result);
+    return result.value;
+  }
+
+  // Base64 body decode, JSON body parse and request build, then a JSON response
+  @Benchmark
+  public Object dataTaskPost() {
+    plugin.sendDataTask(postArgs, result);
+    return result.value;
+  }
+}
@@ -0,0 +1,244 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.volley.Request;
+import com.mte.relay.RelayDataTaskListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Checks endpoint selection, ejection and recovery on a fake clock, then
+// routes requests over StandInRelayServers of different speeds and one that
+// is down.
+public class EndpointRouterTest {
+  private static final String PRIMARY = "https://us.relay.example";
+  private static final String SECONDARY = "https://eu.relay.example";
+
+  private final AtomicLong now = new AtomicLong(1_000_000_000L);
+  private EndpointRouter router;
+
+  @Before
+  public void setUp() {
+    router = new EndpointRouter(now::get, new Random(7));
+    router.setEndpoints(Arrays.asList(PRIMARY, SECONDARY));
+  }
+
+  @Test
+  public void routesOnlyConfiguredOriginsAndKeepsPathAndQuery() {
+    assertTrue(router.routes(PRIMARY + "/api/data?id=1"));
+    assertTrue(router.routes("HTTPS://EU.relay.example/api"));
+    assertFalse(router.routes("https://other.example/api/data"));
+
+    EndpointRouter.Endpoint endpoint = router.select(null);
+    assertNotNull(endpoint);
+    String other = endpoint.origin.equals(PRIMARY) ? SECONDARY : PRIMARY;
+    assertEquals(endpoint.origin + "/api/data?id=1", endpoint.rewrite(other + "/api/data?id=1"));
+  }
+
+  @Test
+  public void latencyPolicyPrefersTheFasterEndpoint() {
+    EndpointRouter.Endpoint first = router.select(null);
+    router.record(first, true, ms(80));
+    EndpointRouter.Endpoint second = router.select(null);
+    assertFalse(first == second); // The unmeasured one is tried next
+    router.record(second, true, ms(10));
+    for (int i = 0; i < 10; i++) {
+      assertSame(second, router.select(null));
+    }
+
+    // Past the probe interval the slow one is measured again, once
+    now.addAndGet(ms(EndpointRouter.PROBE_INTERVAL_MS + 1));
+    router.record(second, true, ms(10));
+    assertSame(first, router.select(null));
+    assertSame(second, router.select(null));
+  }
+
+  @Test
+  public void failingEndpointIsEjectedThenRecovers() {
+    router.configure(EndpointRouter.Policy.LATENCY, 2, 1000, 3000);
+    EndpointRouter.Endpoint bad = router.select(null);
+    EndpointRouter.Endpoint good = router.select(null);
+    router.record(good, true, ms(50));
+    router.record(bad, false, 0);
+    router.record(bad, false, 0);
+    assertEquals("ejected", stateOf(bad));
+    assertFalse(router.hasAlternative(good));
+    for (int i = 0; i < 5; i++) {
+      assertSame(good, router.select(bad));
+    }
+
+    // Trial after the ejection; a failure ejects it for twice as long
+    now.addAndGet(ms(1000));
+    assertEquals("trial", stateOf(bad));
+    assertSame(bad, router.select(good));
+    router.record(bad, false, 0);
+    assertEquals("ejected", stateOf(bad));
+    now.addAndGet(ms(1000));
+    assertEquals("ejected", stateOf(bad));
+    now.addAndGet(ms(1000));
+
+    // An answer restores it
+    router.record(bad, true, ms(20));
+    assertEquals("healthy", stateOf(bad));
+    assertSame(bad, router.select(null));
+  }
+
+  @Test
+  public void everyEndpointEjectedStillSendsToTheOneBackSoonest() {
+    router.configure(EndpointRouter.Policy.LATENCY, 1, 1000, 1000);
+    EndpointRouter.Endpoint first = router.select(null);
+    EndpointRouter.Endpoint second = router.select(null);
+    router.record(first, false, 0);
+    now.addAndGet(ms(10));
+    router.record(second, false, 0);
+    assertSame(first, router.select(null));
+  }
+
+  @Test
+  public void errorRatePolicyPrefersTheMoreReliableEndpoint() {
+    router.configure(EndpointRouter.Policy.ERROR_RATE, 100, 1000, 1000);
+    EndpointRouter.Endpoint fast = router.select(null);
+    EndpointRouter.Endpoint steady = router.select(null);
+    router.record(fast, true, ms(5));
+    router.record(fast, false, 0);
+    router.record(steady, true, ms(60));
+    assertSame(steady, router.select(null));
+  }
+
+  @Test
+  public void weightedPolicySplitsByWeight() {
+    Map<String, Object> heavy = new HashMap<>();
+    heavy.put("url", PRIMARY);
+    heavy.put("weight", 3);
+    router.setEndpoints(Arrays.asList(heavy, SECONDARY));
+    router.configure(EndpointRouter.Policy.WEIGHTED, 3, 1000, 1000);
+    int primary = 0;
+    for (int i = 0; i < 4000; i++) {
+      if (router.select(null).origin.equals(PRIMARY)) {
+        primary++;
+      }
+    }
+    assertTrue("primary picked " + primary + " of 4000", primary > 2800 && primary < 3200);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void routesAroundADownServerToTheFastestStandIn() throws Exception {
+    StandInRelayServer down = new StandInRelayServer(0, 0, 0, 0, 64);
+    String downUrl = down.baseUrl();
+    down.close();
+    try (StandInRelayServer slow = new StandInRelayServer(30, 0, 0, 0, 64);
+         StandInRelayServer fast = new StandInRelayServer(0, 0, 0, 0, 64);
+         LoopbackRelayBackend relay = new LoopbackRelayBackend(4, 16 * 1024)) {
+      EndpointRouter live = new EndpointRouter();
+      live.setEndpoints(Arrays.asList(downUrl, slow.baseUrl(), fast.baseUrl()));
+      live.configure(EndpointRouter.Policy.LATENCY, 1, 60_000, 60_000);
+
+      int answered = 0;
+      for (int i = 0; i < 30; i++) {
+        // As the plugin does: a request the endpoint does not answer fails
+        // over to another one
+        EndpointRouter.Endpoint endpoint = live.select(null);
+        if (!send(relay, live, endpoint, downUrl + "/api/data?i=" + i)) {
+          endpoint = live.select(endpoint);
+          if (!send(relay, live, endpoint, downUrl + "/api/data?i=" + i)) {
+            continue;
+          }
+        }
+        answered++;
+      }
+      assertEquals(30, answered);
+
+      Map<String, Map<String, Object>> byUrl = new HashMap<>();
+      for (Object entry : (List<?>) live.snapshot().get("endpoints")) {
+        Map<String, Object> map = (Map<String, Object>) entry;
+        byUrl.put((String) map.get("url"), map);
+      }
+      assertEquals("ejected", byUrl.get(downUrl).get("state"));
+      assertEquals(1L, byUrl.get(downUrl).get("failures"));
+      assertTrue((Long) byUrl.get(fast.baseUrl()).get("selected") > 20);
+    }
+  }
+
+  private static boolean send(LoopbackRelayBackend relay, EndpointRouter router,
+                              EndpointRouter.Endpoint endpoint, String url) throws Exception {
+    CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+    long startNanos = System.nanoTime();
+    relay.addToMteRequestQueue(
+            new RawBytesRequest(Request.Method.GET, endpoint.rewrite(url), null, null, null,
+                    Request.Priority.NORMAL, response -> { }, error -> { }),
+            new String[0], null, new RelayDataTaskListener() {
+              @Override
+              public void onError(String message, Map<String, List<String>> responseHeaders) {
+                outcome.complete(responseHeaders != null && !responseHeaders.isEmpty());
+              }
+
+              @Override
+              public void onResponse(byte[] responseBytes, Map<String, List<String>> responseHeaders) {
+                outcome.complete(true);
+              }
+
+              @Override
+              public void onResponse(JSONObject responseJson, Map<String, List<String>> responseHeaders) {
+                outcome.complete(true);
+              }
+            });
+    boolean answered = outcome.get(5, TimeUnit.SECONDS);
+    router.record(endpoint, answered, System.nanoTime() - startNanos);
+    return answered;
+  }
+
+  private String stateOf(EndpointRouter.Endpoint endpoint) {
+    for (Object entry : (List<?>) router.snapshot().get("endpoints")) {
+      Map<?, ?> map = (Map<?, ?>) entry;
+      if (endpoint.origin.equals(map.get("url"))) {
+        return (String) map.get("state");
+      }
+    }
+    return null;
+  }
+
+  private static long ms(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
@@ -0,0 +1,94 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Holds a relayDataTask at the relay and checks what it counts against the
+// scheduler's in-flight byte budget while it runs.
+public class InFlightBudgetTest {
+  private static final String URL = StubRelayBackend.HOST + "/api/notes";
+
+  private final CountDownLatch received = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @Before
+  public void setUp() {
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(new StubRelayBackend((request, pathnamePrefix, listener) -> new Thread(() -> {
+      received.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        return;
+      }
+      listener.onResponse("{}".getBytes(StandardCharsets.UTF_8), Collections.emptyMap());
+    }).start()));
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    messenger.close();
+    mainThread.close();
+  }
+
+  @Test
+  public void stringBodyCountsItsUtf8Bytes() throws Exception {
+    String body = "{\"note\":\"Gr\u00fc\u00dfe aus K\u00f6ln \u2014 \u6771\u4eac\"}";
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", URL);
+    args.put("method", "POST");
+    args.put("headers", new HashMap<>());
+    args.put("headersToEncrypt", Collections.emptyList());
+    args.put("body", body);
+    args.put("expectedResponseBytes", 100);
+
+    messenger.invokeMethod("relayDataTask", args);
+    assertTrue(received.await(5, TimeUnit.SECONDS));
+
+    Map<?, ?> metrics = (Map<?, ?>) messenger.invokeMethod("getRelayMetrics", null).get(5, TimeUnit.SECONDS);
+    Map<?, ?> admission = (Map<?, ?>) metrics.get("admission");
+    assertEquals(body.getBytes(StandardCharsets.UTF_8).length + 100L,
+            ((Number) admission.get("inFlightBytes")).longValue());
+  }
+}
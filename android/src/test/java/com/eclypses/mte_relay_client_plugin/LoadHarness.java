@@ -0,0 +1,129 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Drives a fixed number of operations with at most `concurrency` in flight and
+// reports throughput, latency percentiles and the heap high-water mark.
+final class LoadHarness {
+  private static final long HEAP_SAMPLE_MS = 5;
+
+  interface Operation {
+    // Starts operation `index` and completes with whether it succeeded
+    CompletableFuture<Boolean> start(int index);
+  }
+
+  static Map<String, Object> run(String scenario,
+                                 int concurrency,
+                                 int operations,
+                                 long bytesPerOperation,
+                                 long timeoutMs,
+                                 Operation operation) throws InterruptedException {
+    LatencyHistogram latency = new LatencyHistogram();
+    AtomicLong errors = new AtomicLong();
+    Semaphore slots = new Semaphore(concurrency);
+    CountDownLatch done = new CountDownLatch(operations);
+    HeapSampler heap = new HeapSampler();
+
+    heap.start();
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < operations; i++) {
+      slots.acquire();
+      long operationStart = System.nanoTime();
+      CompletableFuture<Boolean> future;
+      try {
+        future = operation.start(i);
+      } catch (RuntimeException e) {
+        future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+      }
+      future.whenComplete((success, error) -> {
+        latency.recordNanos(System.nanoTime() - operationStart);
+        if (error != null || !Boolean.TRUE.equals(success)) {
+          errors.incrementAndGet();
+        }
+        slots.release();
+        done.countDown();
+      });
+    }
+    boolean finished = done.await(timeoutMs, TimeUnit.MILLISECONDS);
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    heap.interrupt();
+    heap.join();
+
+    long completed = operations - done.getCount();
+    Map<String, Object> report = new HashMap<>();
+    report.put("scenario", scenario);
+    report.put("concurrency", concurrency);
+    report.put("operations", operations);
+    report.put("completed", completed);
+    report.put("timedOut", !finished);
+    report.put("errors", errors.get());
+    report.put("seconds", seconds);
+    report.put("opsPerSecond", completed / seconds);
+    report.put("megabytesPerSecond", completed * bytesPerOperation / seconds / (1024.0 * 1024.0));
+    report.put("latency", latency.snapshot());
+    report.put("heapBaselineBytes", heap.baseline);
+    report.put("heapHighWaterBytes", heap.highWater);
+    return report;
+  }
+
+  // Polls heap usage while the scenario runs. Sampling misses short spikes,
+  // so the high-water mark is a lower bound.
+  private static final class HeapSampler extends Thread {
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private volatile long baseline;
+    private volatile long highWater;
+
+    HeapSampler() {
+      super("load-heap-sampler");
+      setDaemon(true);
+      System.gc();
+      baseline = memory.getHeapMemoryUsage().getUsed();
+      highWater = baseline;
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        highWater = Math.max(highWater, memory.getHeapMemoryUsage().getUsed());
+        try {
+          Thread.sleep(HEAP_SAMPLE_MS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+}
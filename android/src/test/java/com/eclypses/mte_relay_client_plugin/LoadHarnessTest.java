@@ -0,0 +1,212 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Runs the plugin end to end, from method-channel call to relay backend to
+// HTTP and back, against a StandInRelayServer on localhost. Skipped unless
+// asked for:
+//   ./gradlew testDebugUnitTest --tests '*LoadHarnessTest' -DmteRelay.loadtest=true
+// Tunables (defaults in brackets), all prefixed with mteRelay.loadtest.:
+//   concurrency [16], pairPoolSize [8], streamChunkSize [65536],
+//   dataTasks [1000], responseBytes [2048], uploads [40], uploadBytes [4194304],
+//   downloads [40], downloadBytes [4194304], latencyMs [20], jitterMs [10],
+//   bytesPerSecond [0, unthrottled], errorRate [0.0], timeoutMs [300000]
+// and min.<scenario>OpsPerSecond to fail the run below a throughput floor.
+// Results are written to build/reports/load/results.json.
+public class LoadHarnessTest {
+  private static final String PREFIX = "mteRelay.loadtest.";
+
+  private StandInRelayServer server;
+  private LoopbackRelayBackend relay;
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+  private File workDir;
+
+  @Before
+  public void setUp() throws IOException {
+    Assume.assumeTrue("Load tests are disabled", Boolean.getBoolean("mteRelay.loadtest"));
+
+    server = new StandInRelayServer(
+            Long.getLong(PREFIX + "latencyMs", 20),
+            Long.getLong(PREFIX + "jitterMs", 10),
+            Long.getLong(PREFIX + "bytesPerSecond", 0),
+            Double.parseDouble(System.getProperty(PREFIX + "errorRate", "0")),
+            Integer.getInteger(PREFIX + "responseBytes", 2048));
+    relay = new LoopbackRelayBackend(
+            Integer.getInteger(PREFIX + "pairPoolSize", 8),
+            Integer.getInteger(PREFIX + "streamChunkSize", 64 * 1024));
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    workDir = Files.createTempDirectory("mte-relay-load").toFile();
+
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    // File paths are plain files, so no Android context is needed
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(relay);
+  }
+
+  @After
+  public void tearDown() {
+    for (AutoCloseable closeable : new AutoCloseable[]{messenger, mainThread, relay, server}) {
+      try {
+        if (closeable != null) {
+          closeable.close();
+        }
+      } catch (Exception ignored) {
+      }
+    }
+    if (workDir != null) {
+      File[] files = workDir.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      workDir.delete();
+    }
+  }
+
+  @Test
+  public void runLoad() throws Exception {
+    int concurrency = Integer.getInteger(PREFIX + "concurrency", 16);
+    long timeoutMs = Long.getLong(PREFIX + "timeoutMs", 300_000);
+    List<Map<String, Object>> reports = new ArrayList<>();
+
+    int responseBytes = Integer.getInteger(PREFIX + "responseBytes", 2048);
+    reports.add(LoadHarness.run("relayDataTask", concurrency,
+            Integer.getInteger(PREFIX + "dataTasks", 1000), responseBytes, timeoutMs,
+            index -> call("relayDataTask", dataTaskArgs())));
+
+    int uploadBytes = Integer.getInteger(PREFIX + "uploadBytes", 4 * 1024 * 1024);
+    File uploadFile = createFile("upload.bin", uploadBytes);
+    reports.add(LoadHarness.run("relayUploadFilePath", concurrency,
+            Integer.getInteger(PREFIX + "uploads", 40), uploadBytes, timeoutMs,
+            index -> call("relayUploadFilePath", uploadArgs(uploadFile))));
+
+    int downloadBytes = Integer.getInteger(PREFIX + "downloadBytes", 4 * 1024 * 1024);
+    reports.add(LoadHarness.run("relayDownloadFile", concurrency,
+            Integer.getInteger(PREFIX + "downloads", 40), downloadBytes, timeoutMs,
+            index -> {
+              File target = new File(workDir, "download-" + index + ".bin");
+              return call("relayDownloadFile", downloadArgs(downloadBytes, target))
+                      .whenComplete((success, error) -> target.delete());
+            }));
+
+    for (Map<String, Object> report : reports) {
+      report.put("channelMessagesSent", messenger.getMessagesSent());
+      report.put("channelBytesSent", messenger.getBytesSent());
+    }
+    writeReport(reports);
+
+    for (Map<String, Object> report : reports) {
+      String minimum = System.getProperty(PREFIX + "min." + report.get("scenario") + "OpsPerSecond");
+      if (minimum != null) {
+        double opsPerSecond = (Double) report.get("opsPerSecond");
+        assertTrue(report.get("scenario") + " ran at " + opsPerSecond + " ops/s, below " + minimum,
+                opsPerSecond >= Double.parseDouble(minimum));
+      }
+    }
+  }
+
+  private CompletableFuture<Boolean> call(String method, Map<String, Object> args) {
+    return messenger.invokeMethod(method, args)
+            .thenApply(reply -> reply instanceof Map && Boolean.TRUE.equals(((Map<?, ?>) reply).get("success")));
+  }
+
+  private Map<String, Object> dataTaskArgs() {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", server.baseUrl() + "/api/data");
+    args.put("method", "GET");
+    args.put("headers", Collections.singletonMap("Accept", "application/json"));
+    args.put("headersToEncrypt", Collections.emptyList());
+    // Every call should reach the server
+    args.put("cache", false);
+    args.put("coalesce", false);
+    return args;
+  }
+
+  private Map<String, Object> uploadArgs(File file) {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", server.baseUrl() + "/api/upload");
+    args.put("method", "POST");
+    args.put("headers", Collections.singletonMap("Content-Type", "application/octet-stream"));
+    args.put("headersToEncrypt", Collections.emptyList());
+    args.put("filePath", file.getAbsolutePath());
+    return args;
+  }
+
+  private Map<String, Object> downloadArgs(int bytes, File target) {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", server.baseUrl() + "/api/download/" + bytes);
+    args.put("method", "GET");
+    args.put("headers", Collections.emptyMap());
+    args.put("headersToEncrypt", Collections.emptyList());
+    args.put("downloadLocation", target.getAbsolutePath());
+    return args;
+  }
+
+  private File createFile(String name, int size) throws IOException {
+    File file = new File(workDir, name);
+    byte[] chunk = new byte[64 * 1024];
+    try (OutputStream outputStream = new FileOutputStream(file)) {
+      for (int written = 0; written < size; written += chunk.length) {
+        outputStream.write(chunk, 0, Math.min(chunk.length, size - written));
+      }
+    }
+    return file;
+  }
+
+  private static void writeReport(List<Map<String, Object>> reports) throws Exception {
+    File report = new File("build/reports/load/results.json");
+    report.getParentFile().mkdirs();
+    JSONArray results = new JSONArray();
+    for (Map<String, Object> scenario : reports) {
+      results.put(new JSONObject(scenario));
+    }
+    Files.write(report.toPath(), results.toString(2).getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,137 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.FlutterException;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+// In-process BinaryMessenger standing in for the Flutter engine. Method calls
+// go through the real StandardMethodCodec encoding and are handled on one
+// serial background queue, as on a device, and everything the plugin sends
+// back to Dart is counted rather than delivered.
+final class LoopbackMessenger implements BinaryMessenger, AutoCloseable {
+  static final String CHANNEL = "mte_relay_client_plugin";
+
+  private final Map<String, BinaryMessageHandler> handlers = new ConcurrentHashMap<>();
+  private final ExecutorService taskQueue = Executors.newSingleThreadExecutor();
+  private final AtomicLong messagesSent = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+
+  private static final class SerialTaskQueue implements TaskQueue {
+  }
+
+  // Completes with the decoded reply, or exceptionally with a FlutterException
+  // when the plugin replied with an error
+  CompletableFuture<Object> invokeMethod(String method, Object arguments) {
+    ByteBuffer message = readable(StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall(method, arguments)));
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    taskQueue.execute(() -> {
+      BinaryMessageHandler handler = handlers.get(CHANNEL);
+      if (handler == null) {
+        future.completeExceptionally(new IllegalStateException("No handler on " + CHANNEL));
+        return;
+      }
+      handler.onMessage(message, reply -> {
+        if (reply == null) {
+          future.complete(null);
+          return;
+        }
+        try {
+          future.complete(StandardMethodCodec.INSTANCE.decodeEnvelope(readable(reply)));
+        } catch (FlutterException e) {
+          future.completeExceptionally(e);
+        }
+      });
+    });
+    return future;
+  }
+
+  long getMessagesSent() {
+    return messagesSent.get();
+  }
+
+  long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  // Encoders leave the position at the end of what they wrote, which the
+  // engine takes as the message size
+  private static ByteBuffer readable(ByteBuffer buffer) {
+    if (buffer.position() != 0) {
+      buffer.flip();
+    }
+    return buffer;
+  }
+
+  @Override
+  public TaskQueue makeBackgroundTaskQueue(TaskQueueOptions options) {
+    return new SerialTaskQueue();
+  }
+
+  @Override
+  public void send(String channel, ByteBuffer message) {
+    send(channel, message, null);
+  }
+
+  @Override
+  public void send(String channel, ByteBuffer message, BinaryReply callback) {
+    messagesSent.incrementAndGet();
+    if (message != null) {
+      bytesSent.addAndGet(message.position() != 0 ? message.position() : message.remaining());
+    }
+    if (callback != null) {
+      callback.reply(null);
+    }
+  }
+
+  @Override
+  public void setMessageHandler(String channel, BinaryMessageHandler handler) {
+    if (handler == null) {
+      handlers.remove(channel);
+    } else {
+      handlers.put(channel, handler);
+    }
+  }
+
+  @Override
+  public void setMessageHandler(String channel, BinaryMessageHandler handler, TaskQueue taskQueue) {
+    setMessageHandler(channel, handler);
+  }
+
+  @Override
+  public void close() {
+    taskQueue.shutdownNow();
+  }
+}
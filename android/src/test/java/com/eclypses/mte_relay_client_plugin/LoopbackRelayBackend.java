@@ -0,0 +1,304 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.mte.relay.RelayDataTaskListener;
+import com.mte.relay.RelayFileRequestProperties;
+import com.mte.relay.RelayStreamCompletionCallback;
+import com.mte.relay.RelayStreamResponseListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Relay backend that sends requests in the clear over HttpURLConnection to a
+// StandInRelayServer. Like the real relay it reads only the url, method,
+// headers and body of each request, holds one pair per request in flight
+// (pairPoolSize bounds concurrency) and pulls upload bodies through a pipe in
+// streamChunkSize chunks. There is no MTE encryption, so load runs measure
+// the plugin's own overhead on top of the network.
+final class LoopbackRelayBackend implements RelayBackend, AutoCloseable {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Semaphore pairs;
+  private final int pairPoolSize;
+  private volatile int streamChunkSize;
+
+  LoopbackRelayBackend(int pairPoolSize, int streamChunkSize) {
+    this.pairPoolSize = pairPoolSize;
+    this.streamChunkSize = streamChunkSize;
+    this.pairs = new Semaphore(pairPoolSize, true);
+  }
+
+  @Override
+  public <T> void addToMteRequestQueue(Request<T> request,
+                                       String[] headersToEncrypt,
+                                       String pathnamePrefix,
+                                       RelayDataTaskListener listener) {
+    executor.execute(() -> withPair(() -> {
+      HttpURLConnection connection = null;
+      try {
+        connection = open(request.getUrl(), methodName(request.getMethod()), request.getHeaders());
+        byte[] body = request.getBody();
+        if (body != null && body.length > 0) {
+          connection.setDoOutput(true);
+          connection.setFixedLengthStreamingMode(body.length);
+          try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+          }
+        }
+        int status = connection.getResponseCode();
+        Map<String, List<String>> responseHeaders = responseHeaders(connection);
+        if (status >= 400) {
+          listener.onError("Error Code " + status, responseHeaders);
+          return;
+        }
+        listener.onResponse(readAll(connection.getInputStream()), responseHeaders);
+      } catch (AuthFailureError | IOException e) {
+        listener.onError(e.getMessage(), null);
+      } finally {
+        if (connection != null) {
+          connection.disconnect();
+        }
+      }
+    }));
+  }
+
+  @Override
+  public void uploadFile(RelayFileRequestProperties properties,
+                         String route,
+                         String pathnamePrefix,
+                         RelayStreamResponseListener listener,
+                         RelayStreamCompletionCallback completionCallback) {
+    executor.execute(() -> withPair(() -> {
+      HttpURLConnection connection = null;
+      // Like the relay, a transfer keeps the chunk size it started with
+      int chunkSize = streamChunkSize;
+      PipedInputStream body = new PipedInputStream(chunkSize);
+      try {
+        properties.relayStreamCallback.getRequestBodyStream(new PipedOutputStream(body));
+        connection = open(properties.serverPath + route, "POST", properties.origHeaders);
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(chunkSize);
+        byte[] buffer = new byte[chunkSize];
+        int sent = 0;
+        OutputStream outputStream = connection.getOutputStream();
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+          outputStream.write(buffer, 0, read);
+          sent += read;
+          completionCallback.onProgressUpdate(sent, 0);
+        }
+        // Only a body read to its end is completed; when reading it fails the
+        // connection is dropped with the body unfinished
+        outputStream.close();
+        finish(connection, listener);
+      } catch (IOException e) {
+        listener.relayStreamResponse(false, "", e.getMessage(), null);
+      } finally {
+        // A body writer still blocked on the pipe gets an IOException
+        try {
+          body.close();
+        } catch (IOException ignored) {
+        }
+        if (connection != null) {
+          connection.disconnect();
+        }
+      }
+    }));
+  }
+
+  @Override
+  public void downloadFile(RelayFileRequestProperties properties,
+                           String pathnamePrefix,
+                           RelayStreamResponseListener listener) {
+    executor.execute(() -> withPair(() -> {
+      HttpURLConnection connection = null;
+      try {
+        connection = open(properties.serverPath + properties.route, "GET", properties.origHeaders);
+        int status = connection.getResponseCode();
+        if (status >= 400) {
+          listener.relayStreamResponse(false, "", "Error Code " + status, responseHeaders(connection));
+          return;
+        }
+        byte[] buffer = new byte[streamChunkSize];
+        long expected = connection.getContentLengthLong();
+        long received = 0;
+        try (InputStream inputStream = connection.getInputStream();
+             OutputStream outputStream = new FileOutputStream(properties.downloadPath)) {
+          int read;
+          while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+            received += read;
+          }
+        }
+        if (expected >= 0 && received < expected) {
+          throw new IOException("Premature EOF after " + received + " of " + expected + " bytes");
+        }
+        listener.relayStreamResponse(true, "", null, responseHeaders(connection));
+      } catch (IOException e) {
+        listener.relayStreamResponse(false, "", e.getMessage(), null);
+      } finally {
+        if (connection != null) {
+          connection.disconnect();
+        }
+      }
+    }));
+  }
+
+  private void withPair(Runnable task) {
+    try {
+      pairs.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    try {
+      task.run();
+    } finally {
+      pairs.release();
+    }
+  }
+
+  private static HttpURLConnection open(String url, String method, Map<String, String> headers) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod(method);
+    if (headers != null) {
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        connection.setRequestProperty(header.getKey(), header.getValue());
+      }
+    }
+    return connection;
+  }
+
+  private static void finish(HttpURLConnection connection, RelayStreamResponseListener listener) throws IOException {
+    int status = connection.getResponseCode();
+    Map<String, List<String>> responseHeaders = responseHeaders(connection);
+    if (status >= 400) {
+      listener.relayStreamResponse(false, "", "Error Code " + status, responseHeaders);
+      return;
+    }
+    String body = new String(readAll(connection.getInputStream()), StandardCharsets.UTF_8);
+    listener.relayStreamResponse(true, body, null, responseHeaders);
+  }
+
+  // HttpURLConnection reports the status line under a null key
+  private static Map<String, List<String>> responseHeaders(HttpURLConnection connection) {
+    Map<String, List<String>> headers = new HashMap<>();
+    for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+      if (header.getKey() != null) {
+        headers.put(header.getKey(), header.getValue());
+      }
+    }
+    return headers;
+  }
+
+  private static byte[] readAll(InputStream inputStream) throws IOException {
+    try (InputStream in = inputStream) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  // HttpURLConnection has no PATCH, so it is tunnelled through POST
+  private static String methodName(int method) {
+    switch (method) {
+      case Request.Method.POST:
+        return "POST";
+      case Request.Method.PUT:
+        return "PUT";
+      case Request.Method.DELETE:
+        return "DELETE";
+      case Request.Method.HEAD:
+        return "HEAD";
+      case Request.Method.OPTIONS:
+        return "OPTIONS";
+      case Request.Method.TRACE:
+        return "TRACE";
+      case Request.Method.PATCH:
+        return "POST";
+      default:
+        return "GET";
+    }
+  }
+
+  @Override
+  public void rePairWithRelayServer(String url) {
+  }
+
+  @Override
+  public String adjustRelaySettings(String serverUrl, int streamChunkSize, int pairPoolSize, Boolean persistPairs) {
+    return "";
+  }
+
+  @Override
+  public int getStreamChunkSizeSetting() {
+    return streamChunkSize;
+  }
+
+  @Override
+  public void setStreamChunkSize(int streamChunkSize) {
+    this.streamChunkSize = streamChunkSize;
+  }
+
+  @Override
+  public int getPairPoolSizeSetting() {
+    return pairPoolSize;
+  }
+
+  @Override
+  public boolean getPersistPairsSetting() {
+    return false;
+  }
+
+  @Override
+  public String[] getHostList() {
+    return new String[0];
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
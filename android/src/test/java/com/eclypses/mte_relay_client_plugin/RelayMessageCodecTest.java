@@ -0,0 +1,152 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMessageCodec;
+
+// Round trips the binary relayDataTask and writeToStream messages through
+// RelayMessageCodec, as lib/relay_message_codec.dart writes and reads them,
+// and checks that everything else is encoded as by StandardMessageCodec.
+public class RelayMessageCodecTest {
+
+  @Test
+  public void dataTaskArgumentsRoundTrip() {
+    Map<String, String> headers = new HashMap<>();
+    headers.put("Content-Type", "application/json");
+    headers.put("X-Request-Source", "test");
+    RelayMessageCodec.DataTaskArgs args = new RelayMessageCodec.DataTaskArgs();
+    args.put("url", "https://relay.example/api/data");
+    args.put("method", "POST");
+    args.put("headers", headers);
+    args.put("headersToEncrypt", Arrays.asList("Content-Type", "X-Request-Source"));
+    args.put("body", "{\"name\":\"value\"}");
+    args.put("sentAtMicros", 1_700_000_000_000_000L);
+    args.put("priority", "high");
+
+    Object decoded = roundTrip(args);
+    assertTrue(decoded instanceof RelayMessageCodec.DataTaskArgs);
+    assertEquals(args, decoded);
+    // Well-known names decode to the shared constant
+    Map<?, ?> decodedHeaders = (Map<?, ?>) ((Map<?, ?>) decoded).get("headers");
+    for (Object name : decodedHeaders.keySet()) {
+      if ("Content-Type".equals(name)) {
+        assertSame(RelayMessageCodec.HEADER_NAMES[0], name);
+      }
+    }
+    assertSame(RelayMessageCodec.HEADER_NAMES[0], ((List<?>) ((Map<?, ?>) decoded).get("headersToEncrypt")).get(0));
+  }
+
+  @Test
+  public void dataTaskResultRoundTrip() {
+    Map<String, List<String>> headers = new HashMap<>();
+    headers.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+    headers.put("ETag", Collections.singletonList("\"v1\""));
+    headers.put("X-Trace", Arrays.asList("a", "b"));
+    Map<String, Object> result = new HashMap<>();
+    result.put("success", true);
+    result.put("data", new byte[]{1, 2, 3});
+    result.put("headers", headers);
+    result.put("cached", true);
+
+    Map<?, ?> decoded = (Map<?, ?>) roundTrip(new RelayMessageCodec.DataTaskResult(result));
+    assertEquals(true, decoded.get("success"));
+    assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) decoded.get("data"));
+    assertEquals(headers, decoded.get("headers"));
+    assertEquals(true, decoded.get("cached"));
+    assertNull(decoded.get("contentType"));
+
+    Map<String, Object> failure = new HashMap<>();
+    failure.put("success", false);
+    failure.put("data", null);
+    failure.put("headers", null);
+    decoded = (Map<?, ?>) roundTrip(new RelayMessageCodec.DataTaskResult(failure));
+    assertEquals(failure, decoded);
+  }
+
+  @Test
+  public void chunkRoundTrip() {
+    RelayMessageCodec.ChunkArgs chunk = new RelayMessageCodec.ChunkArgs();
+    chunk.put("streamID", "upload-1");
+    chunk.put("data", new byte[]{9, 8, 7});
+    Map<?, ?> decoded = (Map<?, ?>) roundTrip(chunk);
+    assertTrue(decoded instanceof RelayMessageCodec.ChunkArgs);
+    assertEquals("upload-1", decoded.get("streamID"));
+    assertArrayEquals(new byte[]{9, 8, 7}, (byte[]) decoded.get("data"));
+  }
+
+  @Test
+  public void standardValuesAreEncodedAsBefore() {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", "https://relay.example/api/data");
+    args.put("headers", Collections.singletonMap("Accept", "*/*"));
+    args.put("body", new byte[]{1, 2});
+    args.put("attempts", Arrays.asList(1, 2L, 3.5));
+    assertEquals(bytesOf(StandardMessageCodec.INSTANCE.encodeMessage(args)),
+            bytesOf(RelayMessageCodec.INSTANCE.encodeMessage(args)));
+
+    MethodCall call = RelayMessageCodec.METHOD_CODEC.decodeMethodCall(
+            readable(RelayMessageCodec.METHOD_CODEC.encodeMethodCall(new MethodCall("relayDataTask", args))));
+    assertTrue(call.arguments instanceof HashMap);
+    assertTrue(!(call.arguments instanceof RelayMessageCodec.DataTaskArgs));
+  }
+
+  private static Object roundTrip(Object value) {
+    return RelayMessageCodec.INSTANCE.decodeMessage(readable(RelayMessageCodec.INSTANCE.encodeMessage(value)));
+  }
+
+  // Encoders leave the position at the end of what they wrote
+  private static ByteBuffer readable(ByteBuffer buffer) {
+    if (buffer.position() != 0) {
+      buffer.flip();
+    }
+    return buffer;
+  }
+
+  private static List<Byte> bytesOf(ByteBuffer buffer) {
+    ByteBuffer readable = readable(buffer);
+    Byte[] bytes = new Byte[readable.remaining()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = readable.get();
+    }
+    return Arrays.asList(bytes);
+  }
+}
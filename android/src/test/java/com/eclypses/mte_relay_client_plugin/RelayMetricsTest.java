@@ -0,0 +1,98 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Checks that a retried request records the relay phases of its last attempt
+// only, while its body and round-trip samples count every attempt.
+public class RelayMetricsTest {
+  private final List<Long> roundTrips = new ArrayList<>();
+  private final RelayMetrics metrics = new RelayMetrics(roundTrips::add);
+
+  @Test
+  public void retriedRequestRecordsOnlyItsLastAttempt() throws InterruptedException {
+    RelayMetrics.Trace trace = metrics.begin("GET", "https://relay.example.com/api/data");
+    CapturingResult reply = new CapturingResult();
+    trace.built();
+
+    // Paired on the way, sent, then timed out without a reply
+    RelayMetrics.Attempt timedOut = trace.attempt(true);
+    timedOut.bodyRead(10);
+    Thread.sleep(30);
+    // Queued again and answered
+    RelayMetrics.Attempt answered = trace.attempt(false);
+    answered.bodyRead(10);
+    answered.responded();
+    trace.wrap(reply).success(null);
+
+    Map<String, Object> snapshot = metrics.snapshot();
+    assertEquals(1L, count(snapshot, "createRequest"));
+    assertEquals(1L, count(snapshot, "queueWait"));
+    assertEquals(0L, count(snapshot, "pairing"));
+    assertEquals(1L, count(snapshot, "relayRoundTrip"));
+    assertEquals(1L, count(snapshot, "responseProcessing"));
+    assertEquals(1L, count(snapshot, "total"));
+    // The first attempt's 30 ms stays out of the round trip
+    assertTrue(maxMs(snapshot, "relayRoundTrip") < 30);
+    assertTrue(maxMs(snapshot, "total") >= 30);
+    assertEquals(20L, snapshot.get("bytesOut"));
+    assertEquals(1, roundTrips.size());
+    assertEquals(0L, snapshot.get("errors"));
+    assertEquals(0, snapshot.get("inFlight"));
+  }
+
+  @Test
+  public void requestAnsweredBeforeAnyAttemptRecordsNoRelayPhases() {
+    RelayMetrics.Trace trace = metrics.begin("POST", null);
+    CapturingResult reply = new CapturingResult();
+    trace.wrap(reply).error("INVALID_ARGUMENTS", "Invalid arguments", null);
+
+    Map<String, Object> snapshot = metrics.snapshot();
+    assertFalse(((Map<?, ?>) snapshot.get("phases")).containsKey("queueWait"));
+    assertFalse(((Map<?, ?>) snapshot.get("phases")).containsKey("responseProcessing"));
+    assertEquals(1L, count(snapshot, "total"));
+    assertEquals(1L, snapshot.get("errors"));
+    assertEquals("INVALID_ARGUMENTS", reply.errorCode);
+  }
+
+  private static long count(Map<String, Object> snapshot, String phase) {
+    Map<?, ?> histogram = (Map<?, ?>) ((Map<?, ?>) snapshot.get("phases")).get(phase);
+    return histogram != null ? ((Number) histogram.get("count")).longValue() : 0;
+  }
+
+  private static double maxMs(Map<String, Object> snapshot, String phase) {
+    Map<?, ?> histogram = (Map<?, ?>) ((Map<?, ?>) snapshot.get("phases")).get(phase);
+    return ((Number) histogram.get("maxMs")).doubleValue();
+  }
+}
@@ -0,0 +1,112 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs relayDataTask through the plugin against a relay that answers late
+// and checks that timeoutMs, which the plugin enforces itself, fails and
+// retries the attempt well before the relay's answer arrives.
+public class RelayTimeoutTest {
+  private static final String URL = StubRelayBackend.HOST + "/api/slow";
+  private static final long ANSWER_AFTER_MS = 2000;
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final ScheduledExecutorService relayThread = Executors.newSingleThreadScheduledExecutor();
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @Before
+  public void setUp() {
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(new StubRelayBackend((request, pathnamePrefix, listener) -> {
+      requests.incrementAndGet();
+      relayThread.schedule(() -> listener.onResponse(
+              "{\"late\":true}".getBytes(StandardCharsets.UTF_8), Collections.emptyMap()),
+              ANSWER_AFTER_MS, TimeUnit.MILLISECONDS);
+    }));
+  }
+
+  @After
+  public void tearDown() {
+    relayThread.shutdownNow();
+    messenger.close();
+    mainThread.close();
+  }
+
+  @Test
+  public void timeoutFailsAndRetriesAnUnansweredAttempt() throws Exception {
+    Map<String, Object> args = args();
+    args.put("timeoutMs", 150);
+    args.put("maxAttempts", 2);
+    args.put("backoffMs", 0);
+    long startNanos = System.nanoTime();
+
+    Map<?, ?> reply = (Map<?, ?>) messenger.invokeMethod("relayDataTask", args).get(5, TimeUnit.SECONDS);
+
+    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    assertEquals(false, reply.get("success"));
+    assertEquals(2, requests.get());
+    assertTrue("took " + elapsedMs + " ms", elapsedMs >= 300 && elapsedMs < ANSWER_AFTER_MS);
+    Map<?, ?> metrics = (Map<?, ?>) messenger.invokeMethod("getRelayMetrics", null).get(5, TimeUnit.SECONDS);
+    assertEquals(2L, ((Number) metrics.get("timeouts")).longValue());
+    assertEquals(1L, ((Number) metrics.get("retries")).longValue());
+  }
+
+  @Test
+  public void withoutTimeoutTheRelayAnswerIsAwaited() throws Exception {
+    Map<?, ?> reply = (Map<?, ?>) messenger.invokeMethod("relayDataTask", args()).get(5, TimeUnit.SECONDS);
+
+    assertEquals(true, reply.get("success"));
+    assertEquals(1, requests.get());
+  }
+
+  private static Map<String, Object> args() {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", URL);
+    args.put("method", "GET");
+    args.put("headers", new HashMap<>());
+    args.put("headersToEncrypt", Collections.emptyList());
+    args.put("cache", false);
+    return args;
+  }
+}
@@ -0,0 +1,166 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Checks which relayDataTask calls share a flight and what each waiter gets back
+public class RequestCoalescerTest {
+
+  @Test
+  public void requestsThatDifferInWhatShapesTheReplyGetOtherKeys() {
+    String key = RequestCoalescer.keyFor(args());
+
+    Map<String, Object> prefixed = args();
+    prefixed.put("pathnamePrefix", "/v2");
+    Map<String, Object> encrypted = args();
+    encrypted.put("headersToEncrypt", Collections.singletonList("Authorization"));
+    Map<String, Object> raw = args();
+    raw.put("rawResponse", true);
+    Map<String, Object> otherHeader = args();
+    otherHeader.put("headers", Collections.singletonMap("Accept", "text/plain"));
+
+    for (Map<String, Object> other : Arrays.asList(prefixed, encrypted, raw, otherHeader)) {
+      assertNotEquals(key, RequestCoalescer.keyFor(other));
+    }
+    // Header names match case-insensitively
+    Map<String, Object> sameHeader = args();
+    sameHeader.put("headers", Collections.singletonMap("ACCEPT", "application/json"));
+    assertEquals(key, RequestCoalescer.keyFor(sameHeader));
+  }
+
+  @Test
+  public void unsafeOrOptedOutRequestsAreNotShared() {
+    Map<String, Object> post = args();
+    post.put("method", "POST");
+    Map<String, Object> optedOut = args();
+    optedOut.put("coalesce", false);
+
+    assertNull(RequestCoalescer.keyFor(post));
+    assertNull(RequestCoalescer.keyFor(optedOut));
+  }
+
+  @Test
+  public void requestsThatCanBeCancelledOrExpireAreNotShared() {
+    for (String own : Arrays.asList("requestID", "tag", "timeoutMs", "deadlineMs")) {
+      Map<String, Object> args = args();
+      args.put(own, "timeoutMs".equals(own) || "deadlineMs".equals(own) ? (Object) 1000 : "id-1");
+      assertNull(own, RequestCoalescer.keyFor(args));
+    }
+  }
+
+  @Test
+  public void everyWaiterGetsItsOwnCopyOfTheReply() {
+    RequestCoalescer coalescer = new RequestCoalescer();
+    String key = RequestCoalescer.keyFor(args());
+    CapturingResult first = new CapturingResult();
+    CapturingResult second = new CapturingResult();
+    MethodChannel.Result leader = coalescer.join(key, first);
+    assertNotNull(leader);
+    assertNull(coalescer.join(key, second));
+
+    Map<String, Object> reply = new HashMap<>();
+    reply.put("success", true);
+    leader.success(reply);
+
+    assertEquals(reply, first.value);
+    assertEquals(reply, second.value);
+    assertNotSame(first.value, second.value);
+    // The flight is over, so the next call leads a new one
+    assertNotNull(coalescer.join(key, new CapturingResult()));
+  }
+
+  @Test
+  public void everyWaiterGetsItsOwnSpilledFile() throws Exception {
+    RequestCoalescer coalescer = new RequestCoalescer();
+    String key = RequestCoalescer.keyFor(args());
+    CapturingResult first = new CapturingResult();
+    CapturingResult second = new CapturingResult();
+    MethodChannel.Result leader = coalescer.join(key, first);
+    coalescer.join(key, second);
+    byte[] body = "{\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+    File spilled = File.createTempFile("response", ".bin");
+    Files.write(spilled.toPath(), body);
+
+    Map<String, Object> reply = new HashMap<>();
+    reply.put("success", true);
+    reply.put("filePath", spilled.getAbsolutePath());
+    leader.success(reply);
+
+    File firstFile = new File((String) ((Map<?, ?>) first.value).get("filePath"));
+    File secondFile = new File((String) ((Map<?, ?>) second.value).get("filePath"));
+    try {
+      assertEquals(spilled, firstFile);
+      assertNotEquals(firstFile, secondFile);
+      // Each caller deletes its file without taking the other's
+      assertTrue(firstFile.delete());
+      assertArrayEquals(body, Files.readAllBytes(secondFile.toPath()));
+    } finally {
+      firstFile.delete();
+      secondFile.delete();
+    }
+  }
+
+  @Test
+  public void anErrorReachesEveryWaiter() {
+    RequestCoalescer coalescer = new RequestCoalescer();
+    String key = RequestCoalescer.keyFor(args());
+    CapturingResult first = new CapturingResult();
+    CapturingResult second = new CapturingResult();
+    MethodChannel.Result leader = coalescer.join(key, first);
+    coalescer.join(key, second);
+
+    leader.error("DEADLINE_EXCEEDED", "late", null);
+
+    assertEquals("DEADLINE_EXCEEDED", first.errorCode);
+    assertEquals("DEADLINE_EXCEEDED", second.errorCode);
+  }
+
+  private static Map<String, Object> args() {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", "https://relay.example.com/api/data");
+    args.put("method", "GET");
+    args.put("headers", Collections.singletonMap("Accept", "application/json"));
+    return args;
+  }
+}
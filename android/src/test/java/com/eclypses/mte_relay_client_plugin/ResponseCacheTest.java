@@ -0,0 +1,239 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs relayDataTask GETs through the plugin against a scripted relay and
+// checks what the response cache serves and what it sends on.
+public class ResponseCacheTest {
+  private static final String URL = StubRelayBackend.HOST + "/api/profile";
+  private static final String FRESH_URL = StubRelayBackend.HOST + "/api/settings";
+  private static final String LIST_URL = StubRelayBackend.HOST + "/api/catalog";
+  private static final String EMPTY_URL = StubRelayBackend.HOST + "/api/inbox";
+  private static final String ETAG = "\"v1\"";
+  private static final byte[] BODY = "{\"name\":\"relay\"}".getBytes(StandardCharsets.UTF_8);
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final List<String> conditionalRequests = Collections.synchronizedList(new ArrayList<>());
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @Before
+  public void setUp() {
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    // URL is stale at once but revalidatable by ETag; the server answers a
+    // matching If-None-Match with an empty body and "Status: 304", as the
+    // relay cannot pass a 304 on. EMPTY_URL answers it with a plain empty
+    // 2xx. FRESH_URL and LIST_URL, a JSON array, stay fresh for a minute.
+    plugin.setRelayBackend(new StubRelayBackend((request, pathnamePrefix, listener) -> {
+      requests.incrementAndGet();
+      Map<String, List<String>> headers = new HashMap<>();
+      headers.put("ETag", Collections.singletonList(ETAG));
+      headers.put("Cache-Control", Collections.singletonList(
+              request.getUrl().equals(URL) || request.getUrl().equals(EMPTY_URL) ? "no-cache" : "max-age=60"));
+      String ifNoneMatch = request.getHeaders().get("If-None-Match");
+      if (ifNoneMatch != null) {
+        conditionalRequests.add(ifNoneMatch);
+      }
+      if (request.getUrl().equals(LIST_URL)) {
+        listener.onResponse("[1,2]".getBytes(StandardCharsets.UTF_8), headers);
+      } else if (ETAG.equals(ifNoneMatch)) {
+        if (!request.getUrl().equals(EMPTY_URL)) {
+          headers.put("Status", Collections.singletonList("304 Not Modified"));
+        }
+        listener.onResponse(new byte[0], headers);
+      } else {
+        // Each prefix gets a body of its own, so a shared entry shows
+        listener.onResponse(pathnamePrefix != null
+                ? ("{\"prefix\":\"" + pathnamePrefix + "\"}").getBytes(StandardCharsets.UTF_8)
+                : BODY, headers);
+      }
+    }));
+  }
+
+  @After
+  public void tearDown() {
+    messenger.close();
+    mainThread.close();
+  }
+
+  @Test
+  public void revalidatesStaleEntryInJsonMode() throws Exception {
+    enableCache();
+    Map<?, ?> first = get(args());
+    assertEquals(true, first.get("success"));
+
+    Map<?, ?> revalidated = get(args());
+
+    assertEquals(Collections.singletonList(ETAG), conditionalRequests);
+    assertEquals(true, revalidated.get("success"));
+    assertEquals(true, revalidated.get("cached"));
+    assertArrayEquals(BODY, (byte[]) revalidated.get("data"));
+    assertEquals(1L, ((Number) stats().get("revalidated")).longValue());
+  }
+
+  @Test
+  public void revalidatesStaleEntryInRawMode() throws Exception {
+    enableCache();
+    Map<String, Object> args = args();
+    args.put("rawResponse", true);
+    get(args);
+
+    Map<?, ?> revalidated = get(args);
+
+    assertEquals(true, revalidated.get("cached"));
+    assertArrayEquals(BODY, (byte[]) revalidated.get("data"));
+  }
+
+  @Test
+  public void conditionalRequestWithoutCacheEntryIsNotAnError() throws Exception {
+    Map<String, Object> args = args();
+    args.put("cache", false);
+    args.put("headers", Collections.singletonMap("If-None-Match", ETAG));
+
+    Map<?, ?> notModified = get(args);
+
+    assertEquals(true, notModified.get("success"));
+    assertEquals(0, ((byte[]) notModified.get("data")).length);
+  }
+
+  @Test
+  public void emptyReplyWithoutNotModifiedStatusReplacesTheEntry() throws Exception {
+    enableCache();
+    Map<String, Object> args = args();
+    args.put("url", EMPTY_URL);
+    args.put("rawResponse", true);
+    get(args);
+
+    Map<?, ?> emptied = get(args);
+
+    assertEquals(Collections.singletonList(ETAG), conditionalRequests);
+    assertNull(emptied.get("cached"));
+    assertEquals(0, ((byte[]) emptied.get("data")).length);
+    assertEquals(0L, ((Number) stats().get("revalidated")).longValue());
+  }
+
+  @Test
+  public void requestsForOtherRoutesOrModesDoNotShareEntries() throws Exception {
+    enableCache();
+    get(freshArgs());
+    assertEquals(true, get(freshArgs()).get("cached"));
+    assertEquals(1, requests.get());
+
+    Map<String, Object> prefixed = freshArgs();
+    prefixed.put("pathnamePrefix", "/v2");
+    Map<?, ?> fromOtherRoute = get(prefixed);
+    assertNull(fromOtherRoute.get("cached"));
+    assertEquals("{\"prefix\":\"/v2\"}", new String((byte[]) fromOtherRoute.get("data"), StandardCharsets.UTF_8));
+
+    Map<String, Object> encrypted = freshArgs();
+    encrypted.put("headersToEncrypt", Collections.singletonList("Accept"));
+    assertNull(get(encrypted).get("cached"));
+
+    Map<String, Object> raw = freshArgs();
+    raw.put("rawResponse", true);
+    assertNull(get(raw).get("cached"));
+    assertEquals(4, requests.get());
+
+    // Each one is cached under its own key
+    Map<?, ?> cachedPrefixed = get(prefixed);
+    assertEquals(true, cachedPrefixed.get("cached"));
+    assertArrayEquals((byte[]) fromOtherRoute.get("data"), (byte[]) cachedPrefixed.get("data"));
+    assertArrayEquals(BODY, (byte[]) get(freshArgs()).get("data"));
+    assertEquals(4, requests.get());
+  }
+
+  @Test
+  public void cacheIsOffUntilSized() throws Exception {
+    get(freshArgs());
+    Map<?, ?> second = get(freshArgs());
+
+    assertNull(second.get("cached"));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void jsonArrayResponseKeepsItsHeaders() throws Exception {
+    enableCache();
+    Map<String, Object> args = args();
+    args.put("url", LIST_URL);
+
+    Map<?, ?> first = get(args);
+
+    assertEquals("max-age=60", ResponseCache.header(first.get("headers"), "Cache-Control"));
+    assertEquals(ETAG, ResponseCache.header(first.get("headers"), "ETag"));
+    // Only a response with its Cache-Control can be stored
+    assertEquals(true, get(args).get("cached"));
+    assertEquals(1, requests.get());
+  }
+
+  // The cache is off until the app sizes it
+  private void enableCache() throws Exception {
+    messenger.invokeMethod("adjustRelaySettings", Collections.singletonMap("responseCacheBytes", 1024 * 1024))
+            .get(5, TimeUnit.SECONDS);
+  }
+
+  private Map<?, ?> get(Map<String, Object> args) throws Exception {
+    return (Map<?, ?>) messenger.invokeMethod("relayDataTask", args).get(5, TimeUnit.SECONDS);
+  }
+
+  private Map<?, ?> stats() throws Exception {
+    return (Map<?, ?>) messenger.invokeMethod("getRelayCacheStats", null).get(5, TimeUnit.SECONDS);
+  }
+
+  private static Map<String, Object> freshArgs() {
+    Map<String, Object> args = args();
+    args.put("url", FRESH_URL);
+    return args;
+  }
+
+  private static Map<String, Object> args() {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", URL);
+    args.put("method", "GET");
+    args.put("headers", new HashMap<>(Collections.singletonMap("Accept", "application/json")));
+    args.put("headersToEncrypt", Collections.emptyList());
+    return args;
+  }
+}
@@ -0,0 +1,336 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.volley.Request;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+// Drops transfers part way on a StandInRelayServer and checks that resumable
+// downloads and uploads continue from their checkpoint, both within one run
+// and from a new run as after a process restart.
+public class ResumableTransferTest {
+  private static final int STREAM_CHUNK = 16 * 1024;
+  private static final RelayRetryPolicy BACKOFF = new RelayRetryPolicy(0, 1, 10, 50, 0);
+
+  private StandInRelayServer server;
+  private LoopbackRelayBackend relay;
+  private RequestScheduler scheduler;
+  private ScheduledExecutorService timer;
+  private ExecutorService executor;
+  private File workDir;
+
+  private static final class Outcome {
+    final boolean success;
+    final String errorMessage;
+    final long resumeOffset;
+
+    Outcome(boolean success, String errorMessage, long resumeOffset) {
+      this.success = success;
+      this.errorMessage = errorMessage;
+      this.resumeOffset = resumeOffset;
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = new StandInRelayServer(0, 0, 0, 0, 16);
+    relay = new LoopbackRelayBackend(4, STREAM_CHUNK);
+    scheduler = new RequestScheduler(() -> 4);
+    timer = Executors.newSingleThreadScheduledExecutor();
+    executor = Executors.newCachedThreadPool();
+    workDir = Files.createTempDirectory("mte-relay-resume").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    timer.shutdownNow();
+    executor.shutdownNow();
+    relay.close();
+    server.close();
+    File[] files = workDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    workDir.delete();
+  }
+
+  @Test
+  public void downloadResumesAfterDroppedConnection() throws Exception {
+    long size = 1_000_123;
+    int segment = 256 * 1024;
+    server.failNextTransfers(2, 100_000);
+    File target = new File(workDir, "download.bin");
+
+    Outcome outcome = download(target, size, 3, segment).get(30, TimeUnit.SECONDS);
+
+    assertTrue(outcome.errorMessage, outcome.success);
+    assertPattern(target, size);
+    assertFalse(ResumableDownload.checkpointFile(target).exists());
+    assertFalse(new File(target.getPath() + ".part").exists());
+    List<String> ranges = server.rangesRequested();
+    // The first drop keeps the whole stream chunks it got; the second, past
+    // offset 0 with no Content-Range to trust, keeps none
+    long kept = 100_000 / STREAM_CHUNK * STREAM_CHUNK;
+    assertEquals("bytes=0-" + (segment - 1), ranges.get(0));
+    assertEquals("bytes=" + kept + "-" + (kept + segment - 1), ranges.get(1));
+    assertEquals(ranges.get(1), ranges.get(2));
+    assertEquals("bytes=" + (kept + segment) + "-" + (kept + 2L * segment - 1), ranges.get(3));
+  }
+
+  @Test
+  public void uploadResumesFromServerOffset() throws Exception {
+    byte[] prefix = "--part\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+    byte[] suffix = "\r\n--part--\r\n".getBytes(StandardCharsets.UTF_8);
+    byte[] content = new byte[700_000];
+    new Random(7).nextBytes(content);
+    File file = new File(workDir, "upload.bin");
+    try (OutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(content);
+    }
+    server.failNextTransfers(2, 200_000);
+
+    Outcome outcome = upload("upload-1", file, prefix, suffix, 3).get(30, TimeUnit.SECONDS);
+
+    assertTrue(outcome.errorMessage, outcome.success);
+    byte[] expected = new byte[prefix.length + content.length + suffix.length];
+    System.arraycopy(prefix, 0, expected, 0, prefix.length);
+    System.arraycopy(content, 0, expected, prefix.length, content.length);
+    System.arraycopy(suffix, 0, expected, prefix.length + content.length, suffix.length);
+    assertArrayEquals(expected, server.uploaded("upload-1"));
+    assertEquals(expected.length, outcome.resumeOffset);
+    assertFalse(new File(workDir, "upload-1.checkpoint").exists());
+  }
+
+  @Test
+  public void transfersContinueAfterRestart() throws Exception {
+    long size = 600_000;
+    File target = new File(workDir, "restart.bin");
+    // The second drop, past offset 0, moves nothing forward, so the single attempt is used up
+    server.failNextTransfers(2, 300_000);
+
+    Outcome failed = download(target, size, 1, 0).get(30, TimeUnit.SECONDS);
+
+    assertFalse(failed.success);
+    long kept = 300_000 / STREAM_CHUNK * STREAM_CHUNK;
+    assertEquals(kept, failed.resumeOffset);
+    assertTrue(ResumableDownload.checkpointFile(target).exists());
+
+    // A fresh scheduler and transfer, as in a new process, pick up the checkpoint
+    scheduler = new RequestScheduler(() -> 4);
+    Outcome resumed = download(target, size, 1, 0).get(30, TimeUnit.SECONDS);
+
+    assertTrue(resumed.errorMessage, resumed.success);
+    assertPattern(target, size);
+    List<String> ranges = server.rangesRequested();
+    assertEquals("bytes=" + kept + "-", ranges.get(ranges.size() - 1));
+
+    byte[] content = new byte[500_000];
+    new Random(11).nextBytes(content);
+    File file = new File(workDir, "restart-upload.bin");
+    try (OutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(content);
+    }
+    server.failNextTransfers(1, 150_000);
+    assertFalse(upload("upload-2", file, null, null, 1).get(30, TimeUnit.SECONDS).success);
+    assertTrue(new File(workDir, "upload-2.checkpoint").exists());
+
+    scheduler = new RequestScheduler(() -> 4);
+    Outcome uploaded = upload("upload-2", file, null, null, 1).get(30, TimeUnit.SECONDS);
+
+    assertTrue(uploaded.errorMessage, uploaded.success);
+    assertArrayEquals(content, server.uploaded("upload-2"));
+  }
+
+  @Test
+  public void uploadIsNotDoneUntilServerConfirmsWholeBody() throws Exception {
+    byte[] content = new byte[300_000];
+    new Random(13).nextBytes(content);
+    File file = new File(workDir, "shrunk.bin");
+    try (OutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(content);
+    }
+
+    // As if the file shrank after its length was taken: the body ends
+    // cleanly and the server answers 200, but with less than Upload-Length
+    Outcome outcome = upload("upload-3", file, null, null, 1, 400_000, sent -> { })
+        .get(30, TimeUnit.SECONDS);
+
+    assertFalse(outcome.success);
+    assertTrue(outcome.errorMessage, outcome.errorMessage.contains("300000 of 400000"));
+    assertTrue(new File(workDir, "upload-3.checkpoint").exists());
+  }
+
+  @Test
+  public void cancelledUploadFailsItsBodyAndResumes() throws Exception {
+    byte[] content = new byte[2_000_000];
+    new Random(17).nextBytes(content);
+    File file = new File(workDir, "cancelled.bin");
+    try (OutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(content);
+    }
+
+    RequestScheduler first = scheduler;
+    Outcome cancelled = upload("upload-4", file, null, null, 1, content.length, sent -> {
+      if (sent >= 8 * STREAM_CHUNK) {
+        first.cancel("upload-4", null);
+      }
+    }).get(30, TimeUnit.SECONDS);
+    assertEquals("cancelled", cancelled.errorMessage);
+    assertTrue(new File(workDir, "upload-4.checkpoint").exists());
+
+    scheduler = new RequestScheduler(() -> 4);
+    Outcome resumed = upload("upload-4", file, null, null, 3).get(30, TimeUnit.SECONDS);
+
+    assertTrue(resumed.errorMessage, resumed.success);
+    assertArrayEquals(content, server.uploaded("upload-4"));
+    // Only the resumed request reached the server whole; the cancelled
+    // body was failed, not ended short
+    List<Long> completed = server.completedUploads();
+    assertEquals(1, completed.size());
+    assertTrue(completed.get(0) < content.length);
+  }
+
+  private CompletableFuture<Outcome> download(File target, long size, int attempts, int segmentBytes) {
+    CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+    new ResumableDownload(
+            "download",
+            null,
+            Request.Priority.NORMAL,
+            relay,
+            scheduler,
+            timer,
+            BACKOFF,
+            attempts,
+            server.baseUrl(),
+            "/api/download/" + size,
+            "",
+            new HashMap<>(),
+            new String[0],
+            target,
+            segmentBytes,
+            listener(outcome)).start();
+    return outcome;
+  }
+
+  private CompletableFuture<Outcome> upload(String transferID, File file, byte[] prefix, byte[] suffix, int attempts) {
+    long totalBytes = FileUploadStreamer.bodyLength(null, file.getPath(), prefix, suffix);
+    return upload(transferID, file, prefix, suffix, attempts, totalBytes, sent -> { });
+  }
+
+  private CompletableFuture<Outcome> upload(String transferID,
+                                            File file,
+                                            byte[] prefix,
+                                            byte[] suffix,
+                                            int attempts,
+                                            long totalBytes,
+                                            LongConsumer onSent) {
+    CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+    TransferProgress progress = new TransferProgress(transferID, 100, 0.01, totalBytes);
+    new ResumableUpload(
+            transferID,
+            null,
+            Request.Priority.NORMAL,
+            relay,
+            scheduler,
+            timer,
+            BACKOFF,
+            attempts,
+            null,
+            executor,
+            server.baseUrl(),
+            "/api/resumable",
+            "",
+            new HashMap<>(),
+            new String[0],
+            file.getPath(),
+            prefix,
+            suffix,
+            totalBytes,
+            workDir,
+            progress,
+            (bytesCompleted, total) -> {
+              progress.update(bytesCompleted, total);
+              onSent.accept(bytesCompleted);
+            },
+            listener(outcome)).start();
+    return outcome;
+  }
+
+  private static ResumableTransfer.Listener listener(CompletableFuture<Outcome> outcome) {
+    return new ResumableTransfer.Listener() {
+      @Override
+      public void finished(boolean success,
+                           String responseStr,
+                           String errorMessage,
+                           Map<String, List<String>> responseHeaders,
+                           long resumeOffset) {
+        outcome.complete(new Outcome(success, errorMessage, resumeOffset));
+      }
+
+      @Override
+      public void cancelled() {
+        outcome.complete(new Outcome(false, "cancelled", -1));
+      }
+    };
+  }
+
+  private static void assertPattern(File file, long size) throws IOException {
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    assertEquals(size, bytes.length);
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] != StandInRelayServer.patternAt(i)) {
+        throw new AssertionError("Byte " + i + " differs");
+      }
+    }
+  }
+}
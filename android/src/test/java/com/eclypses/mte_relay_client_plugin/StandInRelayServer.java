@@ -0,0 +1,357 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Local HTTP server standing in for the relay server and the API behind it.
+// Every exchange waits latencyMs plus up to jitterMs, fails with a 503 at
+// errorRate, and moves its body at no more than bytesPerSecond (0 = unlimited).
+//   /api/data          replies with a JSON body of responseBytes
+//   /api/upload        reads the whole request body and reports its size;
+//                      the sizes of complete bodies are kept (completedUploads)
+//   /api/download/<n>  streams n bytes of a fixed pattern (see patternAt),
+//                      honouring Range and If-Range against its ETag
+//   /api/resumable     appends each POST body to the upload named by its
+//                      Upload-ID header when Upload-Offset matches what the
+//                      server has (409 otherwise); HEAD reports Upload-Offset
+// failNextTransfers makes downloads and uploads drop the connection part way.
+final class StandInRelayServer implements AutoCloseable {
+  private static final int IO_CHUNK = 16 * 1024;
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final long latencyMs;
+  private final long jitterMs;
+  private final long bytesPerSecond;
+  private final double errorRate;
+  private final byte[] dataResponse;
+  private final AtomicInteger failuresLeft = new AtomicInteger();
+  private volatile long failAfterBytes;
+  private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+  private final Map<String, byte[]> uploads = new ConcurrentHashMap<>();
+  private final List<Long> completedUploads = Collections.synchronizedList(new ArrayList<>());
+
+  StandInRelayServer(long latencyMs, long jitterMs, long bytesPerSecond, double errorRate, int responseBytes)
+          throws IOException {
+    this.latencyMs = latencyMs;
+    this.jitterMs = jitterMs;
+    this.bytesPerSecond = bytesPerSecond;
+    this.errorRate = errorRate;
+    this.dataResponse = jsonOfSize(responseBytes);
+
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/api/data", this::data);
+    server.createContext("/api/upload", this::upload);
+    server.createContext("/api/download/", this::download);
+    server.createContext("/api/resumable", this::resumable);
+    server.start();
+  }
+
+  String baseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  // The next count downloads or uploads break the connection once afterBytes
+  // of their body have gone through
+  void failNextTransfers(int count, long afterBytes) {
+    failAfterBytes = afterBytes;
+    failuresLeft.set(count);
+  }
+
+  // Range headers of the downloads so far, null where there was none
+  List<String> rangesRequested() {
+    synchronized (ranges) {
+      return new ArrayList<>(ranges);
+    }
+  }
+
+  // Body sizes of the /api/upload and /api/resumable POSTs received in full
+  List<Long> completedUploads() {
+    synchronized (completedUploads) {
+      return new ArrayList<>(completedUploads);
+    }
+  }
+
+  // What the server holds of a resumable upload
+  byte[] uploaded(String uploadID) {
+    return uploads.get(uploadID);
+  }
+
+  static byte patternAt(long position) {
+    return (byte) (position * 31 + (position >>> 11));
+  }
+
+  private static String etagOf(long size) {
+    return "\"pattern-" + size + "\"";
+  }
+
+  private boolean takeFailure() {
+    return failuresLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0;
+  }
+
+  private static byte[] jsonOfSize(int size) {
+    String prefix = "{\"data\":\"";
+    String suffix = "\"}";
+    char[] padding = new char[Math.max(0, size - prefix.length() - suffix.length())];
+    Arrays.fill(padding, 'x');
+    return (prefix + new String(padding) + suffix).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private void data(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!delayOrFail(exchange)) {
+        return;
+      }
+      drain(exchange.getRequestBody());
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, dataResponse.length);
+      write(exchange.getResponseBody(), dataResponse, dataResponse.length);
+    }
+  }
+
+  private void upload(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!delayOrFail(exchange)) {
+        return;
+      }
+      long received = drain(exchange.getRequestBody());
+      completedUploads.add(received);
+      byte[] body = ("{\"received\":" + received + "}").getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+    }
+  }
+
+  private void download(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!delayOrFail(exchange)) {
+        return;
+      }
+      String path = exchange.getRequestURI().getPath();
+      long size = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+      String etag = etagOf(size);
+      String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+      String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+      ranges.add(rangeHeader);
+
+      long start = 0;
+      long end = size - 1;
+      Matcher range = rangeHeader != null ? RANGE.matcher(rangeHeader) : null;
+      boolean partial = range != null && range.matches() && (ifRange == null || ifRange.equals(etag));
+      if (partial) {
+        start = Long.parseLong(range.group(1));
+        if (!range.group(2).isEmpty()) {
+          end = Math.min(end, Long.parseLong(range.group(2)));
+        }
+        if (start >= size || start > end) {
+          exchange.getResponseHeaders().add("Content-Range", "bytes */" + size);
+          exchange.sendResponseHeaders(416, -1);
+          return;
+        }
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + size);
+      }
+      long length = end - start + 1;
+      exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+      exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+      exchange.getResponseHeaders().add("ETag", etag);
+      exchange.sendResponseHeaders(partial ? 206 : 200, length);
+      // A failure leaves the fixed-length body short, which the client sees as a dropped connection
+      long limit = takeFailure() ? Math.min(length, failAfterBytes) : length;
+      writePattern(exchange.getResponseBody(), start, limit);
+    }
+  }
+
+  private void resumable(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!delayOrFail(exchange)) {
+        return;
+      }
+      String uploadID = exchange.getRequestHeaders().getFirst("Upload-ID");
+      if (uploadID == null) {
+        drain(exchange.getRequestBody());
+        exchange.sendResponseHeaders(400, -1);
+        return;
+      }
+      byte[] stored = uploads.get(uploadID);
+      if ("HEAD".equals(exchange.getRequestMethod())) {
+        if (stored == null) {
+          exchange.sendResponseHeaders(404, -1);
+        } else {
+          exchange.getResponseHeaders().add("Upload-Offset", String.valueOf(stored.length));
+          exchange.sendResponseHeaders(200, -1);
+        }
+        return;
+      }
+      long offset = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Offset"));
+      long have = stored != null ? stored.length : 0;
+      if (offset != have) {
+        drain(exchange.getRequestBody());
+        exchange.getResponseHeaders().add("Upload-Offset", String.valueOf(have));
+        exchange.sendResponseHeaders(409, -1);
+        return;
+      }
+      // Bytes are kept as they arrive, so a dropped upload keeps its prefix
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      if (stored != null) {
+        received.write(stored);
+      }
+      long limit = takeFailure() ? failAfterBytes : Long.MAX_VALUE;
+      InputStream body = exchange.getRequestBody();
+      byte[] buffer = new byte[IO_CHUNK];
+      long read = 0;
+      int count;
+      while (read < limit && (count = body.read(buffer, 0, (int) Math.min(buffer.length, limit - read))) != -1) {
+        received.write(buffer, 0, count);
+        read += count;
+        uploads.put(uploadID, received.toByteArray());
+      }
+      uploads.put(uploadID, received.toByteArray());
+      if (read >= limit) {
+        // Closing before the response headers drops the connection
+        return;
+      }
+      completedUploads.add(read);
+      byte[] reply = ("{\"received\":" + received.size() + "}").getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.getResponseHeaders().add("Upload-Offset", String.valueOf(received.size()));
+      exchange.sendResponseHeaders(200, reply.length);
+      exchange.getResponseBody().write(reply);
+    }
+  }
+
+  private boolean delayOrFail(HttpExchange exchange) throws IOException {
+    long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      drain(exchange.getRequestBody());
+      exchange.sendResponseHeaders(503, -1);
+      return false;
+    }
+    return true;
+  }
+
+  private long drain(InputStream inputStream) throws IOException {
+    Throttle throttle = new Throttle(bytesPerSecond);
+    byte[] buffer = new byte[IO_CHUNK];
+    long total = 0;
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      total += read;
+      throttle.account(read);
+    }
+    return total;
+  }
+
+  // Writes length bytes of source, or repeats it when it is shorter
+  private void write(OutputStream outputStream, byte[] source, long length) throws IOException {
+    Throttle throttle = new Throttle(bytesPerSecond);
+    long remaining = length;
+    while (remaining > 0) {
+      int count = (int) Math.min(Math.min(source.length, IO_CHUNK), remaining);
+      int offset = source.length >= length ? (int) (length - remaining) : 0;
+      outputStream.write(source, offset, count);
+      remaining -= count;
+      throttle.account(count);
+    }
+  }
+
+  private void writePattern(OutputStream outputStream, long start, long length) throws IOException {
+    Throttle throttle = new Throttle(bytesPerSecond);
+    byte[] buffer = new byte[IO_CHUNK];
+    long written = 0;
+    while (written < length) {
+      int count = (int) Math.min(buffer.length, length - written);
+      for (int i = 0; i < count; i++) {
+        buffer[i] = patternAt(start + written + i);
+      }
+      outputStream.write(buffer, 0, count);
+      written += count;
+      throttle.account(count);
+    }
+  }
+
+  private static final class Throttle {
+    private final long bytesPerSecond;
+    private final long startNanos = System.nanoTime();
+    private long bytes;
+
+    Throttle(long bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    void account(int count) {
+      if (bytesPerSecond <= 0) {
+        return;
+      }
+      bytes += count;
+      long dueNanos = bytes * 1_000_000_000L / bytesPerSecond;
+      long aheadNanos = dueNanos - (System.nanoTime() - startNanos);
+      if (aheadNanos > 1_000_000) {
+        try {
+          Thread.sleep(aheadNanos / 1_000_000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,124 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.mte.relay.RelayDataTaskListener;
+import com.mte.relay.RelayFileRequestProperties;
+import com.mte.relay.RelayStreamCompletionCallback;
+import com.mte.relay.RelayStreamResponseListener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Stand-in relay that answers every data task on the calling thread with a
+// canned decrypted response, or one a Responder picks for the request. It
+// reads the request like the real relay does, so the plugin's request
+// building is exercised, but does no crypto or I/O.
+final class StubRelayBackend implements RelayBackend {
+  static final String HOST = "https://relay.example.com";
+
+  interface Responder {
+    void respond(Request<?> request, String pathnamePrefix, RelayDataTaskListener listener) throws AuthFailureError;
+  }
+
+  private final Responder responder;
+
+  StubRelayBackend(byte[] response) {
+    Map<String, List<String>> responseHeaders =
+            Collections.singletonMap("Content-Type", Collections.singletonList("application/json"));
+    this.responder = (request, pathnamePrefix, listener) -> listener.onResponse(response, responseHeaders);
+  }
+
+  StubRelayBackend(Responder responder) {
+    this.responder = responder;
+  }
+
+  @Override
+  public <T> void addToMteRequestQueue(Request<T> request,
+                                       String[] headersToEncrypt,
+                                       String pathnamePrefix,
+                                       RelayDataTaskListener listener) {
+    try {
+      request.getUrl();
+      request.getHeaders();
+      request.getBody();
+      responder.respond(request, pathnamePrefix, listener);
+    } catch (AuthFailureError e) {
+      listener.onError(e.getMessage(), null);
+    }
+  }
+
+  @Override
+  public void uploadFile(RelayFileRequestProperties properties,
+                         String route,
+                         String pathnamePrefix,
+                         RelayStreamResponseListener listener,
+                         RelayStreamCompletionCallback completionCallback) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void downloadFile(RelayFileRequestProperties properties,
+                           String pathnamePrefix,
+                           RelayStreamResponseListener listener) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void rePairWithRelayServer(String url) {
+  }
+
+  @Override
+  public String adjustRelaySettings(String serverUrl, int streamChunkSize, int pairPoolSize, Boolean persistPairs) {
+    return "";
+  }
+
+  @Override
+  public int getStreamChunkSizeSetting() {
+    return 1024 * 1024;
+  }
+
+  @Override
+  public void setStreamChunkSize(int streamChunkSize) {
+  }
+
+  @Override
+  public int getPairPoolSizeSetting() {
+    return 3;
+  }
+
+  @Override
+  public boolean getPersistPairsSetting() {
+    return false;
+  }
+
+  @Override
+  public String[] getHostList() {
+    return new String[]{HOST};
+  }
+}
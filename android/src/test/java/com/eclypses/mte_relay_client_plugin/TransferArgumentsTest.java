@@ -0,0 +1,79 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.FlutterException;
+
+// Sends the transfer methods arguments that are not a map and checks that
+// each one answers INVALID_ARGUMENTS instead of throwing out of the handler.
+public class TransferArgumentsTest {
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @Before
+  public void setUp() {
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(new StubRelayBackend((request, pathnamePrefix, listener) -> { }));
+  }
+
+  @After
+  public void tearDown() {
+    messenger.close();
+    mainThread.close();
+  }
+
+  @Test
+  public void nonMapArgumentsAreRejected() throws Exception {
+    for (String method : new String[] {
+        "relayUploadFile", "relayUploadFilePath", "relayDownloadFile", "relayDownloadStream"}) {
+      assertEquals(method, "INVALID_ARGUMENTS", errorCode(method, Collections.singletonList("not a map")));
+      assertEquals(method, "INVALID_ARGUMENTS", errorCode(method, null));
+    }
+  }
+
+  private String errorCode(String method, Object arguments) throws Exception {
+    try {
+      messenger.invokeMethod(method, arguments).get(5, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof FlutterException);
+      return ((FlutterException) e.getCause()).code;
+    }
+    throw new AssertionError(method + " accepted " + arguments);
+  }
+}
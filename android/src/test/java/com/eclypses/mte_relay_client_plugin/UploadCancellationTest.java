@@ -0,0 +1,243 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.mte.relay.RelayFileRequestProperties;
+import com.mte.relay.RelayStreamCallback;
+import com.mte.relay.RelayStreamCompletionCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.plugin.common.FlutterException;
+
+// Cancels uploads part way through the body on a throttled StandInRelayServer
+// and checks that the relay fails them rather than sending the truncated body
+// as a complete upload. The Dart-fed stream is also driven through the plugin,
+// the way sendChunks closes it or, when its source fails, aborts it.
+public class UploadCancellationTest {
+  private static final int STREAM_CHUNK = 16 * 1024;
+  private static final int CANCEL_AFTER = 8 * STREAM_CHUNK;
+
+  private StandInRelayServer server;
+  private LoopbackRelayBackend relay;
+  private ExecutorService executor;
+  private File workDir;
+  private LoopbackMessenger messenger;
+  private ExecutorMainThread mainThread;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new StandInRelayServer(0, 0, 512 * 1024, 0, 16);
+    relay = new LoopbackRelayBackend(2, STREAM_CHUNK);
+    executor = Executors.newCachedThreadPool();
+    workDir = Files.createTempDirectory("mte-relay-cancel").toFile();
+    messenger = new LoopbackMessenger();
+    mainThread = new ExecutorMainThread();
+    MteRelayClientPlugin plugin = new MteRelayClientPlugin();
+    plugin.attach(null, messenger, mainThread);
+    plugin.setRelayBackend(relay);
+  }
+
+  @After
+  public void tearDown() {
+    messenger.close();
+    mainThread.close();
+    executor.shutdownNow();
+    relay.close();
+    server.close();
+    File[] files = workDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    workDir.delete();
+  }
+
+  @Test
+  public void uncancelledFileUploadCompletes() throws Exception {
+    File file = fileOfSize("whole.bin", 100_000);
+    CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+
+    upload(outputStream -> executor.execute(
+            new FileUploadStreamer(null, file.getPath(), null, null, outputStream, STREAM_CHUNK, message -> { })),
+        outcome, (sent, total) -> { });
+
+    assertTrue(outcome.get(30, TimeUnit.SECONDS));
+    assertEquals(100_000L, (long) server.completedUploads().get(0));
+  }
+
+  @Test
+  public void cancelledFileUploadFails() throws Exception {
+    File file = fileOfSize("cancelled.bin", 4 * 1024 * 1024);
+    AtomicReference<FileUploadStreamer> streamer = new AtomicReference<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+
+    upload(outputStream -> {
+      streamer.set(new FileUploadStreamer(
+          null, file.getPath(), null, null, outputStream, STREAM_CHUNK, message -> { }));
+      executor.execute(streamer.get());
+    }, outcome, (sent, total) -> {
+      if (sent >= CANCEL_AFTER) {
+        started.countDown();
+      }
+    });
+    assertTrue(started.await(30, TimeUnit.SECONDS));
+    streamer.get().cancel();
+
+    assertFalse(outcome.get(30, TimeUnit.SECONDS));
+    assertTrue(server.completedUploads().isEmpty());
+  }
+
+  @Test
+  public void cancelledStreamUploadFails() throws Exception {
+    AtomicReference<UploadStreamBuffer> buffer = new AtomicReference<>();
+    CountDownLatch opened = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+    UploadStreamBuffer.Listener listener = new UploadStreamBuffer.Listener() {
+      @Override
+      public void onCredit(String streamID, int credits) {
+      }
+
+      @Override
+      public void onError(String streamID, String message) {
+      }
+    };
+
+    upload(outputStream -> {
+      buffer.set(new UploadStreamBuffer("stream-1", outputStream, 16, listener));
+      executor.execute(buffer.get());
+      opened.countDown();
+    }, outcome, (sent, total) -> {
+      if (sent >= CANCEL_AFTER) {
+        started.countDown();
+      }
+    });
+    assertTrue(opened.await(30, TimeUnit.SECONDS));
+    for (int i = 0; i < 12; i++) {
+      assertTrue(buffer.get().offer(new byte[STREAM_CHUNK]));
+    }
+    assertTrue(started.await(30, TimeUnit.SECONDS));
+    buffer.get().cancel();
+
+    assertFalse(outcome.get(30, TimeUnit.SECONDS));
+    assertTrue(server.completedUploads().isEmpty());
+  }
+
+  @Test
+  public void closedDartStreamUploadCompletes() throws Exception {
+    CompletableFuture<Object> reply = messenger.invokeMethod("relayUploadFile", uploadArgs("closed"));
+    for (int i = 0; i < 4; i++) {
+      writeChunk("closed");
+    }
+    messenger.invokeMethod("closeStream", Collections.singletonMap("streamID", "closed")).get(5, TimeUnit.SECONDS);
+
+    assertEquals(true, ((Map<?, ?>) reply.get(30, TimeUnit.SECONDS)).get("success"));
+    assertEquals(4L * STREAM_CHUNK, (long) server.completedUploads().get(0));
+  }
+
+  @Test
+  public void abortedDartStreamUploadFails() throws Exception {
+    CompletableFuture<Object> reply = messenger.invokeMethod("relayUploadFile", uploadArgs("aborted"));
+    for (int i = 0; i < 4; i++) {
+      writeChunk("aborted");
+    }
+    messenger.invokeMethod("abortStream", Collections.singletonMap("streamID", "aborted")).get(5, TimeUnit.SECONDS);
+
+    assertEquals(false, ((Map<?, ?>) reply.get(30, TimeUnit.SECONDS)).get("success"));
+    assertTrue(server.completedUploads().isEmpty());
+  }
+
+  private Map<String, Object> uploadArgs(String transferID) {
+    Map<String, Object> args = new HashMap<>();
+    args.put("url", server.baseUrl() + "/api/upload");
+    args.put("method", "POST");
+    args.put("headers", new HashMap<>());
+    args.put("headersToEncrypt", Collections.emptyList());
+    args.put("transferID", transferID);
+    return args;
+  }
+
+  // The stream opens once the relay asks for the body, and a full window
+  // drains as the server reads, so rejected writes are retried like Dart's
+  // credit wait would
+  private void writeChunk(String streamID) throws Exception {
+    Map<String, Object> args = new HashMap<>();
+    args.put("streamID", streamID);
+    args.put("data", new byte[STREAM_CHUNK]);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (true) {
+      try {
+        messenger.invokeMethod("writeToStream", args).get(5, TimeUnit.SECONDS);
+        return;
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof FlutterException) || System.nanoTime() > deadline) {
+          throw e;
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private void upload(RelayStreamCallback body,
+                      CompletableFuture<Boolean> outcome,
+                      RelayStreamCompletionCallback progress) {
+    RelayFileRequestProperties properties =
+        new RelayFileRequestProperties(server.baseUrl(), new HashMap<>(), new String[0], body);
+    relay.uploadFile(properties, "/api/upload", "",
+        (success, responseStr, errorMessage, headers) -> outcome.complete(success), progress);
+  }
+
+  private File fileOfSize(String name, long size) throws IOException {
+    File file = new File(workDir, name);
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(size);
+    }
+    return file;
+  }
+}
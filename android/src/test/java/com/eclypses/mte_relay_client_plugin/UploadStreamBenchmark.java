@@ -0,0 +1,129 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+package com.eclypses.mte_relay_client_plugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Upload chunks going from writeToStream into the relay's PipedOutputStream,
+// with a thread standing in for the relay draining the pipe. pipedWrite is the
+// bare pipe, bufferedOffer goes through UploadStreamBuffer and its credits.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadStreamBenchmark {
+  private static final int PIPE_SIZE = 1024 * 1024;
+
+  @Param({"8192", "65536"})
+  int chunkSize;
+
+  @Param({"8"})
+  int windowChunks;
+
+  private byte[] chunk;
+  private PipedOutputStream outputStream;
+  private Thread drainer;
+  private UploadStreamBuffer buffer;
+  private Thread bufferThread;
+  private final Semaphore credits = new Semaphore(0);
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException {
+    chunk = new byte[chunkSize];
+    PipedInputStream inputStream = new PipedInputStream(PIPE_SIZE);
+    outputStream = new PipedOutputStream(inputStream);
+    drainer = new Thread(() -> drain(inputStream), "relay-drain");
+    drainer.start();
+
+    credits.drainPermits();
+    PipedInputStream bufferInput = new PipedInputStream(PIPE_SIZE);
+    PipedOutputStream bufferOutput = new PipedOutputStream(bufferInput);
+    buffer = new UploadStreamBuffer("benchmark", bufferOutput, windowChunks, new UploadStreamBuffer.Listener() {
+      @Override
+      public void onCredit(String streamID, int granted) {
+        credits.release(granted);
+      }
+
+      @Override
+      public void onError(String streamID, String message) {
+      }
+    });
+    credits.release(buffer.getWindow());
+    bufferThread = new Thread(buffer, "upload-buffer");
+    bufferThread.start();
+    new Thread(() -> drain(bufferInput), "relay-drain-buffered").start();
+  }
+
+  private static void drain(InputStream inputStream) {
+    byte[] sink = new byte[PIPE_SIZE];
+    try {
+      while (inputStream.read(sink) != -1) {
+        // Discard, like a relay with an infinitely fast network
+      }
+    } catch (IOException e) {
+      // Pipe closed by tearDown
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException, InterruptedException {
+    outputStream.close();
+    drainer.join();
+    buffer.finish();
+    bufferThread.join();
+  }
+
+  @Benchmark
+  public void pipedWrite() throws IOException {
+    outputStream.write(chunk, 0, chunk.length);
+  }
+
+  @Benchmark
+  public boolean bufferedOffer() throws InterruptedException {
+    credits.acquire();
+    return buffer.offer(chunk);
+  }
+}
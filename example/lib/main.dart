@@ -153,7 +153,14 @@ class _MyAppState extends State<MyApp> {
     }
 
     try {
-      await _mteRelayClientPlugin.initializeRelay();
+      if (Platform.isAndroid) {
+        final timings = await _mteRelayClientPlugin.warmUpRelay(
+          urls: [relayServerUrl],
+        );
+        print("Relay warm-up timings: $timings");
+      } else {
+        await _mteRelayClientPlugin.initializeRelay();
+      }
       _showResult(true, "Relay Initialized");
     } on PlatformException {
       _showResult(false, 'Failed to initialize Relay.');
@@ -314,8 +321,17 @@ class _MyAppState extends State<MyApp> {
       httpClientRequest,
       headersToEncrypt,
     );
-    String result = await _mteRelayClientPlugin.relayUploadFile(args);
-    _showResult(true, result);
+    if (Platform.isAndroid) {
+      // The file is read natively, only the multipart framing comes from Dart
+      args['filePath'] = file.path;
+      args['bodyPrefix'] = builder.getPrefix();
+      args['bodySuffix'] = builder.getPostfix();
+      final response = await _mteRelayClientPlugin.relayUploadFilePath(args);
+      _showResult(response['success'] == true, "Upload ${response['transferID']} finished");
+      return;
+    }
+    final response = await _mteRelayClientPlugin.relayUploadFile(args);
+    _showResult(response['success'] == true, "Upload ${response['transferID']} finished");
   }
 
   Future<void> downloadFileStream() async {
@@ -332,8 +348,8 @@ class _MyAppState extends State<MyApp> {
         'headersToEncrypt': headersToEncrypt,
         'downloadLocation': downloadLocation,
       };
-      String result = await _mteRelayClientPlugin.relayDownloadFile(arguments);
-      _showResult(true, result);
+      final response = await _mteRelayClientPlugin.relayDownloadFile(arguments);
+      _showResult(response['success'] == true, "Download ${response['transferID']} finished");
     } catch (error) {
       _showResult(false, "Error: $error");
     }
@@ -451,18 +467,9 @@ class _MyAppState extends State<MyApp> {
 
   void startSendingChunks(String streamID) async {
     // Write data to the request stream
+    // sendChunks waits for platform credits and closes the stream when done
     final writeStream = builder.assembleMultipartWithFile(file);
-    await for (final chunk in writeStream) {
-      final dynamic args = {
-        "streamID": streamID,
-        "data": Uint8List.fromList(chunk),
-      };
-      _mteRelayClientPlugin.sendChunk(args);
-    }
-
-    // Notify Swift to close the stream
-    final dynamic args = {"streamID": streamID};
-    _mteRelayClientPlugin.closeStream(args);
+    await _mteRelayClientPlugin.sendChunks(streamID, writeStream);
   }
 
   Future<Map<String, dynamic>> convertHttpRequestToMap(
@@ -23,6 +23,8 @@
 // SOFTWARE.
 
 import 'dart:async';
+import 'dart:typed_data';
+
 import 'mte_relay_client_plugin_platform_interface.dart';
 
 class MteRelayClientPlugin {
@@ -36,18 +38,182 @@ class MteRelayClientPlugin {
     return MteRelayClientPluginPlatform.instance.initializeRelay();
   }
 
+  /// Initializes the relay off the platform thread and pairs it with each
+  /// server in [urls] in parallel, so the first real request does not wait
+  /// for pairing. Persisted pairs are reused when persistPairs is on.
+  /// Completes with the phase timings in milliseconds: initializeMs, totalMs
+  /// and, per host, pairMs, probeMs and whether it was already paired.
+  /// [probePath] is the route requested to trigger pairing.
+  Future<Map<dynamic, dynamic>> warmUpRelay({
+    List<String> urls = const [],
+    String? probePath,
+  }) {
+    return MteRelayClientPluginPlatform.instance.warmUpRelay(
+      urls: urls,
+      probePath: probePath,
+    );
+  }
+
+  /// Sends relayDataTask calls, their results and [sendChunks] chunks in a
+  /// compact binary layout instead of string-keyed maps, cutting encoding
+  /// work on both sides of the channel. Results are the same maps either way.
+  /// Android only; off by default.
+  void setBinaryMessages(bool enabled) {
+    MteRelayClientPluginPlatform.instance.setBinaryMessages(enabled);
+  }
+
+  /// Sends a request through the relay. Set args['rawResponse'] to true on
+  /// Android to get the decrypted body back unparsed, with its sniffed
+  /// 'contentType', instead of having it validated as JSON.
+  /// On Android args['body'] may also be a Uint8List, sent byte for byte
+  /// with the Content-Type given in args['contentType'].
+  /// With responseCacheBytes set in [adjustRelaySettings], Android caches GET
+  /// responses per Cache-Control/Expires and revalidates them by ETag; the
+  /// entry is kept when the server answers with a "Status: 304" header, as
+  /// the relay cannot pass a 304 on. Cached replies carry 'cached': true.
+  /// Set args['cache'] to false to bypass the cache. With coalesceRequests
+  /// on, identical GET/HEAD/OPTIONS requests issued while one is in flight
+  /// share its reply unless args['coalesce'] is false or they carry a
+  /// requestID, tag, timeoutMs or deadlineMs.
+  /// On Android args['priority'] ('low', 'normal', 'high' or 'immediate')
+  /// orders requests waiting for the relay, and args['requestID'] and
+  /// args['tag'] identify the request to [cancel]. args['timeoutMs'],
+  /// args['maxAttempts'], args['backoffMs'], args['maxBackoffMs'] and
+  /// args['deadlineMs'] override the adjustRelaySettings retry policy for
+  /// this call. timeoutMs is enforced by the plugin and can only shorten an
+  /// attempt: the relay's own 2.5 s network timeout is its upper bound.
+  /// Only idempotent requests are retried; set args['idempotent'] or send an
+  /// Idempotency-Key header to retry a POST or PATCH. A request past its
+  /// deadline fails with a 'DEADLINE_EXCEEDED' PlatformException.
+  /// args['compress'] (true or 'gzip') gzips the request body before it is
+  /// encrypted, overriding the compressRequests setting, when it is at least
+  /// args['compressMinBytes'] long. gzip responses are decompressed; one
+  /// that inflates past 64 MiB fails instead.
+  /// A url on one of the relayEndpoints origins is routed to the endpoint
+  /// the routingPolicy picks, unless args['pinEndpoint'] is true.
+  /// args['expectedResponseBytes'] counts towards the maxInFlightBytes
+  /// budget along with the body. A request still waiting for the relay after
+  /// maxQueueMs fails with 'QUEUE_TIMEOUT'. A response of at least
+  /// spillResponseBytes comes back as 'filePath' and 'contentLength' with
+  /// null 'data'; the file is the caller's to delete, and coalesced calls
+  /// each get a file of their own.
   Future<Map<dynamic, dynamic>> relayDataTask(dynamic args) {
     return MteRelayClientPluginPlatform.instance.relayDataTask(args);
   }
 
-  Future<String> relayUploadFile(dynamic args) {
+  /// Cancels the queued or running data tasks and transfers whose
+  /// requestID, transferID or downloadID is [requestID], or whose args['tag']
+  /// is [tag]. Their futures complete with a 'CANCELLED' PlatformException.
+  /// Completes with the number of requests cancelled.
+  Future<int> cancel({String? requestID, String? tag}) {
+    return MteRelayClientPluginPlatform.instance.cancel(
+      requestID: requestID,
+      tag: tag,
+    );
+  }
+
+  /// Returns relayDataTask metrics: counters (requests, errors, inFlight,
+  /// bytesOut, bytesIn, rePairs, backgroundRePairs, networkHolds, retries,
+  /// timeouts, deadlinesExceeded) and latency histograms (count, meanMs,
+  /// maxMs, p50Ms, p90Ms, p99Ms) keyed by phase under 'phases' (channel,
+  /// createRequest, queueWait, pairing, relayRoundTrip, responseProcessing,
+  /// total), by HTTP method under 'methods' and by host and path under
+  /// 'routes'. 'chunkSizing' shows the adaptive stream chunk size per network
+  /// type, the estimates behind it and its recent changes with their reason.
+  /// 'admission' shows queued and running requests, inFlightBytes against
+  /// maxInFlightBytes and queueTimeouts.
+  Future<Map<dynamic, dynamic>> getRelayMetrics() {
+    return MteRelayClientPluginPlatform.instance.getRelayMetrics();
+  }
+
+  /// Returns the response cache counters: hits, misses, revalidated,
+  /// evictions, entries, bytes and maxBytes. The cache is off (maxBytes 0)
+  /// until responseCacheBytes is set.
+  Future<Map<dynamic, dynamic>> getRelayCacheStats() {
+    return MteRelayClientPluginPlatform.instance.getRelayCacheStats();
+  }
+
+  /// Returns the relayEndpoints routing state: the 'policy' and, per
+  /// endpoint, its url, weight, state ('healthy', 'ejected' or 'trial'),
+  /// ejectedForMs, latencyMs, errorRate, requests, failures, selected,
+  /// consecutiveFailures and ejections.
+  Future<Map<dynamic, dynamic>> getRelayEndpoints() {
+    return MteRelayClientPluginPlatform.instance.getRelayEndpoints();
+  }
+
+  /// Drops cached responses for [url], or every cached response when [url]
+  /// is null.
+  Future<void> invalidateRelayCache({String? url}) {
+    return MteRelayClientPluginPlatform.instance.invalidateRelayCache(url: url);
+  }
+
+  /// Sends several relayDataTask requests in one channel call. Each entry of
+  /// [requests] takes the same arguments as [relayDataTask], and the result
+  /// list holds one response map per request, each tagged with its 'index'.
+  /// A request that fails as an error, such as a cancelled one or one past
+  /// its deadline, gets a failure map with its 'errorCode' and 'pluginError'.
+  /// [order] is 'submission' (the default) or 'completion'.
+  Future<List<dynamic>> relayDataTaskBatch(
+    List<dynamic> requests, {
+    String order = 'submission',
+  }) {
+    return MteRelayClientPluginPlatform.instance.relayDataTaskBatch(
+      requests,
+      order: order,
+    );
+  }
+
+  /// Like [relayDataTaskBatch], but emits each response as soon as it is
+  /// available instead of waiting for the whole batch.
+  Stream<Map<dynamic, dynamic>> relayDataTaskBatchStream(
+    List<dynamic> requests, {
+    String order = 'completion',
+  }) {
+    return MteRelayClientPluginPlatform.instance.relayDataTaskBatchStream(
+      requests,
+      order: order,
+    );
+  }
+
+  /// Completes when the upload finishes with the same map as the
+  /// relayStreamResponse callback. Pass args['transferID'] to tag the transfer
+  /// in progress events; one is generated otherwise. Transfers take
+  /// args['priority'] and args['tag'] like [relayDataTask].
+  Future<Map<dynamic, dynamic>> relayUploadFile(dynamic args) {
     return MteRelayClientPluginPlatform.instance.relayUploadFile(args);
   }
 
-  Future<String> relayDownloadFile(dynamic args) {
+  /// Uploads the file at args['filePath'] (a path or content URI) without
+  /// streaming its bytes through Dart. Optional args['bodyPrefix'] and
+  /// args['bodySuffix'] bytes are sent before and after the file contents.
+  /// On Android args['resumable'] makes the upload resumable: each request
+  /// carries Upload-ID (the transferID), Upload-Offset and Upload-Length,
+  /// and after a drop the server is asked, with a HEAD, how much it has. The
+  /// upload succeeds only when the server's reply carries an Upload-Offset
+  /// equal to Upload-Length. A checkpoint in args['checkpointDir'] lets the
+  /// same transferID continue after a restart; the result carries
+  /// 'resumeOffset'.
+  Future<Map<dynamic, dynamic>> relayUploadFilePath(dynamic args) {
+    return MteRelayClientPluginPlatform.instance.relayUploadFilePath(args);
+  }
+
+  /// Completes when the download finishes, like [relayUploadFile]. Several
+  /// uploads and downloads may be in flight at once.
+  /// On Android args['resumable'] downloads in Range requests of
+  /// args['resumeChunkBytes'] and checkpoints next to downloadLocation, so a
+  /// dropped or restarted download continues where it stopped.
+  /// args['resumeAttempts'] bounds the retries that make no progress.
+  Future<Map<dynamic, dynamic>> relayDownloadFile(dynamic args) {
     return MteRelayClientPluginPlatform.instance.relayDownloadFile(args);
   }
 
+  /// Downloads through the relay and delivers the decrypted bytes as they
+  /// arrive. Pausing the subscription pauses the download. A
+  /// 'downloadLocation' in [args] is optional and also keeps a copy on disk.
+  Stream<Uint8List> relayDownloadStream(dynamic args) {
+    return MteRelayClientPluginPlatform.instance.relayDownloadStream(args);
+  }
+
   Future<String> rePair(dynamic args) {
     return MteRelayClientPluginPlatform.instance.rePair(args);
   }
@@ -64,6 +230,21 @@ class MteRelayClientPlugin {
     return MteRelayClientPluginPlatform.instance.closeStream(args);
   }
 
+  /// Ends the upload stream [streamID] as failed, so the transfer errors
+  /// instead of sending the bytes written so far as a complete body.
+  /// Android only.
+  Future<void> abortStream(dynamic args) {
+    return MteRelayClientPluginPlatform.instance.abortStream(args);
+  }
+
+  /// Sends every chunk of [chunks] to the upload stream [streamID], waiting
+  /// for the platform to grant credits so the native buffer is never
+  /// overrun, and closes the stream when done. If [chunks] emits an error
+  /// the stream is aborted instead and the error is rethrown.
+  Future<void> sendChunks(String streamID, Stream<List<int>> chunks) {
+    return MteRelayClientPluginPlatform.instance.sendChunks(streamID, chunks);
+  }
+
   // SECTION: Callback methods to Flutter App.
   Stream<String> get relayResponseStream =>
       MteRelayClientPluginPlatform.instance.relayResponseStream;
@@ -77,4 +258,15 @@ class MteRelayClientPlugin {
   Stream<String> get relayStreamCompletionStream =>
       MteRelayClientPluginPlatform.instance.relayStreamCompletionStream;
 
+  /// Detailed, throttled transfer progress: 'transferID', 'progress',
+  /// 'bytesCompleted', 'totalBytes', 'bytesPerSecond' and 'etaMs' (null until
+  /// a rate is known).
+  Stream<Map<dynamic, dynamic>> get relayStreamProgressStream =>
+      MteRelayClientPluginPlatform.instance.relayStreamProgressStream;
+
+  /// The [getRelayMetrics] snapshot, emitted every metricsIntervalMs once
+  /// that setting is given to adjustRelaySettings.
+  Stream<Map<dynamic, dynamic>> get relayMetricsStream =>
+      MteRelayClientPluginPlatform.instance.relayMetricsStream;
+
 }
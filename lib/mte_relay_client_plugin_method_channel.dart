@@ -28,12 +28,20 @@ import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 
 import 'mte_relay_client_plugin_platform_interface.dart';
+import 'relay_message_codec.dart';
 
 /// An implementation of [MteRelayClientPluginPlatform] that uses method channels.
 class MethodChannelMteRelayClientPlugin extends MteRelayClientPluginPlatform {
   /// The method channel used to interact with the native platform.
   @visibleForTesting
-  final methodChannel = const MethodChannel('mte_relay_client_plugin');
+  final methodChannel = const MethodChannel(
+    'mte_relay_client_plugin',
+    StandardMethodCodec(RelayMessageCodec()),
+  );
+
+  // Whether relayDataTask and writeToStream use the binary messages of
+  // RelayMessageCodec
+  bool _binaryMessages = false;
 
   /// Constructor to initialize the method call handler
   MethodChannelMteRelayClientPlugin() {
@@ -53,27 +61,222 @@ class MethodChannelMteRelayClientPlugin extends MteRelayClientPluginPlatform {
   final StreamController<String> _relayStreamCompletionStreamController =
       StreamController<String>.broadcast();
 
+  final StreamController<Map<dynamic, dynamic>>
+  _relayStreamProgressStreamController =
+      StreamController<Map<dynamic, dynamic>>.broadcast();
+
+  final StreamController<Map<dynamic, dynamic>> _relayMetricsStreamController =
+      StreamController<Map<dynamic, dynamic>>.broadcast();
+
+  /// The event channel carrying chunks of streamed downloads.
+  @visibleForTesting
+  final downloadEventChannel = const EventChannel(
+    'mte_relay_client_plugin/download',
+  );
+
+  // SECTION: Streamed downloads
+  StreamSubscription<dynamic>? _downloadEventSubscription;
+  final Map<String, StreamController<Uint8List>> _downloadControllers = {};
+  int _downloadCounter = 0;
+
+  // SECTION: Streamed data-task batches
+  final Map<String, StreamController<Map<dynamic, dynamic>>>
+  _batchControllers = {};
+  int _batchCounter = 0;
+
+  // SECTION: Upload stream flow control
+  // Credits granted by the platform per streamID. A stream with no entry has
+  // no flow control on that platform and chunks are sent as they come.
+  final Map<String, int> _streamCredits = {};
+  final Map<String, Completer<void>> _streamCreditWaiters = {};
+
   // SECTION: MethodChannel calls to native
   @override
   Future<void> initializeRelay() async {
     await methodChannel.invokeMethod('initializeRelay');
   }
 
+  @override
+  Future<Map<dynamic, dynamic>> warmUpRelay({
+    List<String> urls = const [],
+    String? probePath,
+  }) async {
+    return await methodChannel.invokeMethod('warmUpRelay', {
+      'urls': urls,
+      if (probePath != null) 'probePath': probePath,
+    });
+  }
+
+  @override
+  void setBinaryMessages(bool enabled) {
+    // Only the Android side reads them
+    _binaryMessages = enabled && defaultTargetPlatform == TargetPlatform.android;
+  }
+
   @override
   Future<Map<dynamic, dynamic>> relayDataTask(dynamic args) async {
-    return await methodChannel.invokeMethod('relayDataTask', args);
+    if (args is! Map) {
+      return await methodChannel.invokeMethod('relayDataTask', args);
+    }
+    // The timestamp lets Android measure the channel hop
+    final message = {...args, 'sentAtMicros': DateTime.now().microsecondsSinceEpoch};
+    return await methodChannel.invokeMethod(
+      'relayDataTask',
+      _binaryMessages ? RelayDataTaskMessage(message) : message,
+    );
+  }
+
+  @override
+  Future<Map<dynamic, dynamic>> getRelayMetrics() async {
+    return await methodChannel.invokeMethod('getRelayMetrics');
+  }
+
+  @override
+  Future<Map<dynamic, dynamic>> getRelayCacheStats() async {
+    return await methodChannel.invokeMethod('getRelayCacheStats');
+  }
+
+  @override
+  Future<Map<dynamic, dynamic>> getRelayEndpoints() async {
+    return await methodChannel.invokeMethod('getRelayEndpoints');
   }
 
   @override
-  Future<String> relayUploadFile(dynamic args) async {
+  Future<void> invalidateRelayCache({String? url}) async {
+    await methodChannel.invokeMethod<void>('invalidateRelayCache', {
+      'url': url,
+    });
+  }
+
+  @override
+  Future<int> cancel({String? requestID, String? tag}) async {
+    final cancelled = await methodChannel.invokeMethod('cancel', {
+      'requestID': requestID,
+      'tag': tag,
+    });
+    return cancelled as int;
+  }
+
+  @override
+  Future<List<dynamic>> relayDataTaskBatch(
+    List<dynamic> requests, {
+    String order = 'submission',
+  }) async {
+    return await methodChannel.invokeMethod('relayDataTaskBatch', {
+      'requests': requests,
+      'order': order,
+      'sentAtMicros': DateTime.now().microsecondsSinceEpoch,
+    });
+  }
+
+  @override
+  Stream<Map<dynamic, dynamic>> relayDataTaskBatchStream(
+    List<dynamic> requests, {
+    String order = 'completion',
+  }) {
+    final batchID =
+        'batch-${DateTime.now().microsecondsSinceEpoch}-${_batchCounter++}';
+    final controller = StreamController<Map<dynamic, dynamic>>();
+    _batchControllers[batchID] = controller;
+    methodChannel
+        .invokeMethod('relayDataTaskBatch', {
+          'requests': requests,
+          'order': order,
+          'batchID': batchID,
+          'streamResults': true,
+          'sentAtMicros': DateTime.now().microsecondsSinceEpoch,
+        })
+        .catchError((Object error, StackTrace stackTrace) {
+          _batchControllers.remove(batchID);
+          controller.addError(error, stackTrace);
+          controller.close();
+        });
+    return controller.stream;
+  }
+
+  @override
+  Future<Map<dynamic, dynamic>> relayUploadFile(dynamic args) async {
     return await methodChannel.invokeMethod('relayUploadFile', args);
   }
 
   @override
-  Future<String> relayDownloadFile(dynamic args) async {
+  Future<Map<dynamic, dynamic>> relayUploadFilePath(dynamic args) async {
+    return await methodChannel.invokeMethod('relayUploadFilePath', args);
+  }
+
+  @override
+  Future<Map<dynamic, dynamic>> relayDownloadFile(dynamic args) async {
     return await methodChannel.invokeMethod('relayDownloadFile', args);
   }
 
+  @override
+  Stream<Uint8List> relayDownloadStream(dynamic args) {
+    final downloadID =
+        '${DateTime.now().microsecondsSinceEpoch}-${_downloadCounter++}';
+    late final StreamController<Uint8List> controller;
+    controller = StreamController<Uint8List>(
+      onListen: () async {
+        _downloadEventSubscription ??= downloadEventChannel
+            .receiveBroadcastStream()
+            .listen(_handleDownloadEvent);
+        _downloadControllers[downloadID] = controller;
+        try {
+          await methodChannel.invokeMethod('relayDownloadStream', {
+            ...(args as Map),
+            'downloadID': downloadID,
+          });
+        } on PlatformException catch (error, stackTrace) {
+          _downloadControllers.remove(downloadID);
+          controller.addError(error, stackTrace);
+          await controller.close();
+        }
+      },
+      // Pausing the subscription stops the native reader, which in turn
+      // stalls the relay download until the listener resumes.
+      onPause: () => _controlDownload('pauseDownloadStream', downloadID),
+      onResume: () => _controlDownload('resumeDownloadStream', downloadID),
+      onCancel: () {
+        if (_downloadControllers.remove(downloadID) != null) {
+          return _controlDownload('cancelDownloadStream', downloadID);
+        }
+      },
+    );
+    return controller.stream;
+  }
+
+  Future<void> _controlDownload(String method, String downloadID) async {
+    try {
+      await methodChannel.invokeMethod<void>(method, {
+        'downloadID': downloadID,
+      });
+    } on PlatformException {
+      // The download already finished on the native side
+    }
+  }
+
+  void _handleDownloadEvent(dynamic event) {
+    final String downloadID = event['downloadID'];
+    final controller = _downloadControllers[downloadID];
+    if (controller == null) {
+      return;
+    }
+    final data = event['data'];
+    if (data != null) {
+      controller.add(data as Uint8List);
+    } else if (event['done'] == true) {
+      _downloadControllers.remove(downloadID);
+      if (event['success'] != true) {
+        controller.addError(
+          PlatformException(
+            code: 'DOWNLOAD_FAILED',
+            message: event['relayError'] as String?,
+          ),
+        );
+      }
+      controller.close();
+    }
+  }
+
   @override
   Future<String> rePair(dynamic args) async {
     return await methodChannel.invokeMethod('rePair', args);
@@ -85,23 +288,104 @@ class MethodChannelMteRelayClientPlugin extends MteRelayClientPluginPlatform {
   }
 
   @override
-  Future<String> sendChunk(dynamic args) async {
-    return await methodChannel.invokeMethod('writeToStream', args);
+  Future<void> sendChunk(dynamic args) async {
+    final binary = _binaryMessages &&
+        args is Map &&
+        args.length == 2 &&
+        args['streamID'] is String &&
+        args['data'] is Uint8List;
+    await methodChannel.invokeMethod<void>(
+      'writeToStream',
+      binary ? RelayChunkMessage(args['streamID'], args['data']) : args,
+    );
   }
 
   @override
-  Future<String> closeStream(dynamic args) async {
-    return await methodChannel.invokeMethod('closeStream', args);
+  Future<void> closeStream(dynamic args) async {
+    await methodChannel.invokeMethod<void>('closeStream', args);
+  }
+
+  @override
+  Future<void> abortStream(dynamic args) async {
+    await methodChannel.invokeMethod<void>('abortStream', args);
+  }
+
+  @override
+  Future<void> sendChunks(String streamID, Stream<List<int>> chunks) async {
+    try {
+      await for (final chunk in chunks) {
+        await _takeStreamCredit(streamID);
+        await sendChunk({
+          "streamID": streamID,
+          "data": chunk is Uint8List ? chunk : Uint8List.fromList(chunk),
+        });
+      }
+    } catch (_) {
+      _releaseStreamCredits(streamID);
+      // Closing here would upload a truncated body; fail the transfer instead
+      try {
+        await abortStream({"streamID": streamID});
+      } catch (_) {}
+      rethrow;
+    }
+    _releaseStreamCredits(streamID);
+    await closeStream({"streamID": streamID});
+  }
+
+  void _releaseStreamCredits(String streamID) {
+    _streamCredits.remove(streamID);
+    _streamCreditWaiters.remove(streamID)?.complete();
+  }
+
+  Future<void> _takeStreamCredit(String streamID) async {
+    while (true) {
+      final credits = _streamCredits[streamID];
+      if (credits == null) {
+        return;
+      }
+      if (credits > 0) {
+        _streamCredits[streamID] = credits - 1;
+        return;
+      }
+      final waiter = Completer<void>();
+      _streamCreditWaiters[streamID] = waiter;
+      await waiter.future;
+    }
   }
 
   // SECTION: Listeners for calls back from native
   Future<dynamic> _handleNativeCallback(MethodCall call) async {
     switch (call.method) {
+      // Android delivers events in batches, one list per flush interval
+      case "batchedEvents":
+        for (final event in call.arguments as List) {
+          await _handleNativeCallback(
+            MethodCall(event["method"], event["arguments"]),
+          );
+        }
+        return Future.value(null);
+
+      case "relayDataTaskBatchResult":
+        final String batchID = call.arguments["batchID"];
+        if (call.arguments["done"] == true) {
+          _batchControllers.remove(batchID)?.close();
+        } else {
+          _batchControllers[batchID]?.add(call.arguments["result"]);
+        }
+        return Future.value(null);
+
       case "getFileStream":
         String streamID = call.arguments;
         _relayRequestChunksStreamController.add(streamID);
         return Future.value(null);
 
+      case "streamCredit":
+        String streamID = call.arguments["streamID"];
+        int credits = call.arguments["credits"];
+        _streamCredits[streamID] = (_streamCredits[streamID] ?? 0) + credits;
+        _streamCreditWaiters.remove(streamID)?.complete();
+        return Future.value(null);
+
       case "relayResponseMessage":
         String message = call.arguments;
         _relayResponseStreamController.add(message);
@@ -112,6 +396,18 @@ class MethodChannelMteRelayClientPlugin extends MteRelayClientPluginPlatform {
         _relayStreamCompletionStreamController.add(progress.toString());
         return Future.value(progress.toString());
 
+      case "streamProgress":
+        Map<dynamic, dynamic> progress = call.arguments;
+        _relayStreamCompletionStreamController.add(
+          progress["progress"].toString(),
+        );
+        _relayStreamProgressStreamController.add(progress);
+        return Future.value(null);
+
+      case "relayMetrics":
+        _relayMetricsStreamController.add(call.arguments);
+        return Future.value(null);
+
       case "relayStreamResponse":
         _relayStreamResponseStreamController.add(call.arguments);
         return Future.value(call.arguments);
@@ -133,4 +429,12 @@ class MethodChannelMteRelayClientPlugin extends MteRelayClientPluginPlatform {
   @override
   Stream<String> get relayStreamCompletionStream =>
       _relayStreamCompletionStreamController.stream;
+
+  @override
+  Stream<Map<dynamic, dynamic>> get relayStreamProgressStream =>
+      _relayStreamProgressStreamController.stream;
+
+  @override
+  Stream<Map<dynamic, dynamic>> get relayMetricsStream =>
+      _relayMetricsStreamController.stream;
 }
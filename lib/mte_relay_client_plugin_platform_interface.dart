@@ -22,6 +22,8 @@
 // OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 // SOFTWARE.
 
+import 'dart:typed_data';
+
 import 'package:plugin_platform_interface/plugin_platform_interface.dart';
 import 'mte_relay_client_plugin_method_channel.dart';
 
@@ -45,6 +47,8 @@ abstract class MteRelayClientPluginPlatform extends PlatformInterface {
    Stream<dynamic> get relayStreamResponseStream;
    Stream<String> get relayRequestChunksStream;
    Stream<String> get relayStreamCompletionStream;
+   Stream<Map<dynamic, dynamic>> get relayStreamProgressStream;
+   Stream<Map<dynamic, dynamic>> get relayMetricsStream;
 
   Future<String?> getPlatformVersion() {
     throw UnimplementedError('platformVersion() has not been implemented.');
@@ -54,18 +58,73 @@ abstract class MteRelayClientPluginPlatform extends PlatformInterface {
     throw UnimplementedError('initializeRelay() has not been implemented.');
   }
 
+  Future<Map<dynamic, dynamic>> warmUpRelay({
+    List<String> urls = const [],
+    String? probePath,
+  }) async {
+    throw UnimplementedError('warmUpRelay() has not been implemented.');
+  }
+
+  void setBinaryMessages(bool enabled) {
+    throw UnimplementedError('setBinaryMessages() has not been implemented.');
+  }
+
   Future<Map<dynamic, dynamic>> relayDataTask(dynamic args) async {
     throw UnimplementedError('initializeRelay() has not been implemented.');
   }
   
-  Future<String> relayUploadFile(dynamic args) async {
+  Future<Map<dynamic, dynamic>> getRelayMetrics() async {
+    throw UnimplementedError('getRelayMetrics() has not been implemented.');
+  }
+
+  Future<Map<dynamic, dynamic>> getRelayCacheStats() async {
+    throw UnimplementedError('getRelayCacheStats() has not been implemented.');
+  }
+
+  Future<Map<dynamic, dynamic>> getRelayEndpoints() async {
+    throw UnimplementedError('getRelayEndpoints() has not been implemented.');
+  }
+
+  Future<void> invalidateRelayCache({String? url}) async {
+    throw UnimplementedError('invalidateRelayCache() has not been implemented.');
+  }
+
+  Future<int> cancel({String? requestID, String? tag}) async {
+    throw UnimplementedError('cancel() has not been implemented.');
+  }
+
+  Future<List<dynamic>> relayDataTaskBatch(
+    List<dynamic> requests, {
+    String order = 'submission',
+  }) async {
+    throw UnimplementedError('relayDataTaskBatch() has not been implemented.');
+  }
+
+  Stream<Map<dynamic, dynamic>> relayDataTaskBatchStream(
+    List<dynamic> requests, {
+    String order = 'completion',
+  }) {
+    throw UnimplementedError(
+      'relayDataTaskBatchStream() has not been implemented.',
+    );
+  }
+
+  Future<Map<dynamic, dynamic>> relayUploadFile(dynamic args) async {
     throw UnimplementedError('relayUploadFile() has not been implemented.');
   }
 
-  Future<String> relayDownloadFile(dynamic args) async {
+  Future<Map<dynamic, dynamic>> relayUploadFilePath(dynamic args) async {
+    throw UnimplementedError('relayUploadFilePath() has not been implemented.');
+  }
+
+  Future<Map<dynamic, dynamic>> relayDownloadFile(dynamic args) async {
     throw UnimplementedError('relayUploadFile() has not been implemented.');
   }
 
+  Stream<Uint8List> relayDownloadStream(dynamic args) {
+    throw UnimplementedError('relayDownloadStream() has not been implemented.');
+  }
+
   Future<String> rePair(dynamic args) async {
     throw UnimplementedError('rePair() has not been implemented.');
   }
@@ -81,4 +140,12 @@ abstract class MteRelayClientPluginPlatform extends PlatformInterface {
   Future<void> closeStream(dynamic args) async {
     throw UnimplementedError('closeStream() has not been implemented.');
   }
+
+  Future<void> abortStream(dynamic args) async {
+    throw UnimplementedError('abortStream() has not been implemented.');
+  }
+
+  Future<void> sendChunks(String streamID, Stream<List<int>> chunks) async {
+    throw UnimplementedError('sendChunks() has not been implemented.');
+  }
 }
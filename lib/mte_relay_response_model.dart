@@ -27,19 +27,26 @@ class Result<T> {
   final String? errorMessage;
   final bool isSuccess;
   final Map<String, String>? headers;
+  // Only set for raw responses ('rawResponse': true)
+  final String? contentType;
 
-  Result.success(this.data, {this.headers})
+  Result.success(this.data, {this.headers, this.contentType})
       : errorMessage = null,
         isSuccess = true;
 
   Result.error(this.errorMessage, {this.headers})
       : data = null,
+        contentType = null,
         isSuccess = false;
 
   // Convert from a Map (native response)
   factory Result.fromMap(Map<dynamic, dynamic> map) {
     return map['success'] == true
-        ? Result.success(map['data'], headers: _parseHeaders(map['headers']))
+        ? Result.success(
+            map['data'],
+            headers: _parseHeaders(map['headers']),
+            contentType: map['contentType'],
+          )
         : Result.error(map['error'], headers: _parseHeaders(map['headers']));
   }
 
@@ -50,6 +57,7 @@ class Result<T> {
       'data': data,
       'error': errorMessage,
       'headers': headers,
+      'contentType': contentType,
     };
   }
 
@@ -0,0 +1,189 @@
+// The MIT License (MIT)
+//
+// Copyright (c) Eclypses, Inc.
+//
+// All rights reserved.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+// SOFTWARE.
+
+
+import 'package:flutter/foundation.dart';
+import 'package:flutter/services.dart';
+
+/// relayDataTask arguments to send in the binary layout of
+/// [RelayMessageCodec].
+class RelayDataTaskMessage {
+  const RelayDataTaskMessage(this.args);
+
+  final Map<dynamic, dynamic> args;
+}
+
+/// A writeToStream chunk to send in the binary layout of [RelayMessageCodec].
+class RelayChunkMessage {
+  const RelayChunkMessage(this.streamID, this.data);
+
+  final String streamID;
+  final Uint8List data;
+}
+
+/// [StandardMessageCodec] plus fixed-layout messages for the hot calls:
+/// relayDataTask requests and results and writeToStream chunks are written
+/// field by field instead of as string-keyed maps, and well-known header
+/// names as one byte. Keys outside the layout follow in a standard map.
+/// RelayMessageCodec.java on Android is the other half and must match.
+class RelayMessageCodec extends StandardMessageCodec {
+  const RelayMessageCodec();
+
+  static const int _dataTask = 128;
+  static const int _dataTaskResult = 129;
+  static const int _chunk = 130;
+  // A header name not in headerNames follows as a standard value
+  static const int _otherName = 255;
+
+  /// Append only: the index is the wire format.
+  static const List<String> headerNames = [
+    'Content-Type', 'Content-Length', 'Content-Encoding', 'Accept', 'Accept-Encoding',
+    'Authorization', 'Cache-Control', 'ETag', 'If-None-Match', 'If-Modified-Since',
+    'Last-Modified', 'Expires', 'Date', 'Age', 'Vary',
+    'Idempotency-Key', 'Range', 'Content-Range', 'If-Range', 'Accept-Ranges',
+    'Location', 'Set-Cookie', 'Cookie', 'User-Agent', 'Server',
+    'Connection', 'Transfer-Encoding', 'Upload-ID', 'Upload-Offset', 'Upload-Length',
+    'content-type', 'content-length', 'content-encoding', 'cache-control', 'etag',
+    'date', 'server', 'vary', 'x-powered-by', 'access-control-allow-origin',
+  ];
+
+  static final Map<String, int> _headerIndex = {
+    for (var i = 0; i < headerNames.length; i++) headerNames[i]: i,
+  };
+
+  static const List<String> _dataTaskFields = [
+    'url', 'method', 'headers', 'headersToEncrypt', 'body', 'contentType', 'pathnamePrefix', 'sentAtMicros',
+  ];
+  static const List<String> _resultFields = ['success', 'data', 'contentType', 'headers'];
+
+  @override
+  void writeValue(WriteBuffer buffer, Object? value) {
+    if (value is RelayDataTaskMessage) {
+      buffer.putUint8(_dataTask);
+      _writeFields(buffer, value.args, _dataTaskFields);
+    } else if (value is RelayChunkMessage) {
+      buffer.putUint8(_chunk);
+      writeValue(buffer, value.streamID);
+      writeValue(buffer, value.data);
+      writeValue(buffer, null);
+    } else {
+      super.writeValue(buffer, value);
+    }
+  }
+
+  @override
+  Object? readValueOfType(int type, ReadBuffer buffer) {
+    if (type != _dataTaskResult) {
+      return super.readValueOfType(type, buffer);
+    }
+    final result = <dynamic, dynamic>{};
+    for (final field in _resultFields) {
+      final value = field == 'headers' ? _readHeaders(buffer) : readValue(buffer);
+      if (value != null || field == 'data' || field == 'headers') {
+        result[field] = value;
+      }
+    }
+    final extras = readValue(buffer);
+    if (extras is Map) {
+      result.addAll(extras);
+    }
+    return result;
+  }
+
+  void _writeFields(WriteBuffer buffer, Map<dynamic, dynamic> map, List<String> fields) {
+    for (final field in fields) {
+      final value = map[field];
+      if (field == 'headers') {
+        _writeHeaders(buffer, value);
+      } else if (field == 'headersToEncrypt') {
+        _writeNames(buffer, value);
+      } else {
+        writeValue(buffer, value);
+      }
+    }
+    final extras = {
+      for (final entry in map.entries)
+        if (!fields.contains(entry.key)) entry.key: entry.value,
+    };
+    writeValue(buffer, extras.isEmpty ? null : extras);
+  }
+
+  // Count + 1, 0 for null, then name and value per header
+  void _writeHeaders(WriteBuffer buffer, Object? headers) {
+    if (headers is! Map) {
+      writeSize(buffer, 0);
+      return;
+    }
+    writeSize(buffer, headers.length + 1);
+    headers.forEach((name, value) {
+      _writeName(buffer, name);
+      writeValue(buffer, value);
+    });
+  }
+
+  Map<dynamic, dynamic>? _readHeaders(ReadBuffer buffer) {
+    final size = readSize(buffer);
+    if (size == 0) {
+      return null;
+    }
+    final headers = <dynamic, dynamic>{};
+    for (var i = 1; i < size; i++) {
+      final name = _readName(buffer);
+      headers[name] = readValue(buffer);
+    }
+    return headers;
+  }
+
+  void _writeNames(WriteBuffer buffer, Object? names) {
+    if (names is! List) {
+      writeSize(buffer, 0);
+      return;
+    }
+    writeSize(buffer, names.length + 1);
+    for (final name in names) {
+      _writeName(buffer, name);
+    }
+  }
+
+  void _writeName(WriteBuffer buffer, Object? name) {
+    final index = name is String ? _headerIndex[name] : null;
+    if (index != null) {
+      buffer.putUint8(index);
+    } else {
+      buffer.putUint8(_otherName);
+      writeValue(buffer, name);
+    }
+  }
+
+  String? _readName(ReadBuffer buffer) {
+    final index = buffer.getUint8();
+    if (index == _otherName) {
+      return readValue(buffer) as String?;
+    }
+    if (index >= headerNames.length) {
+      throw const FormatException('Message corrupted');
+    }
+    return headerNames[index];
+  }
+}